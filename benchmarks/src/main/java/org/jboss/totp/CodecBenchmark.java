@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the counter computation, codecs and profile record
+ * serialization.
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	private byte[] secret;
+	private String base32Secret;
+	private char[] base32Chars;
+	private byte[] decoded;
+	private long time = 1111111109L;
+
+	@Setup
+	public void setup() {
+		// SHA-1 sized key
+		secret = new byte[20];
+		for (int i = 0; i < secret.length; i++) {
+			secret[i] = (byte) (i * 31 + 7);
+		}
+		base32Secret = Base32.encode(secret);
+		base32Chars = new char[Base32.encodedLength(secret.length)];
+		decoded = new byte[secret.length];
+	}
+
+	@Benchmark
+	public long getCounter() {
+		return TOTPMIDlet.getCounter(time++, 30);
+	}
+
+	@Benchmark
+	public String base32Encode() {
+		return Base32.encode(secret);
+	}
+
+	@Benchmark
+	public byte[] base32Decode() {
+		return Base32.decode(base32Secret);
+	}
+
+	@Benchmark
+	public char[] base32EncodeToBuffer() {
+		Base32.encode(secret, 0, secret.length, base32Chars, 0);
+		return base32Chars;
+	}
+
+	@Benchmark
+	public byte[] base32DecodeToBuffer() {
+		Base32.decode(base32Secret, decoded, 0);
+		return decoded;
+	}
+
+	@Benchmark
+	public String toHexString() {
+		return TOTPMIDlet.toHexString(secret, 0, secret.length);
+	}
+
+	@Benchmark
+	public byte[] getProfileConfig() {
+		return TOTPMIDlet.getProfileConfig("Benchmark profile", secret, 30, 0, 6, 0L);
+	}
+}
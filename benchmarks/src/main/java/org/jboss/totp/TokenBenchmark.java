@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Token generation benchmarks for all supported HMAC algorithms and several
+ * token lengths.
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBenchmark {
+
+	/**
+	 * HMAC algorithm index: SHA-1, SHA-256, SHA-512.
+	 */
+	@Param({ "0", "1", "2" })
+	private int algorithm;
+
+	@Param({ "6", "8", "10" })
+	private int digits;
+
+	private HMac hmac;
+	private KeyedMac keyedMac;
+	private TokenMac tokenMac;
+	private final TokenGenerator tokenGenerator = new TokenGenerator();
+	private final char[] token = new char[10];
+	private long counter = 37037036L;
+
+	@Setup
+	public void setup() {
+		final byte[] key = new byte[KeyedMac.createDigest(algorithm).getDigestSize()];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = (byte) ('0' + i % 10);
+		}
+		hmac = new HMac(KeyedMac.createDigest(algorithm));
+		hmac.init(new KeyParameter(key));
+		keyedMac = new KeyedMac(algorithm, key);
+		tokenMac = KeyedMac.create(algorithm, key);
+	}
+
+	@Benchmark
+	public String genToken() {
+		return TOTPMIDlet.genToken(counter++, hmac, digits);
+	}
+
+	@Benchmark
+	public String genTokenKeyedMac() {
+		return TOTPMIDlet.genToken(counter++, keyedMac, digits);
+	}
+
+	/**
+	 * Specialized {@link Sha1TokenMac} for SHA-1, the same as
+	 * {@link #genTokenKeyedMac()} for other algorithms.
+	 */
+	@Benchmark
+	public String genTokenTokenMac() {
+		return TOTPMIDlet.genToken(counter++, tokenMac, digits);
+	}
+
+	@Benchmark
+	public char[] generateToBuffer() {
+		tokenGenerator.generate(counter++, keyedMac, digits, token, 0);
+		return token;
+	}
+}
@@ -0,0 +1,412 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp.se;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.jboss.totp.Base32;
+import org.jboss.totp.KeyedMac;
+import org.jboss.totp.Metrics;
+import org.jboss.totp.TokenGenerator;
+
+/**
+ * Command line generator of TOTP tokens for many secrets. Every input line
+ * contains a Base32 encoded secret with optional comma separated parameters:
+ *
+ * <pre>
+ * SECRET[,ALGORITHM[,DIGITS[,TIME_STEP[,DELTA]]]]
+ * </pre>
+ *
+ * The algorithm is one of <code>SHA-1</code> (default), <code>SHA-256</code>
+ * and <code>SHA-512</code>; defaults for the rest are 6 digits, 30 seconds
+ * time step and no time correction. One output line is written for each input
+ * line - the token, an empty line for an empty or comment (<code>#</code>)
+ * line and a line starting with <code>ERROR:</code> for an invalid one.
+ * <p>
+ * The input is read in chunks which are processed by a pool of worker
+ * threads. Each worker thread has its own HMAC instances, which are only
+ * re-keyed for each line. Results are written in the input order and only a
+ * limited number of chunks is in progress at once, so the memory usage
+ * doesn't depend on the input size.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class BatchTokenGenerator {
+
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+	public static final int DEFAULT_DIGITS = 6;
+	public static final int DEFAULT_TIME_STEP = 30;
+
+	static final String ERROR_PREFIX = "ERROR: ";
+
+	static final int METRIC_CHUNK = 0;
+	static final int METRIC_WRITE = 1;
+
+	// indexes are KeyedMac.ALG_* values
+	static final String[] ALGORITHM_NAMES = { "SHA-1", "SHA-256", "SHA-512" };
+
+	private static final int MAX_DIGITS = 99;
+
+	private final long timeInSec;
+	private final int threads;
+	private final int chunkSize;
+
+	private final ThreadLocal<LineProcessor> processors = ThreadLocal.withInitial(LineProcessor::new);
+	private final Metrics metrics = new Metrics(new String[] { "batch chunk", "batch write" });
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param timeInSec
+	 *            time of the generated tokens (seconds since the epoch)
+	 * @param threads
+	 *            number of worker threads
+	 * @param chunkSize
+	 *            number of lines processed by a worker at once
+	 */
+	public BatchTokenGenerator(final long timeInSec, final int threads, final int chunkSize) {
+		if (threads <= 0 || chunkSize <= 0) {
+			throw new IllegalArgumentException("Number of threads and chunk size must be positive.");
+		}
+		this.timeInSec = timeInSec;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Generates tokens for all lines of the input.
+	 *
+	 * @param in
+	 *            input with secrets
+	 * @param out
+	 *            output for tokens
+	 * @return number of processed lines
+	 * @throws IOException
+	 *             reading or writing fails
+	 */
+	public long generate(final BufferedReader in, final Writer out) throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// results are written in order, the queue limits chunks in progress
+		final ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+		final int maxPending = 2 * threads;
+		long lineCount = 0L;
+		try {
+			String[] chunk;
+			while ((chunk = readChunk(in)) != null) {
+				final String[] lines = chunk;
+				lineCount += lines.length;
+				pending.add(executor.submit(() -> processChunk(lines)));
+				if (pending.size() >= maxPending) {
+					writeResult(pending.poll(), out);
+				}
+			}
+			while (!pending.isEmpty()) {
+				writeResult(pending.poll(), out);
+			}
+			metrics.sampleMemory();
+			out.flush();
+		} finally {
+			executor.shutdownNow();
+		}
+		return lineCount;
+	}
+
+	/**
+	 * Returns durations of chunk processing and writing recorded by
+	 * {@link #generate(BufferedReader, Writer)}.
+	 *
+	 * @return metrics
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Generates token for a single input line.
+	 *
+	 * @param line
+	 *            line in the input format
+	 * @param timeInSec
+	 *            time of the token (seconds since the epoch)
+	 * @return token, an empty String or an error message
+	 */
+	public static String generate(final String line, final long timeInSec) {
+		final StringBuilder sb = new StringBuilder();
+		new LineProcessor().process(line, timeInSec, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns algorithm index (see <code>KeyedMac.ALG_*</code>) for the given
+	 * name. Names are case insensitive and the dash is optional (e.g.
+	 * <code>sha256</code>).
+	 *
+	 * @param name
+	 *            algorithm name
+	 * @return algorithm index
+	 * @throws IllegalArgumentException
+	 *             if the algorithm is not supported
+	 */
+	public static int parseAlgorithm(final String name) {
+		for (int i = 0; i < ALGORITHM_NAMES.length; i++) {
+			if (ALGORITHM_NAMES[i].equalsIgnoreCase(name) || ALGORITHM_NAMES[i].replace("-", "").equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported algorithm: " + name);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static void main(final String[] args) throws IOException {
+		long time = System.currentTimeMillis() / 1000L;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunkSize = DEFAULT_CHUNK_SIZE;
+		boolean verbose = false;
+		String inputFile = null;
+		String metricsFile = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final String arg = args[i];
+				if ("-t".equals(arg) || "--time".equals(arg)) {
+					time = Long.parseLong(args[++i]);
+				} else if ("-T".equals(arg) || "--threads".equals(arg)) {
+					threads = Integer.parseInt(args[++i]);
+				} else if ("-c".equals(arg) || "--chunk".equals(arg)) {
+					chunkSize = Integer.parseInt(args[++i]);
+				} else if ("-m".equals(arg) || "--metrics".equals(arg)) {
+					metricsFile = args[++i];
+				} else if ("-v".equals(arg) || "--verbose".equals(arg)) {
+					verbose = true;
+				} else if ("-h".equals(arg) || "--help".equals(arg)) {
+					printUsage();
+					return;
+				} else if (inputFile == null && (!arg.startsWith("-") || "-".equals(arg))) {
+					inputFile = arg;
+				} else {
+					throw new IllegalArgumentException("Unexpected argument: " + arg);
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+
+		final long start = System.nanoTime();
+		final BufferedReader in = new BufferedReader(new InputStreamReader(
+				inputFile == null || "-".equals(inputFile) ? System.in : new FileInputStream(inputFile),
+				StandardCharsets.UTF_8), 1 << 16);
+		final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		final BatchTokenGenerator generator = new BatchTokenGenerator(time, threads, chunkSize);
+		final long lines;
+		try {
+			lines = generator.generate(in, out);
+		} finally {
+			in.close();
+		}
+		if (metricsFile != null) {
+			try (Writer metricsOut = new OutputStreamWriter(new FileOutputStream(metricsFile), StandardCharsets.UTF_8)) {
+				MetricsExporter.write(generator.getMetrics(), "totp_", metricsOut);
+			}
+		}
+		if (verbose) {
+			System.err.println("Processed " + lines + " lines in " + (System.nanoTime() - start) / 1000000L + " ms ("
+					+ threads + " threads, time " + time + ")");
+		}
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private String[] readChunk(final BufferedReader in) throws IOException {
+		final String[] lines = new String[chunkSize];
+		int count = 0;
+		String line;
+		while (count < chunkSize && (line = in.readLine()) != null) {
+			lines[count++] = line;
+		}
+		if (count == 0) {
+			return null;
+		}
+		if (count < chunkSize) {
+			final String[] result = new String[count];
+			System.arraycopy(lines, 0, result, 0, count);
+			return result;
+		}
+		return lines;
+	}
+
+	private String processChunk(final String[] lines) {
+		final long start = metrics.start();
+		final LineProcessor processor = processors.get();
+		final StringBuilder sb = new StringBuilder(lines.length * (DEFAULT_DIGITS + 1));
+		for (String line : lines) {
+			processor.process(line, timeInSec, sb);
+			sb.append('\n');
+		}
+		metrics.record(METRIC_CHUNK, start);
+		return sb.toString();
+	}
+
+	private void writeResult(final Future<String> future, final Writer out) throws IOException {
+		final String result = getResult(future);
+		final long start = metrics.start();
+		out.write(result);
+		metrics.record(METRIC_WRITE, start);
+	}
+
+	private static String getResult(final Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Token generation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Token generation failed", e.getCause());
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: java -cp totp-me-javase.jar " + BatchTokenGenerator.class.getName()
+				+ " [options] [inputFile|-]");
+		System.err.println();
+		System.err.println("Input lines: SECRET[,ALGORITHM[,DIGITS[,TIME_STEP[,DELTA]]]]");
+		System.err.println();
+		System.err.println("Options:");
+		System.err.println("  -t, --time <seconds>  time of generated tokens (default: now)");
+		System.err.println("  -T, --threads <n>     number of worker threads (default: number of CPUs)");
+		System.err.println("  -c, --chunk <lines>   lines processed by a worker at once (default: "
+				+ DEFAULT_CHUNK_SIZE + ")");
+		System.err.println("  -m, --metrics <file>  write metrics in the Prometheus text format to the file");
+		System.err.println("  -v, --verbose         print statistics to the error output");
+		System.err.println("  -h, --help            print this help");
+	}
+
+	// Embedded classes ------------------------------------------------------
+
+	/**
+	 * Per-thread line processor. It keeps one HMAC instance per algorithm and
+	 * reusable buffers.
+	 */
+	private static class LineProcessor {
+
+		private final HMac[] hmacs = new HMac[ALGORITHM_NAMES.length];
+		private final TokenGenerator generator = new TokenGenerator();
+		private final char[] token = new char[MAX_DIGITS];
+		private byte[] key = new byte[64];
+
+		void process(final String line, final long timeInSec, final StringBuilder sb) {
+			final String trimmed = line.trim();
+			if (trimmed.length() == 0 || trimmed.charAt(0) == '#') {
+				return;
+			}
+			try {
+				int start = 0;
+				int end = nextSeparator(trimmed, start);
+				final String secret = trimmed.substring(start, end);
+				int algorithm = KeyedMac.ALG_SHA1;
+				int digits = DEFAULT_DIGITS;
+				int timeStep = DEFAULT_TIME_STEP;
+				long delta = 0L;
+				for (int field = 1; end < trimmed.length(); field++) {
+					start = end + 1;
+					end = nextSeparator(trimmed, start);
+					final String value = trimmed.substring(start, end).trim();
+					if (value.length() == 0) {
+						continue;
+					}
+					switch (field) {
+					case 1:
+						algorithm = parseAlgorithm(value);
+						break;
+					case 2:
+						digits = Integer.parseInt(value);
+						break;
+					case 3:
+						timeStep = Integer.parseInt(value);
+						break;
+					case 4:
+						delta = Long.parseLong(value);
+						break;
+					default:
+						throw new IllegalArgumentException("Too many fields");
+					}
+				}
+				if (digits <= 0 || digits > MAX_DIGITS) {
+					throw new IllegalArgumentException("Number of digits out of range: " + digits);
+				}
+				if (timeStep <= 0) {
+					throw new IllegalArgumentException("Time step must be positive: " + timeStep);
+				}
+				final int keyLen = decodeKey(secret);
+				if (keyLen == 0) {
+					throw new IllegalArgumentException("Secret key is empty");
+				}
+				final HMac hmac = getHMac(algorithm);
+				hmac.init(new KeyParameter(key, 0, keyLen));
+				final int len = generator.generate((timeInSec + delta) / timeStep, hmac, digits, token, 0);
+				sb.append(token, 0, len);
+			} catch (IllegalArgumentException e) {
+				sb.append(ERROR_PREFIX).append(e.getMessage());
+			}
+		}
+
+		private int decodeKey(final String secret) {
+			final int len = Base32.decodedLength(secret);
+			if (len > key.length) {
+				key = new byte[len];
+			}
+			return Base32.decode(secret, key, 0);
+		}
+
+		private HMac getHMac(final int algorithm) {
+			if (hmacs[algorithm] == null) {
+				hmacs[algorithm] = new HMac(KeyedMac.createDigest(algorithm));
+			}
+			return hmacs[algorithm];
+		}
+
+		private static int nextSeparator(final String str, final int from) {
+			final int idx = str.indexOf(',', from);
+			return idx < 0 ? str.length() : idx;
+		}
+	}
+}
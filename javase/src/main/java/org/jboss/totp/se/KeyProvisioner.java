@@ -0,0 +1,326 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp.se;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.jboss.totp.Base32;
+import org.jboss.totp.DecimalFormatter;
+import org.jboss.totp.KeyedMac;
+import org.jboss.totp.Metrics;
+import org.jboss.totp.SecretGenerator;
+
+/**
+ * Command line provisioning of new TOTP secrets. For each generated key one
+ * <code>otpauth://totp/</code> URI (it can be pasted to the MIDlet import
+ * screen) is written to the output and optionally one line in the
+ * {@link BatchTokenGenerator} input format to the secrets file:
+ *
+ * <pre>
+ * otpauth://totp/ISSUER:device-0001?secret=SECRET&amp;issuer=ISSUER&amp;algorithm=SHA1&amp;digits=6&amp;period=30
+ * SECRET,SHA-1,6,30
+ * </pre>
+ *
+ * The {@link SecretGenerator} (digest-based DRBG) is seeded once from
+ * {@link SecureRandom} and keys are generated in batches into a preallocated
+ * buffer. Both outputs are written in a single pass, so the memory usage
+ * doesn't depend on the number of keys.
+ *
+ * @author Josef Cacek
+ */
+public class KeyProvisioner {
+
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	public static final int DEFAULT_DIGITS = 6;
+	public static final int DEFAULT_TIME_STEP = 30;
+	public static final String DEFAULT_NAME_PREFIX = "device-";
+
+	static final int METRIC_BATCH = 0;
+	static final int METRIC_WRITE = 1;
+
+	private static final int SEED_LENGTH = 32;
+	private static final String UNRESERVED_URI_CHARS = "-._~";
+
+	private final SecretGenerator generator;
+	private final int algorithm;
+	private final int digits;
+	private final int timeStep;
+	private final String issuer;
+	private final String namePrefix;
+	private final int batchSize;
+
+	private final Metrics metrics = new Metrics(new String[] { "key batch", "key write" });
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param generator
+	 *            seeded key generator
+	 * @param algorithm
+	 *            HMAC algorithm index (see <code>KeyedMac.ALG_*</code>)
+	 * @param digits
+	 *            number of token digits
+	 * @param timeStep
+	 *            time step in seconds
+	 * @param issuer
+	 *            issuer (may be <code>null</code>)
+	 * @param namePrefix
+	 *            prefix of account names, the key number is appended to it
+	 * @param batchSize
+	 *            number of keys generated at once
+	 */
+	public KeyProvisioner(final SecretGenerator generator, final int algorithm, final int digits,
+			final int timeStep, final String issuer, final String namePrefix, final int batchSize) {
+		if (algorithm < KeyedMac.ALG_SHA1 || algorithm > KeyedMac.ALG_SHA512) {
+			throw new IllegalArgumentException("Unsupported algorithm index: " + algorithm);
+		}
+		if (!DecimalFormatter.INSTANCE.isSupportedLength(digits)) {
+			throw new IllegalArgumentException("Number of digits must be between 1 and " + DecimalFormatter.MAX_LENGTH
+					+ ".");
+		}
+		if (timeStep <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("Time step and batch size must be positive.");
+		}
+		this.generator = generator;
+		this.algorithm = algorithm;
+		this.digits = digits;
+		this.timeStep = timeStep;
+		this.issuer = issuer != null && issuer.length() > 0 ? issuer : null;
+		this.namePrefix = namePrefix != null ? namePrefix : "";
+		this.batchSize = batchSize;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Generates keys and writes their records. Keys are numbered from
+	 * <code>firstNumber</code>, the numbers are zero padded to the width of
+	 * the last one.
+	 *
+	 * @param firstNumber
+	 *            number of the first key
+	 * @param count
+	 *            number of keys
+	 * @param uriOut
+	 *            output for the <code>otpauth://</code> URIs
+	 * @param secretsOut
+	 *            output for the secret lines (may be <code>null</code>)
+	 * @return number of generated keys
+	 * @throws IOException
+	 *             writing fails
+	 */
+	public long provision(final long firstNumber, final long count, final Writer uriOut, final Writer secretsOut)
+			throws IOException {
+		final int keyLength = SecretGenerator.getKeyLength(algorithm);
+		final byte[] keys = new byte[batchSize * keyLength];
+		final char[] secret = new char[Base32.encodedLength(keyLength, false)];
+		final String uriPrefix = "otpauth://totp/" + (issuer != null ? encodeUriComponent(issuer) + ":" : "")
+				+ encodeUriComponent(namePrefix);
+		final String uriParams = (issuer != null ? "&issuer=" + encodeUriComponent(issuer) : "") + "&algorithm="
+				+ BatchTokenGenerator.ALGORITHM_NAMES[algorithm].replace("-", "") + "&digits=" + digits + "&period="
+				+ timeStep + "\n";
+		final String secretParams = "," + BatchTokenGenerator.ALGORITHM_NAMES[algorithm] + "," + digits + ","
+				+ timeStep + "\n";
+		final int numberWidth = Long.toString(firstNumber + count - 1).length();
+		final StringBuilder uris = new StringBuilder(batchSize * (uriPrefix.length() + numberWidth
+				+ secret.length + uriParams.length() + 8));
+		final StringBuilder secrets = new StringBuilder(batchSize * (secret.length + secretParams.length()));
+		try {
+			for (long done = 0L; done < count;) {
+				final int n = (int) Math.min(batchSize, count - done);
+				long start = metrics.start();
+				generator.nextKeys(keys, 0, n, keyLength);
+				uris.setLength(0);
+				secrets.setLength(0);
+				for (int i = 0; i < n; i++) {
+					final int secretLength = Base32.encode(keys, i * keyLength, keyLength, secret, 0, false);
+					uris.append(uriPrefix);
+					appendNumber(uris, firstNumber + done + i, numberWidth);
+					uris.append("?secret=").append(secret, 0, secretLength).append(uriParams);
+					secrets.append(secret, 0, secretLength).append(secretParams);
+				}
+				metrics.record(METRIC_BATCH, start);
+				start = metrics.start();
+				uriOut.append(uris);
+				if (secretsOut != null) {
+					secretsOut.append(secrets);
+				}
+				metrics.record(METRIC_WRITE, start);
+				done += n;
+			}
+			metrics.sampleMemory();
+			uriOut.flush();
+			if (secretsOut != null) {
+				secretsOut.flush();
+			}
+		} finally {
+			Arrays.fill(keys, (byte) 0);
+			Arrays.fill(secret, '\0');
+		}
+		return count;
+	}
+
+	/**
+	 * Returns durations of batch generation and writing recorded by
+	 * {@link #provision(long, long, Writer, Writer)}.
+	 *
+	 * @return metrics
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Percent-encodes (UTF-8) all characters except the unreserved ones (RFC
+	 * 3986).
+	 *
+	 * @param value
+	 * @return encoded value
+	 */
+	public static String encodeUriComponent(final String value) {
+		final StringBuilder sb = new StringBuilder(value.length());
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			final char ch = (char) (b & 0xFF);
+			if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')
+					|| UNRESERVED_URI_CHARS.indexOf(ch) >= 0) {
+				sb.append(ch);
+			} else {
+				sb.append('%').append(Character.toUpperCase(Character.forDigit(ch >> 4, 16)))
+						.append(Character.toUpperCase(Character.forDigit(ch & 0xF, 16)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static void main(final String[] args) throws IOException {
+		long count = 1L;
+		long first = 1L;
+		int algorithm = KeyedMac.ALG_SHA1;
+		int digits = DEFAULT_DIGITS;
+		int timeStep = DEFAULT_TIME_STEP;
+		String issuer = null;
+		String prefix = DEFAULT_NAME_PREFIX;
+		int batchSize = DEFAULT_BATCH_SIZE;
+		boolean verbose = false;
+		String secretsFile = null;
+		String metricsFile = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final String arg = args[i];
+				if ("-n".equals(arg) || "--count".equals(arg)) {
+					count = Long.parseLong(args[++i]);
+				} else if ("-f".equals(arg) || "--first".equals(arg)) {
+					first = Long.parseLong(args[++i]);
+				} else if ("-a".equals(arg) || "--algorithm".equals(arg)) {
+					algorithm = BatchTokenGenerator.parseAlgorithm(args[++i]);
+				} else if ("-d".equals(arg) || "--digits".equals(arg)) {
+					digits = Integer.parseInt(args[++i]);
+				} else if ("-p".equals(arg) || "--period".equals(arg)) {
+					timeStep = Integer.parseInt(args[++i]);
+				} else if ("-i".equals(arg) || "--issuer".equals(arg)) {
+					issuer = args[++i];
+				} else if ("-P".equals(arg) || "--prefix".equals(arg)) {
+					prefix = args[++i];
+				} else if ("-s".equals(arg) || "--secrets".equals(arg)) {
+					secretsFile = args[++i];
+				} else if ("-b".equals(arg) || "--batch".equals(arg)) {
+					batchSize = Integer.parseInt(args[++i]);
+				} else if ("-m".equals(arg) || "--metrics".equals(arg)) {
+					metricsFile = args[++i];
+				} else if ("-v".equals(arg) || "--verbose".equals(arg)) {
+					verbose = true;
+				} else if ("-h".equals(arg) || "--help".equals(arg)) {
+					printUsage();
+					return;
+				} else {
+					throw new IllegalArgumentException("Unexpected argument: " + arg);
+				}
+			}
+			if (count < 0L || first < 0L) {
+				throw new IllegalArgumentException("Key count and the first number must not be negative.");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+
+		final long start = System.nanoTime();
+		final SecretGenerator secretGenerator = new SecretGenerator(new SecureRandom().generateSeed(SEED_LENGTH));
+		final KeyProvisioner provisioner = new KeyProvisioner(secretGenerator, algorithm, digits, timeStep, issuer,
+				prefix, batchSize);
+		final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		try (Writer secretsOut = secretsFile == null ? null : new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(secretsFile), StandardCharsets.UTF_8), 1 << 16)) {
+			provisioner.provision(first, count, out, secretsOut);
+		}
+		if (metricsFile != null) {
+			try (Writer metricsOut = new OutputStreamWriter(new FileOutputStream(metricsFile), StandardCharsets.UTF_8)) {
+				MetricsExporter.write(provisioner.getMetrics(), "totp_", metricsOut);
+			}
+		}
+		if (verbose) {
+			final long nanos = Math.max(1L, System.nanoTime() - start);
+			System.err.println("Generated " + count + " keys in " + nanos / 1000000L + " ms (" + count * 1000000000L
+					/ nanos + " keys/s)");
+		}
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private static void appendNumber(final StringBuilder sb, final long number, final int width) {
+		for (int i = Long.toString(number).length(); i < width; i++) {
+			sb.append('0');
+		}
+		sb.append(number);
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: java -cp totp-me-javase.jar " + KeyProvisioner.class.getName() + " [options]");
+		System.err.println();
+		System.err.println("Writes otpauth://totp/ URIs of new random secrets to the standard output.");
+		System.err.println();
+		System.err.println("Options:");
+		System.err.println("  -n, --count <n>        number of keys (default: 1)");
+		System.err.println("  -f, --first <n>        number of the first key in account names (default: 1)");
+		System.err.println("  -a, --algorithm <alg>  SHA-1 (default), SHA-256 or SHA-512");
+		System.err.println("  -d, --digits <n>       number of token digits (default: " + DEFAULT_DIGITS + ")");
+		System.err.println("  -p, --period <seconds> time step (default: " + DEFAULT_TIME_STEP + ")");
+		System.err.println("  -i, --issuer <name>    issuer of the accounts");
+		System.err.println("  -P, --prefix <name>    prefix of account names (default: " + DEFAULT_NAME_PREFIX + ")");
+		System.err.println("  -s, --secrets <file>   write secrets in the BatchTokenGenerator input format to the file");
+		System.err.println("  -b, --batch <keys>     keys generated at once (default: " + DEFAULT_BATCH_SIZE + ")");
+		System.err.println("  -m, --metrics <file>   write metrics in the Prometheus text format to the file");
+		System.err.println("  -v, --verbose          print the number of generated keys per second");
+		System.err.println("  -h, --help             print this help");
+	}
+}
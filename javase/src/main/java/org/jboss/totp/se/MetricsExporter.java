@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp.se;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.jboss.totp.Metrics;
+
+/**
+ * Exports {@link Metrics} in the Prometheus text format. Every metric is
+ * written as a histogram in seconds (<code>_bucket</code>, <code>_sum</code>,
+ * <code>_count</code>) and the sampled heap sizes as gauges in bytes.
+ *
+ * @author Josef Cacek
+ */
+public final class MetricsExporter {
+
+	private MetricsExporter() {
+	}
+
+	/**
+	 * Writes the metrics.
+	 *
+	 * @param metrics
+	 *            metrics registry
+	 * @param prefix
+	 *            prefix of the exported names (e.g. <code>totp_</code>)
+	 * @param out
+	 *            output
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public static void write(final Metrics metrics, final String prefix, final Writer out) throws IOException {
+		for (int i = 0; i < metrics.size(); i++) {
+			final String name = prefix + toMetricName(metrics.getName(i)) + "_seconds";
+			out.write("# TYPE " + name + " histogram\n");
+			long cumulative = 0L;
+			for (int b = 0; b < Metrics.getBucketCount(); b++) {
+				cumulative += metrics.getBucketValue(i, b);
+				final long limit = Metrics.getBucketLimit(b);
+				out.write(name + "_bucket{le=\"" + (limit == Long.MAX_VALUE ? "+Inf" : toSeconds(limit)) + "\"} "
+						+ cumulative + "\n");
+			}
+			out.write(name + "_sum " + toSeconds(metrics.getTotalMillis(i)) + "\n");
+			out.write(name + "_count " + metrics.getCount(i) + "\n");
+		}
+		writeGauge(out, prefix + "heap_free_bytes", metrics.getFreeMemory());
+		writeGauge(out, prefix + "heap_min_free_bytes", metrics.getMinFreeMemory());
+		writeGauge(out, prefix + "heap_total_bytes", metrics.getTotalMemory());
+		writeGauge(out, prefix + "heap_startup_used_bytes", metrics.getStartupUsedMemory());
+		out.flush();
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private static void writeGauge(final Writer out, final String name, final long value) throws IOException {
+		if (value >= 0L) {
+			out.write("# TYPE " + name + " gauge\n");
+			out.write(name + " " + value + "\n");
+		}
+	}
+
+	private static String toMetricName(final String name) {
+		final StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			final char ch = Character.toLowerCase(name.charAt(i));
+			sb.append((ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9') ? ch : '_');
+		}
+		return sb.toString();
+	}
+
+	private static String toSeconds(final long millis) {
+		return String.valueOf(millis / 1000.0);
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp.se;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Replay protection for verified TOTP codes. The cache remembers the highest
+ * accepted counter for each user (or profile) id, so an already used code
+ * can't be accepted again while it's still inside the verification window.
+ * <p>
+ * Entries are kept in a fixed size open-addressing table of primitive longs -
+ * the user id is stored in the upper 32 bits and the counter in the lower 32
+ * bits of a slot, so a whole entry is updated by a single compare-and-set
+ * without locking or boxing. Entries whose counter falls behind the window
+ * (<code>currentCounter - lookBack</code>) are expired and their slots are
+ * reused for other users, so the table size only has to cover users active
+ * within the window.
+ * </p>
+ * <p>
+ * An entry is stored only within {@link #MAX_PROBES} slots from the home slot
+ * of its user - in the first slot which is empty, expired or already belongs
+ * to the user. Slots are never emptied, so an empty slot ends every search:
+ * the entries of its user were all stored before it. A lookup therefore visits
+ * at most {@link #MAX_PROBES} slots however many users were seen before.
+ * </p>
+ * <p>
+ * Typical use together with {@link org.jboss.totp.TotpVerifier}:
+ * </p>
+ *
+ * <pre>
+ * final long current = verifier.getCounter(now);
+ * final int offset = verifier.verify(code, now);
+ * final boolean ok = offset != TotpVerifier.NO_MATCH &amp;&amp; replayCache.tryAccept(userId, current + offset, current);
+ * </pre>
+ *
+ * <p>
+ * The cache fails closed - when there is no free or expired slot for a new
+ * user within its probe range, the code is rejected.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class ReplayCache {
+
+	/**
+	 * The biggest counter which can be stored in the cache.
+	 */
+	public static final long MAX_COUNTER = 0xFFFFFFFFL;
+
+	/**
+	 * Maximal number of slots visited by a lookup.
+	 */
+	static final int MAX_PROBES = 64;
+
+	private static final long EMPTY = 0L;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final AtomicLongArray slots;
+	private final int mask;
+	private final int maxProbes;
+	private final int lookBack;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates cache.
+	 *
+	 * @param maxActiveUsers
+	 *            expected maximal number of users verified within the window
+	 *            (the table is sized to twice this value rounded up to a power
+	 *            of two)
+	 * @param lookBack
+	 *            number of past counters accepted by the verifier
+	 * @throws IllegalArgumentException
+	 *             if a parameter is out of range
+	 */
+	public ReplayCache(final int maxActiveUsers, final int lookBack) {
+		if (maxActiveUsers <= 0 || maxActiveUsers > MAX_CAPACITY / 2) {
+			throw new IllegalArgumentException("Number of active users is out of range.");
+		}
+		if (lookBack < 0) {
+			throw new IllegalArgumentException("Look-back window must not be negative.");
+		}
+		int capacity = 2;
+		while (capacity < 2 * maxActiveUsers) {
+			capacity <<= 1;
+		}
+		this.slots = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+		this.maxProbes = Math.min(MAX_PROBES, capacity);
+		this.lookBack = lookBack;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Records the counter of a verified code for the given user. The call
+	 * succeeds only if the counter is higher than every counter accepted for
+	 * the user before and it isn't behind the window.
+	 *
+	 * @param userId
+	 *            user (or profile) id
+	 * @param counter
+	 *            counter of the verified code
+	 * @param currentCounter
+	 *            counter of the current time
+	 * @return <code>true</code> if the code was accepted, <code>false</code> if
+	 *         it's a replay, too old or the cache is full
+	 * @throws IllegalArgumentException
+	 *             if the counter is not in range <code>1..MAX_COUNTER</code>
+	 */
+	public boolean tryAccept(final int userId, final long counter, final long currentCounter) {
+		if (counter <= 0L || counter > MAX_COUNTER) {
+			throw new IllegalArgumentException("Counter is out of range: " + counter);
+		}
+		final long minValid = currentCounter - lookBack;
+		if (counter < minValid) {
+			return false;
+		}
+		final long entry = ((long) userId << 32) | counter;
+		final int home = hash(userId) & mask;
+		for (;;) {
+			int target = -1;
+			long expected = EMPTY;
+			int expiredSlot = -1;
+			long expiredEntry = EMPTY;
+			int i = home;
+			int probes = 0;
+			// walk the whole probe range - concurrent inserts may have left
+			// more than one entry for the user
+			for (; probes < maxProbes; probes++, i = (i + 1) & mask) {
+				final long value = slots.get(i);
+				if (value == EMPTY) {
+					break;
+				}
+				if ((int) (value >>> 32) == userId) {
+					if ((value & MAX_COUNTER) >= counter) {
+						return false;
+					}
+					if (target < 0) {
+						target = i;
+						expected = value;
+					}
+				} else if (expiredSlot < 0 && (value & MAX_COUNTER) < minValid) {
+					expiredSlot = i;
+					expiredEntry = value;
+				}
+			}
+			if (target < 0) {
+				if (expiredSlot >= 0) {
+					target = expiredSlot;
+					expected = expiredEntry;
+				} else if (probes < maxProbes) {
+					target = i;
+				} else {
+					return false;
+				}
+			}
+			if (slots.compareAndSet(target, expected, entry)) {
+				return !hasOtherEntry(userId, counter, home, target);
+			}
+		}
+	}
+
+	/**
+	 * Returns the highest accepted counter of the given user.
+	 *
+	 * @param userId
+	 *            user (or profile) id
+	 * @param currentCounter
+	 *            counter of the current time
+	 * @return counter or -1 if there is no entry for the user within the window
+	 */
+	public long getLastAccepted(final int userId, final long currentCounter) {
+		final long minValid = currentCounter - lookBack;
+		long result = -1L;
+		int i = hash(userId) & mask;
+		for (int probes = 0; probes < maxProbes; probes++, i = (i + 1) & mask) {
+			final long value = slots.get(i);
+			if (value == EMPTY) {
+				break;
+			}
+			final long counter = value & MAX_COUNTER;
+			if ((int) (value >>> 32) == userId && counter >= minValid && counter > result) {
+				result = counter;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns number of entries which are not expired. The whole table is
+	 * scanned, so it's meant for monitoring only.
+	 *
+	 * @param currentCounter
+	 *            counter of the current time
+	 * @return number of live entries
+	 */
+	public int size(final long currentCounter) {
+		final long minValid = currentCounter - lookBack;
+		int result = 0;
+		for (int i = 0; i <= mask; i++) {
+			final long value = slots.get(i);
+			if (value != EMPTY && (value & MAX_COUNTER) >= minValid) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns number of slots in the table.
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns number of slots a lookup of the given user visits.
+	 *
+	 * @param userId
+	 * @return number of probes
+	 */
+	int getProbeCount(final int userId) {
+		int i = hash(userId) & mask;
+		int probes = 0;
+		while (probes < maxProbes && slots.get(i) != EMPTY) {
+			probes++;
+			i = (i + 1) & mask;
+		}
+		return probes;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	/**
+	 * Checks if a concurrent thread stored the same or a higher counter for
+	 * the user in another slot. Slots are never emptied, so the probe range up
+	 * to the first empty slot contains every entry of the user.
+	 */
+	private boolean hasOtherEntry(final int userId, final long counter, final int home, final int ownSlot) {
+		int i = home;
+		for (int probes = 0; probes < maxProbes; probes++, i = (i + 1) & mask) {
+			final long value = slots.get(i);
+			if (value == EMPTY) {
+				return false;
+			}
+			if (i != ownSlot && (int) (value >>> 32) == userId && (value & MAX_COUNTER) >= counter) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int hash(final int userId) {
+		final int h = userId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
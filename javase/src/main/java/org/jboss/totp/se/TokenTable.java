@@ -0,0 +1,429 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp.se;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jboss.totp.Base32;
+import org.jboss.totp.KeyedMac;
+import org.jboss.totp.TokenGenerator;
+import org.jboss.totp.TokenMac;
+
+/**
+ * Precomputed tokens of one secret for a range of counters (e.g. a year of 30
+ * second steps). The range is split into fork/join tasks, each of them with
+ * its own keyed MAC. Tokens are stored as integers in a compact
+ * <code>int[]</code>, or written as fixed width lines (digits and a new line)
+ * directly to a memory-mapped file.
+ *
+ * @author Josef Cacek
+ */
+public class TokenTable {
+
+	/**
+	 * Number of counters computed by a single fork/join task.
+	 */
+	static final int LEAF_SIZE = 16384;
+
+	private static final int MAX_DIGITS = 99;
+
+	private final long firstCounter;
+	private final int digits;
+	private final int[] codes;
+
+	// Constructors ----------------------------------------------------------
+
+	private TokenTable(final long firstCounter, final int digits, final int[] codes) {
+		this.firstCounter = firstCounter;
+		this.digits = digits;
+		this.codes = codes;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Computes tokens in the common fork/join pool.
+	 *
+	 * @see #compute(byte[], int, int, long, int, ForkJoinPool)
+	 */
+	public static TokenTable compute(final byte[] secret, final int algorithm, final int digits,
+			final long firstCounter, final int count) {
+		return compute(secret, algorithm, digits, firstCounter, count, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Computes tokens for counters <code>firstCounter .. firstCounter + count - 1</code>.
+	 *
+	 * @param secret
+	 *            secret key
+	 * @param algorithm
+	 *            HMAC algorithm index (see <code>KeyedMac.ALG_*</code>)
+	 * @param digits
+	 *            number of token digits
+	 * @param firstCounter
+	 *            the first counter
+	 * @param count
+	 *            number of counters
+	 * @param pool
+	 *            fork/join pool
+	 * @return token table
+	 * @throws IllegalArgumentException
+	 *             if a parameter is out of range
+	 */
+	public static TokenTable compute(final byte[] secret, final int algorithm, final int digits,
+			final long firstCounter, final int count, final ForkJoinPool pool) {
+		checkParameters(secret, algorithm, digits, firstCounter, count);
+		final int[] codes = new int[count];
+		pool.invoke(new CodesTask(secret, algorithm, digits, firstCounter, codes, 0L, count));
+		return new TokenTable(firstCounter, digits, codes);
+	}
+
+	/**
+	 * Writes tokens for counters <code>firstCounter .. firstCounter + count - 1</code>
+	 * to a file. Every token is on its own line, so the token of counter
+	 * <code>c</code> starts at offset <code>(c - firstCounter) * (digits + 1)</code>.
+	 *
+	 * @param file
+	 *            output file (it's overwritten)
+	 * @param secret
+	 *            secret key
+	 * @param algorithm
+	 *            HMAC algorithm index (see <code>KeyedMac.ALG_*</code>)
+	 * @param digits
+	 *            number of token digits
+	 * @param firstCounter
+	 *            the first counter
+	 * @param count
+	 *            number of counters
+	 * @param pool
+	 *            fork/join pool
+	 * @throws IOException
+	 *             if writing the file fails
+	 * @throws IllegalArgumentException
+	 *             if a parameter is out of range
+	 */
+	public static void write(final Path file, final byte[] secret, final int algorithm, final int digits,
+			final long firstCounter, final long count, final ForkJoinPool pool) throws IOException {
+		checkParameters(secret, algorithm, digits, firstCounter, count);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			pool.invoke(new FileTask(secret, algorithm, digits, firstCounter, channel, 0L, count));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns the first counter not lower than <code>fromCounter</code> which
+	 * produced the given code.
+	 *
+	 * @param code
+	 *            token as an integer
+	 * @param fromCounter
+	 *            counter where the search starts
+	 * @return counter or -1 if the code is not in the (rest of the) table
+	 */
+	public long findCounter(final int code, final long fromCounter) {
+		final long from = Math.max(fromCounter - firstCounter, 0L);
+		for (int i = (int) Math.min(from, codes.length); i < codes.length; i++) {
+			if (codes[i] == code) {
+				return firstCounter + i;
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * Returns the first counter which produced the given code.
+	 *
+	 * @param code
+	 *            token as an integer
+	 * @return counter or -1 if the code is not in the table
+	 */
+	public long findCounter(final int code) {
+		return findCounter(code, firstCounter);
+	}
+
+	/**
+	 * Returns token of the given counter as an integer.
+	 *
+	 * @param counter
+	 * @return token
+	 * @throws IndexOutOfBoundsException
+	 *             if the counter is not in the table
+	 */
+	public int getCode(final long counter) {
+		final long idx = counter - firstCounter;
+		if (idx < 0L || idx >= codes.length) {
+			throw new IndexOutOfBoundsException("Counter not in the table: " + counter);
+		}
+		return codes[(int) idx];
+	}
+
+	/**
+	 * Returns token of the given counter.
+	 *
+	 * @param counter
+	 * @return token (zero padded)
+	 * @throws IndexOutOfBoundsException
+	 *             if the counter is not in the table
+	 */
+	public String getToken(final long counter) {
+		final char[] token = new char[digits];
+		int value = getCode(counter);
+		for (int i = digits - 1; i >= 0; i--) {
+			token[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(token);
+	}
+
+	public long getFirstCounter() {
+		return firstCounter;
+	}
+
+	public int size() {
+		return codes.length;
+	}
+
+	public int getDigits() {
+		return digits;
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static void main(final String[] args) throws IOException {
+		String secret = null;
+		int algorithm = KeyedMac.ALG_SHA1;
+		int digits = BatchTokenGenerator.DEFAULT_DIGITS;
+		int timeStep = BatchTokenGenerator.DEFAULT_TIME_STEP;
+		long delta = 0L;
+		long start = System.currentTimeMillis() / 1000L;
+		long steps = 2L * 60 * 24 * 365;
+		String outputFile = null;
+		String findCode = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final String arg = args[i];
+				if ("-s".equals(arg) || "--secret".equals(arg)) {
+					secret = args[++i];
+				} else if ("-a".equals(arg) || "--algorithm".equals(arg)) {
+					algorithm = BatchTokenGenerator.parseAlgorithm(args[++i]);
+				} else if ("-d".equals(arg) || "--digits".equals(arg)) {
+					digits = Integer.parseInt(args[++i]);
+				} else if ("-p".equals(arg) || "--step".equals(arg)) {
+					timeStep = Integer.parseInt(args[++i]);
+				} else if ("--delta".equals(arg)) {
+					delta = Long.parseLong(args[++i]);
+				} else if ("--start".equals(arg)) {
+					start = Long.parseLong(args[++i]);
+				} else if ("-n".equals(arg) || "--steps".equals(arg)) {
+					steps = Long.parseLong(args[++i]);
+				} else if ("-o".equals(arg) || "--output".equals(arg)) {
+					outputFile = args[++i];
+				} else if ("-f".equals(arg) || "--find".equals(arg)) {
+					findCode = args[++i];
+				} else if ("-h".equals(arg) || "--help".equals(arg)) {
+					printUsage(System.out);
+					return;
+				} else {
+					throw new IllegalArgumentException("Unexpected argument: " + arg);
+				}
+			}
+			if (secret == null || (outputFile == null) == (findCode == null)) {
+				throw new IllegalArgumentException("Secret and either output file or code to find have to be provided.");
+			}
+			if (timeStep <= 0) {
+				throw new IllegalArgumentException("Time step must be positive.");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+			printUsage(System.err);
+			System.exit(2);
+		}
+
+		final byte[] key = Base32.decode(secret);
+		final long firstCounter = (start + delta) / timeStep;
+		final long startNanos = System.nanoTime();
+		if (outputFile != null) {
+			write(Paths.get(outputFile), key, algorithm, digits, firstCounter, steps, ForkJoinPool.commonPool());
+			System.err.println("Written " + steps + " tokens (counters " + firstCounter + " - "
+					+ (firstCounter + steps - 1) + ") in " + (System.nanoTime() - startNanos) / 1000000L + " ms");
+		} else {
+			if (steps > Integer.MAX_VALUE) {
+				System.err.println("Too many steps for the lookup: " + steps);
+				System.exit(2);
+			}
+			final TokenTable table = compute(key, algorithm, digits, firstCounter, (int) steps);
+			final int code = Integer.parseInt(findCode);
+			for (long counter = table.findCounter(code); counter >= 0L; counter = table.findCounter(code,
+					counter + 1)) {
+				System.out.println(counter + "\t" + (counter * timeStep - delta));
+			}
+		}
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private static void checkParameters(final byte[] secret, final int algorithm, final int digits,
+			final long firstCounter, final long count) {
+		if (secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("Secret key is empty.");
+		}
+		if (algorithm < 0 || algorithm > KeyedMac.ALG_SHA512) {
+			throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+		}
+		if (digits <= 0 || digits > MAX_DIGITS) {
+			throw new IllegalArgumentException("Number of digits out of range: " + digits);
+		}
+		if (firstCounter < 0L || count < 0L) {
+			throw new IllegalArgumentException("Counter range must not be negative.");
+		}
+	}
+
+	private static void printUsage(final PrintStream ps) {
+		ps.println("Usage: java -cp totp-me-javase.jar " + TokenTable.class.getName()
+				+ " -s <secret> (-o <file> | -f <code>) [options]");
+		ps.println();
+		ps.println("Options:");
+		ps.println("  -s, --secret <base32>   secret key");
+		ps.println("  -a, --algorithm <name>  SHA-1 (default), SHA-256 or SHA-512");
+		ps.println("  -d, --digits <n>        number of digits (default: " + BatchTokenGenerator.DEFAULT_DIGITS + ")");
+		ps.println("  -p, --step <seconds>    time step (default: " + BatchTokenGenerator.DEFAULT_TIME_STEP + ")");
+		ps.println("      --delta <seconds>   time correction (default: 0)");
+		ps.println("      --start <seconds>   start time of the range (default: now)");
+		ps.println("  -n, --steps <n>         number of time steps (default: one year of 30s steps)");
+		ps.println("  -o, --output <file>     write tokens to the file (one per line)");
+		ps.println("  -f, --find <code>       print counters and times which produced the code");
+	}
+
+	// Embedded classes ------------------------------------------------------
+
+	/**
+	 * Task computing tokens of a counter subrange. It's split until the
+	 * subrange is not bigger than {@link TokenTable#LEAF_SIZE}.
+	 */
+	private abstract static class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final byte[] secret;
+		final int algorithm;
+		final int digits;
+		final long firstCounter;
+		final long from;
+		final long count;
+
+		RangeTask(final byte[] secret, final int algorithm, final int digits, final long firstCounter,
+				final long from, final long count) {
+			this.secret = secret;
+			this.algorithm = algorithm;
+			this.digits = digits;
+			this.firstCounter = firstCounter;
+			this.from = from;
+			this.count = count;
+		}
+
+		@Override
+		protected void compute() {
+			if (count <= LEAF_SIZE) {
+				computeLeaf(KeyedMac.create(algorithm, secret), new TokenGenerator());
+			} else {
+				final long half = count / 2;
+				invokeAll(createSubtask(from, half), createSubtask(from + half, count - half));
+			}
+		}
+
+		abstract RangeTask createSubtask(long subFrom, long subCount);
+
+		abstract void computeLeaf(TokenMac mac, TokenGenerator generator);
+	}
+
+	private static class CodesTask extends RangeTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] codes;
+
+		CodesTask(final byte[] secret, final int algorithm, final int digits, final long firstCounter,
+				final int[] codes, final long from, final long count) {
+			super(secret, algorithm, digits, firstCounter, from, count);
+			this.codes = codes;
+		}
+
+		@Override
+		RangeTask createSubtask(final long subFrom, final long subCount) {
+			return new CodesTask(secret, algorithm, digits, firstCounter, codes, subFrom, subCount);
+		}
+
+		@Override
+		void computeLeaf(final TokenMac mac, final TokenGenerator generator) {
+			final int end = (int) (from + count);
+			for (int i = (int) from; i < end; i++) {
+				codes[i] = TokenGenerator.toCode(generator.generate(firstCounter + i, mac), digits);
+			}
+		}
+	}
+
+	private static class FileTask extends RangeTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		FileTask(final byte[] secret, final int algorithm, final int digits, final long firstCounter,
+				final FileChannel channel, final long from, final long count) {
+			super(secret, algorithm, digits, firstCounter, from, count);
+			this.channel = channel;
+		}
+
+		@Override
+		RangeTask createSubtask(final long subFrom, final long subCount) {
+			return new FileTask(secret, algorithm, digits, firstCounter, channel, subFrom, subCount);
+		}
+
+		@Override
+		void computeLeaf(final TokenMac mac, final TokenGenerator generator) {
+			final int lineLength = digits + 1;
+			final MappedByteBuffer buffer;
+			try {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, from * lineLength, count * lineLength);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			final byte[] line = new byte[lineLength];
+			line[digits] = '\n';
+			for (long i = 0; i < count; i++) {
+				generator.generate(firstCounter + from + i, mac, digits, line, 0);
+				buffer.put(line);
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.jboss.totp.se;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link BatchTokenGenerator}. Based on <a
+ * href="http://tools.ietf.org/html/rfc6238#appendix-B">test vectors from the
+ * RFC 6238</a>.
+ *
+ * @author Josef Cacek
+ */
+public class BatchTokenGeneratorTest extends TestCase {
+
+	private static final String SEED20 = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+	private static final String SEED32 = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZA====";
+	private static final String SEED64 = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ"
+			+ "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGEZDGNA=";
+
+	public void testSingleLine() {
+		assertEquals("94287082", BatchTokenGenerator.generate(SEED20 + ",SHA-1,8", 59L));
+		assertEquals("46119246", BatchTokenGenerator.generate(SEED32 + ",sha256,8,30,0", 59L));
+		assertEquals("90693936", BatchTokenGenerator.generate(SEED64 + ",SHA512,8", 59L));
+		// defaults - SHA-1, 6 digits, 30 seconds
+		assertEquals("287082", BatchTokenGenerator.generate(SEED20, 59L));
+		assertEquals("287082", BatchTokenGenerator.generate("gezd gnbv gy3t qojq gezd gnbv gy3t qojq,,,,", 59L));
+		// delta
+		assertEquals("07081804", BatchTokenGenerator.generate(SEED20 + ",SHA-1,8,30,-1000", 1111111109L + 1000L));
+		assertEquals("", BatchTokenGenerator.generate("  ", 59L));
+		assertEquals("", BatchTokenGenerator.generate("# comment", 59L));
+	}
+
+	public void testInvalidLines() {
+		assertError(BatchTokenGenerator.generate(SEED20 + ",MD5", 59L));
+		assertError(BatchTokenGenerator.generate(SEED20 + ",SHA-1,0", 59L));
+		assertError(BatchTokenGenerator.generate(SEED20 + ",SHA-1,6,x", 59L));
+		assertError(BatchTokenGenerator.generate(SEED20 + ",SHA-1,6,30,0,1", 59L));
+		assertError(BatchTokenGenerator.generate("0189", 59L));
+	}
+
+	public void testOrderedOutput() throws Exception {
+		final String[] lines = { SEED20 + ",SHA-1,8", SEED32 + ",SHA-256,8", "", SEED64 + ",SHA-512,8", "x,MD5" };
+		final StringBuilder input = new StringBuilder();
+		final StringBuilder expected = new StringBuilder();
+		final int count = 10000;
+		for (int i = 0; i < count; i++) {
+			final String line = lines[i % lines.length];
+			input.append(line).append('\n');
+			expected.append(BatchTokenGenerator.generate(line, 1111111109L)).append('\n');
+		}
+		final StringWriter out = new StringWriter();
+		final long processed = new BatchTokenGenerator(1111111109L, 4, 7).generate(
+				new BufferedReader(new StringReader(input.toString())), out);
+		assertEquals(count, processed);
+		assertEquals(expected.toString(), out.toString());
+	}
+
+	private static void assertError(String result) {
+		assertTrue(result, result.startsWith(BatchTokenGenerator.ERROR_PREFIX));
+	}
+}
@@ -0,0 +1,97 @@
+package org.jboss.totp.se;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.jboss.totp.Base32;
+import org.jboss.totp.KeyedMac;
+import org.jboss.totp.OtpAuthParser;
+import org.jboss.totp.SecretGenerator;
+import org.jboss.totp.TokenGenerator;
+
+/**
+ * JUnit test for the {@link KeyProvisioner}.
+ *
+ * @author Josef Cacek
+ */
+public class KeyProvisionerTest extends TestCase {
+
+	private static final byte[] SEED = "0123456789abcdef0123456789abcdef".getBytes();
+
+	public void testUrisMatchSecrets() throws Exception {
+		final KeyProvisioner provisioner = new KeyProvisioner(new SecretGenerator(SEED), KeyedMac.ALG_SHA256, 8, 60,
+				"Acme Co", "dev-", 7);
+		final StringWriter uris = new StringWriter();
+		final StringWriter secrets = new StringWriter();
+		assertEquals(20L, provisioner.provision(95L, 20L, uris, secrets));
+		assertEquals(3, provisioner.getMetrics().getCount(KeyProvisioner.METRIC_BATCH));
+
+		final OtpAuthParser parser = new OtpAuthParser(new StringReader(uris.toString()));
+		final BufferedReader secretLines = new BufferedReader(new StringReader(secrets.toString()));
+		for (int i = 0; i < 20; i++) {
+			assertTrue(parser.next());
+			assertTrue(parser.getError(), parser.isValid());
+			assertEquals("Acme Co:dev-" + (i < 5 ? "0" : "") + (95 + i), parser.getName());
+			assertEquals(KeyedMac.ALG_SHA256, parser.getAlgorithm());
+			assertEquals(8, parser.getDigits());
+			assertEquals(60, parser.getTimeStep());
+			assertEquals(32, parser.getKey().length);
+
+			final String line = secretLines.readLine();
+			assertTrue(line, line.endsWith(",SHA-256,8,60"));
+			assertEquals(Base32.encode(parser.getKey()).replace(" ", ""), line.substring(0, line.indexOf(',')));
+			// the server side token of the secret line is the token of the URI
+			final int code = TokenGenerator.toCode(new TokenGenerator().generate(1111111109L / 60,
+					KeyedMac.create(parser.getAlgorithm(), parser.getKey())), 8);
+			assertEquals(code, Integer.parseInt(BatchTokenGenerator.generate(line, 1111111109L)));
+		}
+		assertFalse(parser.next());
+		assertNull(secretLines.readLine());
+	}
+
+	public void testSameSeedSameKeys() throws Exception {
+		final StringWriter out1 = new StringWriter();
+		final StringWriter out2 = new StringWriter();
+		new KeyProvisioner(new SecretGenerator(SEED), KeyedMac.ALG_SHA1, 6, 30, null, "x", 3).provision(1L, 10L,
+				out1, null);
+		new KeyProvisioner(new SecretGenerator(SEED), KeyedMac.ALG_SHA1, 6, 30, null, "x", 3).provision(1L, 10L,
+				out2, null);
+		assertEquals(out1.toString(), out2.toString());
+		assertTrue(out1.toString(), out1.toString().startsWith("otpauth://totp/x01?secret="));
+		assertTrue(out1.toString().indexOf("&algorithm=SHA1&digits=6&period=30\n") > 0);
+	}
+
+	public void testSha512KeysCanBeImported() throws Exception {
+		final StringWriter out = new StringWriter();
+		new KeyProvisioner(new SecretGenerator(SEED), KeyedMac.ALG_SHA512, 6, 30, null, "x", 1).provision(1L, 1L,
+				out, null);
+		final OtpAuthParser parser = new OtpAuthParser(new StringReader(out.toString()));
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals(64, parser.getKey().length);
+	}
+
+	public void testEncodeUriComponent() {
+		assertEquals("Acme%20Co%3A%2F%3F%26", KeyProvisioner.encodeUriComponent("Acme Co:/?&"));
+		assertEquals("a-b._~9", KeyProvisioner.encodeUriComponent("a-b._~9"));
+		assertEquals("%C3%A9", KeyProvisioner.encodeUriComponent("\u00e9"));
+	}
+
+	public void testInvalidParameters() {
+		try {
+			new KeyProvisioner(new SecretGenerator(SEED), KeyedMac.ALG_SHA1, 11, 30, null, "x", 1);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new KeyProvisioner(new SecretGenerator(SEED), KeyedMac.ALG_SHA1, 6, 30, null, "x", 0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package org.jboss.totp.se;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.jboss.totp.Metrics;
+
+/**
+ * JUnit test for the {@link MetricsExporter}.
+ *
+ * @author Josef Cacek
+ */
+public class MetricsExporterTest extends TestCase {
+
+	public void testPrometheusFormat() throws Exception {
+		final Metrics metrics = new Metrics(new String[] { "rms read", "token" });
+		metrics.recordDuration(0, 1L);
+		metrics.recordDuration(0, 7L);
+		metrics.recordDuration(0, 2000L);
+		final StringWriter out = new StringWriter();
+		MetricsExporter.write(metrics, "totp_", out);
+		final String text = out.toString();
+		assertTrue(text, text.contains("# TYPE totp_rms_read_seconds histogram\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_bucket{le=\"0.0\"} 0\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_bucket{le=\"0.001\"} 1\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_bucket{le=\"0.01\"} 2\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_bucket{le=\"1.0\"} 2\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_bucket{le=\"+Inf\"} 3\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_sum 2.008\n"));
+		assertTrue(text, text.contains("totp_rms_read_seconds_count 3\n"));
+		assertTrue(text, text.contains("totp_token_seconds_count 0\n"));
+		assertFalse(text, text.contains("heap"));
+
+		metrics.sampleMemory();
+		final StringWriter out2 = new StringWriter();
+		MetricsExporter.write(metrics, "totp_", out2);
+		assertTrue(out2.toString().contains("totp_heap_min_free_bytes "));
+	}
+
+	public void testBatchMetrics() throws Exception {
+		final BatchTokenGenerator generator = new BatchTokenGenerator(59L, 2, 10);
+		final StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 95; i++) {
+			input.append("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ\n");
+		}
+		generator.generate(new BufferedReader(new StringReader(input.toString())), new StringWriter());
+		assertEquals(10, generator.getMetrics().getCount(BatchTokenGenerator.METRIC_CHUNK));
+		assertEquals(10, generator.getMetrics().getCount(BatchTokenGenerator.METRIC_WRITE));
+	}
+}
@@ -0,0 +1,146 @@
+package org.jboss.totp.se;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+import org.jboss.totp.KeyedMac;
+import org.jboss.totp.TokenGenerator;
+import org.jboss.totp.TotpVerifier;
+
+/**
+ * JUnit test for the {@link ReplayCache}.
+ *
+ * @author Josef Cacek
+ */
+public class ReplayCacheTest extends TestCase {
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+
+	public void testReplay() {
+		final ReplayCache cache = new ReplayCache(16, 1);
+		assertEquals(-1L, cache.getLastAccepted(1, 100L));
+		assertTrue(cache.tryAccept(1, 100L, 100L));
+		assertFalse(cache.tryAccept(1, 100L, 100L));
+		assertFalse(cache.tryAccept(1, 99L, 100L));
+		assertTrue(cache.tryAccept(2, 100L, 100L));
+		assertTrue(cache.tryAccept(1, 101L, 100L));
+		assertEquals(101L, cache.getLastAccepted(1, 100L));
+		assertEquals(100L, cache.getLastAccepted(2, 100L));
+		assertEquals(2, cache.size(100L));
+	}
+
+	public void testOutsideWindow() {
+		final ReplayCache cache = new ReplayCache(16, 1);
+		assertFalse(cache.tryAccept(1, 98L, 100L));
+		assertTrue(cache.tryAccept(1, 99L, 100L));
+		assertEquals(99L, cache.getLastAccepted(1, 100L));
+		assertEquals(-1L, cache.getLastAccepted(1, 101L));
+		assertEquals(0, cache.size(101L));
+	}
+
+	public void testExpiredSlotsReused() {
+		final ReplayCache cache = new ReplayCache(2, 0);
+		final int capacity = cache.getCapacity();
+		for (int user = 0; user < capacity; user++) {
+			assertTrue(cache.tryAccept(user, 10L, 10L));
+		}
+		// the table is full and no entry is expired - fail closed
+		assertFalse(cache.tryAccept(capacity, 10L, 10L));
+		for (int user = capacity; user < 10 * capacity; user++) {
+			assertTrue(cache.tryAccept(user, 11L + user, 11L + user));
+		}
+		assertEquals(1, cache.size(11L + 10 * capacity - 1));
+	}
+
+	public void testChurn() {
+		final int activeUsers = 4096;
+		final ReplayCache cache = new ReplayCache(activeUsers, 1);
+		int userId = 0;
+		// every step brings new users, the previous ones expire
+		for (int step = 0; step < 40; step++) {
+			final long counter = 1L + 5L * step;
+			final int firstUser = userId;
+			for (int i = 0; i < activeUsers; i++, userId++) {
+				assertTrue("Code of user " + userId + " rejected", cache.tryAccept(userId, counter, counter));
+			}
+			for (int user = firstUser; user < userId; user++) {
+				assertFalse(cache.tryAccept(user, counter, counter));
+				assertEquals(counter, cache.getLastAccepted(user, counter));
+				assertTrue(cache.getProbeCount(user) <= ReplayCache.MAX_PROBES);
+			}
+			assertEquals(activeUsers, cache.size(counter));
+		}
+	}
+
+	public void testWithVerifier() {
+		final TotpVerifier verifier = new TotpVerifier(seed20, KeyedMac.ALG_SHA1, 6, 30, 0L, 1, 1);
+		final ReplayCache cache = new ReplayCache(1000, 1);
+		final long now = 1111111109L;
+		final long current = verifier.getCounter(now);
+		final int code = new TokenGenerator().generate(current, new KeyedMac(KeyedMac.ALG_SHA1, seed20)) % 1000000;
+		int offset = verifier.verify(code, now);
+		assertEquals(0, offset);
+		assertTrue(cache.tryAccept(42, current + offset, current));
+		// still valid for the verifier 30 seconds later, but already used
+		offset = verifier.verify(code, now + 30);
+		assertEquals(-1, offset);
+		assertFalse(cache.tryAccept(42, verifier.getCounter(now + 30) + offset, verifier.getCounter(now + 30)));
+	}
+
+	public void testInvalidParameters() {
+		try {
+			new ReplayCache(0, 1);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new ReplayCache(10, 1).tryAccept(1, 0L, 0L);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	public void testConcurrentAccept() throws Exception {
+		final int threads = 8;
+		final int users = 64;
+		final int counters = 500;
+		final ReplayCache cache = new ReplayCache(users, 2);
+		final AtomicIntegerArray accepted = new AtomicIntegerArray(users * counters);
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int c = 1; c <= counters; c++) {
+						for (int user = 0; user < users; user++) {
+							if (cache.tryAccept(user, c, c)) {
+								accepted.incrementAndGet(user * counters + c - 1);
+							}
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		start.countDown();
+		for (int t = 0; t < threads; t++) {
+			workers[t].join();
+		}
+		for (int i = 0; i < accepted.length(); i++) {
+			assertTrue("Code accepted more than once", accepted.get(i) <= 1);
+		}
+		for (int user = 0; user < users; user++) {
+			assertTrue(cache.getLastAccepted(user, counters) <= counters);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.jboss.totp.se;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import org.jboss.totp.KeyedMac;
+import org.jboss.totp.TokenGenerator;
+
+/**
+ * JUnit test for the {@link TokenTable}.
+ *
+ * @author Josef Cacek
+ */
+public class TokenTableTest extends TestCase {
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+
+	private static final int COUNT = 3 * TokenTable.LEAF_SIZE + 17;
+
+	public void testSameTokensAsGenerator() {
+		final long first = 37037036L - 100L;
+		final TokenTable table = TokenTable.compute(seed20, KeyedMac.ALG_SHA1, 8, first, COUNT);
+		assertEquals(COUNT, table.size());
+		assertEquals("07081804", table.getToken(37037036L));
+		assertEquals(7081804, table.getCode(37037036L));
+		final KeyedMac mac = new KeyedMac(KeyedMac.ALG_SHA1, seed20);
+		final TokenGenerator generator = new TokenGenerator();
+		final char[] token = new char[8];
+		for (int i = 0; i < COUNT; i += 997) {
+			generator.generate(first + i, mac, 8, token, 0);
+			assertEquals(new String(token), table.getToken(first + i));
+		}
+		try {
+			table.getCode(first - 1);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException e) {
+			// OK
+		}
+	}
+
+	public void testFindCounter() {
+		final long first = 37037036L - 100L;
+		final TokenTable table = TokenTable.compute(seed20, KeyedMac.ALG_SHA1, 8, first, COUNT, new ForkJoinPool(3));
+		assertEquals(37037036L, table.findCounter(7081804));
+		assertEquals(-1L, table.findCounter(7081804, 37037037L));
+		assertEquals(-1L, table.findCounter(7081804, first + COUNT + 5));
+		// the last counter of the range
+		final long last = first + COUNT - 1;
+		assertEquals(last, table.findCounter(table.getCode(last), last));
+	}
+
+	public void testWriteFile() throws Exception {
+		final Path file = Files.createTempFile("totp-table", ".txt");
+		try {
+			final long first = 1000L;
+			TokenTable.write(file, seed20, KeyedMac.ALG_SHA256, 10, first, COUNT, ForkJoinPool.commonPool());
+			final byte[] content = Files.readAllBytes(file);
+			assertEquals(COUNT * 11L, content.length);
+			final TokenTable table = TokenTable.compute(seed20, KeyedMac.ALG_SHA256, 10, first, COUNT);
+			for (int i = 0; i < COUNT; i += 101) {
+				assertEquals(table.getToken(first + i) + "\n", new String(content, i * 11, 11,
+						StandardCharsets.US_ASCII));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	public void testInvalidParameters() {
+		try {
+			TokenTable.compute(new byte[0], KeyedMac.ALG_SHA1, 6, 0L, 10);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			TokenTable.compute(seed20, KeyedMac.ALG_SHA1, 6, -1L, 10);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Base32 (RFC 4648 alphabet, no padding) codec. Data are processed in 5 byte
+ * / 8 character blocks using lookup tables.
+ * <p>
+ * Encoded text is split to groups of 4 characters, each group is followed by
+ * a space (compact encoding without the separators is used e.g. in URIs).
+ * Decoding is case insensitive and it skips all characters which
+ * are not in the Base32 alphabet (e.g. spaces). Trailing bits which don't
+ * form a whole byte are ignored.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public final class Base32 {
+
+	/**
+	 * The Base32 alphabet.
+	 */
+	public static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+	private static final char[] ENCODE_TABLE = ALPHABET.toCharArray();
+
+	/**
+	 * Character to 5bit value table (-1 for characters out of the alphabet).
+	 */
+	private static final byte[] DECODE_TABLE = new byte[128];
+
+	private static final int GROUP_SIZE = 4;
+	private static final char GROUP_SEPARATOR = ' ';
+
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = -1;
+		}
+		for (int i = 0; i < ENCODE_TABLE.length; i++) {
+			DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+			DECODE_TABLE[Character.toLowerCase(ENCODE_TABLE[i])] = (byte) i;
+		}
+	}
+
+	private Base32() {
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns number of characters (including group separators) of the
+	 * encoded form of given number of bytes.
+	 *
+	 * @param byteCount
+	 * @return
+	 */
+	public static int encodedLength(int byteCount) {
+		return encodedLength(byteCount, true);
+	}
+
+	/**
+	 * Returns number of characters of the encoded form of given number of
+	 * bytes.
+	 *
+	 * @param byteCount
+	 * @param grouped
+	 *            <code>true</code> if group separators are included
+	 * @return
+	 */
+	public static int encodedLength(int byteCount, boolean grouped) {
+		final int chars = (byteCount * 8 + 4) / 5;
+		return grouped ? chars + chars / GROUP_SIZE : chars;
+	}
+
+	/**
+	 * Encodes bytes to Base32 characters written to the given array. The
+	 * array has to have at least {@link #encodedLength(int)} free characters.
+	 *
+	 * @param in
+	 *            bytes to encode
+	 * @param off
+	 *            offset in the input
+	 * @param len
+	 *            number of bytes to encode
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	public static int encode(byte[] in, int off, int len, char[] out, int outOff) {
+		return encode(in, off, len, out, outOff, true);
+	}
+
+	/**
+	 * Encodes bytes to Base32 characters written to the given array. The
+	 * array has to have at least {@link #encodedLength(int, boolean)} free
+	 * characters.
+	 *
+	 * @param in
+	 *            bytes to encode
+	 * @param off
+	 *            offset in the input
+	 * @param len
+	 *            number of bytes to encode
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @param grouped
+	 *            <code>true</code> if groups of 4 characters are separated
+	 * @return number of characters written
+	 */
+	public static int encode(byte[] in, int off, int len, char[] out, int outOff, boolean grouped) {
+		final int end = off + len;
+		int pos = outOff;
+		int i = off;
+		// whole blocks
+		for (; i + 5 <= end; i += 5) {
+			final long block = ((long) (in[i] & 0xFF) << 32) | ((long) (in[i + 1] & 0xFF) << 24)
+					| ((in[i + 2] & 0xFF) << 16) | ((in[i + 3] & 0xFF) << 8) | (in[i + 4] & 0xFF);
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 35) & 0x1F];
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 30) & 0x1F];
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 25) & 0x1F];
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 20) & 0x1F];
+			if (grouped) {
+				out[pos++] = GROUP_SEPARATOR;
+			}
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 15) & 0x1F];
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 10) & 0x1F];
+			out[pos++] = ENCODE_TABLE[(int) (block >>> 5) & 0x1F];
+			out[pos++] = ENCODE_TABLE[(int) block & 0x1F];
+			if (grouped) {
+				out[pos++] = GROUP_SEPARATOR;
+			}
+		}
+		// the last partial block (1-4 bytes)
+		final int rest = end - i;
+		if (rest > 0) {
+			long block = 0L;
+			for (int j = 0; j < 5; j++) {
+				block = (block << 8) | (j < rest ? (in[i + j] & 0xFF) : 0);
+			}
+			final int chars = (rest * 8 + 4) / 5;
+			for (int j = 0; j < chars; j++) {
+				out[pos++] = ENCODE_TABLE[(int) (block >>> (35 - 5 * j)) & 0x1F];
+				if (grouped && j == GROUP_SIZE - 1) {
+					out[pos++] = GROUP_SEPARATOR;
+				}
+			}
+		}
+		return pos - outOff;
+	}
+
+	/**
+	 * Encodes byte array to Base32 String. Returns not-null String.
+	 *
+	 * @param bytes
+	 *            bytes to encode (may be <code>null</code>)
+	 * @return encoded bytes
+	 */
+	public static String encode(byte[] bytes) {
+		if (bytes == null) {
+			return "";
+		}
+		final char[] chars = new char[encodedLength(bytes.length)];
+		return new String(chars, 0, encode(bytes, 0, bytes.length, chars, 0));
+	}
+
+	/**
+	 * Returns number of bytes which will be decoded from given String.
+	 *
+	 * @param base32
+	 * @return
+	 */
+	public static int decodedLength(String base32) {
+		int validChars = 0;
+		for (int i = 0, len = base32.length(); i < len; i++) {
+			final char ch = base32.charAt(i);
+			if (ch < DECODE_TABLE.length && DECODE_TABLE[ch] >= 0) {
+				validChars++;
+			}
+		}
+		return validChars * 5 / 8;
+	}
+
+	/**
+	 * Decodes Base32 String to the given array. The array has to have at
+	 * least {@link #decodedLength(String)} free bytes.
+	 *
+	 * @param base32
+	 *            encoded String
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @return number of bytes written
+	 */
+	public static int decode(String base32, byte[] out, int outOff) {
+		int pos = outOff;
+		long block = 0L;
+		int blockChars = 0;
+		for (int i = 0, len = base32.length(); i < len; i++) {
+			final char ch = base32.charAt(i);
+			final int value = ch < DECODE_TABLE.length ? DECODE_TABLE[ch] : -1;
+			if (value < 0) {
+				continue;
+			}
+			block = (block << 5) | value;
+			if (++blockChars == 8) {
+				pos = writeBlock(block, 5, out, pos);
+				block = 0L;
+				blockChars = 0;
+			}
+		}
+		return flush(block, blockChars, out, pos) - outOff;
+	}
+
+	/**
+	 * Decodes Base32 characters to the given array. The array has to have
+	 * enough free bytes (<code>len * 5 / 8</code> is always enough).
+	 *
+	 * @param in
+	 *            encoded characters
+	 * @param off
+	 *            offset in the input
+	 * @param len
+	 *            number of characters to decode
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @return number of bytes written
+	 */
+	public static int decode(char[] in, int off, int len, byte[] out, int outOff) {
+		int pos = outOff;
+		long block = 0L;
+		int blockChars = 0;
+		for (int i = off, end = off + len; i < end; i++) {
+			final char ch = in[i];
+			final int value = ch < DECODE_TABLE.length ? DECODE_TABLE[ch] : -1;
+			if (value < 0) {
+				continue;
+			}
+			block = (block << 5) | value;
+			if (++blockChars == 8) {
+				pos = writeBlock(block, 5, out, pos);
+				block = 0L;
+				blockChars = 0;
+			}
+		}
+		return flush(block, blockChars, out, pos) - outOff;
+	}
+
+	/**
+	 * Returns 5bit value of the given Base32 character.
+	 *
+	 * @param ch
+	 *            character (case insensitive)
+	 * @return value or -1 if the character is not in the Base32 alphabet
+	 */
+	public static int decodeChar(int ch) {
+		return ch >= 0 && ch < DECODE_TABLE.length ? DECODE_TABLE[ch] : -1;
+	}
+
+	/**
+	 * Decodes the given Base32 String to a raw byte array.
+	 *
+	 * @param base32
+	 * @return decoded bytes or <code>null</code> if the input is
+	 *         <code>null</code> or empty
+	 */
+	public static byte[] decode(String base32) {
+		if (base32 == null || base32.length() == 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[decodedLength(base32)];
+		decode(base32, bytes, 0);
+		return bytes;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	/**
+	 * Writes the last (partial) block - the bits which don't form a whole
+	 * byte are skipped.
+	 */
+	private static int flush(long block, int blockChars, byte[] out, int pos) {
+		if (blockChars == 0) {
+			return pos;
+		}
+		// align the partial block as if it was a whole one
+		return writeBlock(block << (5 * (8 - blockChars)), blockChars * 5 / 8, out, pos);
+	}
+
+	/**
+	 * Writes <code>count</code> bytes of the 40bit block (from the most
+	 * significant one).
+	 */
+	private static int writeBlock(long block, int count, byte[] out, int pos) {
+		for (int j = 0; j < count; j++) {
+			out[pos++] = (byte) (block >>> (32 - 8 * j));
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Finds the time correction (delta) from two consecutive codes observed on a
+ * reference device. Counters around the current time are tried from the
+ * closest ones (0, -1, +1, -2, +2, ...) and the search stops on the first
+ * counter whose token matches the current code and whose previous counter
+ * matches the previous code. Codes are compared as integers with one keyed
+ * MAC, so a check doesn't allocate memory.
+ * <p>
+ * The search is incremental - {@link #search(int)} checks only a limited
+ * number of counters, so it can be called repeatedly from the UI thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class ClockResync {
+
+	private final TokenMac mac;
+	private final TokenGenerator generator = new TokenGenerator();
+	private final int digits;
+	private final int timeStep;
+	private final int previousCode;
+	private final int currentCode;
+	private final long baseCounter;
+	private final int checkCount;
+
+	private int checked;
+	private long matchedCounter = -1L;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mac
+	 *            keyed MAC of the profile
+	 * @param digits
+	 *            number of token digits
+	 * @param timeStep
+	 *            time step in seconds
+	 * @param previousCode
+	 *            the first of the two consecutive codes
+	 * @param currentCode
+	 *            the second (current) code
+	 * @param timeInSec
+	 *            current device time (seconds since the epoch, without delta)
+	 * @param maxOffset
+	 *            maximal number of steps between the device and the reference
+	 *            clocks
+	 * @throws IllegalArgumentException
+	 *             if a parameter is out of range
+	 */
+	public ClockResync(final TokenMac mac, final int digits, final int timeStep, final int previousCode,
+			final int currentCode, final long timeInSec, final int maxOffset) {
+		if (mac == null) {
+			throw new IllegalArgumentException("Secret key is empty.");
+		}
+		if (digits <= 0 || timeStep <= 0 || maxOffset < 0 || previousCode < 0 || currentCode < 0) {
+			throw new IllegalArgumentException("Digits, time step, window size and codes must not be negative.");
+		}
+		this.mac = mac;
+		this.digits = digits;
+		this.timeStep = timeStep;
+		this.previousCode = previousCode;
+		this.currentCode = currentCode;
+		this.baseCounter = timeInSec / timeStep;
+		this.checkCount = 2 * maxOffset + 1;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Continues the search.
+	 *
+	 * @param maxCounters
+	 *            maximal number of counters checked in this call
+	 * @return <code>true</code> if the search is finished
+	 */
+	public boolean search(final int maxCounters) {
+		for (int i = 0; i < maxCounters && !isFinished(); i++) {
+			// 0, -1, +1, -2, +2, ...
+			final int distance = (checked + 1) / 2;
+			final long counter = baseCounter + ((checked & 1) == 1 ? -distance : distance);
+			checked++;
+			if (counter > 0L && matches(counter, currentCode) && matches(counter - 1L, previousCode)) {
+				matchedCounter = counter;
+			}
+		}
+		return isFinished();
+	}
+
+	/**
+	 * Returns <code>true</code> if the search is finished (successfully or
+	 * all counters were checked).
+	 */
+	public boolean isFinished() {
+		return matchedCounter >= 0L || checked >= checkCount;
+	}
+
+	/**
+	 * Returns <code>true</code> if the matching counter was found.
+	 */
+	public boolean isFound() {
+		return matchedCounter >= 0L;
+	}
+
+	/**
+	 * Returns time correction for the found counter.
+	 *
+	 * @return delta in seconds
+	 * @throws IllegalStateException
+	 *             if the matching counter was not found
+	 */
+	public long getDelta() {
+		if (!isFound()) {
+			throw new IllegalStateException("Matching counter not found.");
+		}
+		return (matchedCounter - baseCounter) * timeStep;
+	}
+
+	/**
+	 * Returns number of already checked counters.
+	 */
+	public int getChecked() {
+		return checked;
+	}
+
+	/**
+	 * Returns number of counters in the search window.
+	 */
+	public int getCheckCount() {
+		return checkCount;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private boolean matches(final long counter, final int code) {
+		return TokenGenerator.toCode(generator.generate(counter, mac), digits) == code;
+	}
+}
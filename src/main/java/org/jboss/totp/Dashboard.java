@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import javax.microedition.lcdui.Form;
+import javax.microedition.lcdui.Gauge;
+import javax.microedition.lcdui.StringItem;
+
+/**
+ * Screen with current tokens of all profiles. Keyed MACs of all the profiles
+ * are kept resident and a token is recomputed only when the counter of its
+ * profile changes.
+ *
+ * @author Josef Cacek
+ */
+class Dashboard extends Form {
+
+	private static final long INVALID_COUNTER = -1L;
+
+	private final Profile[] profiles;
+	private final StringItem[] siTokens;
+	private final Gauge[] gauValidities;
+	private final long[] cachedCounters;
+
+	private final TokenGenerator tokenGenerator = new TokenGenerator();
+	private final char[] tokenChars;
+	private final Metrics metrics;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor - creates token and validity items for given profiles.
+	 *
+	 * @param title
+	 * @param profiles
+	 * @param metrics
+	 *            registry for token computation durations
+	 */
+	Dashboard(String title, Profile[] profiles, Metrics metrics) {
+		super(title);
+		this.profiles = profiles;
+		this.metrics = metrics;
+		siTokens = new StringItem[profiles.length];
+		gauValidities = new Gauge[profiles.length];
+		cachedCounters = new long[profiles.length];
+		// token length of all the formatters is the profile's number of digits
+		int maxLength = 0;
+		for (int i = 0; i < profiles.length; i++) {
+			final Profile profile = profiles[i];
+			final int timeStep = profile.getTimeStep();
+			// counter-based tokens are generated only on request (main screen)
+			siTokens[i] = new StringItem(profile.getName(), profile.isCounterBased() ? "HOTP" : null);
+			gauValidities[i] = new Gauge(null, false,
+					(profile.getMac() != null && timeStep > 1 && !profile.isCounterBased()) ? timeStep - 1 : 1, 0);
+			cachedCounters[i] = INVALID_COUNTER;
+			maxLength = Math.max(maxLength, profile.getDigits());
+			append(siTokens[i]);
+			append(gauValidities[i]);
+		}
+		tokenChars = new char[maxLength];
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Refreshes tokens and validity gauges.
+	 *
+	 * @param currentTimeSec
+	 *            current time in seconds (without delta)
+	 */
+	public void refresh(long currentTimeSec) {
+		for (int i = 0; i < profiles.length; i++) {
+			final Profile profile = profiles[i];
+			if (profile.getMac() == null || profile.getTimeStep() <= 0 || profile.isCounterBased()) {
+				continue;
+			}
+			final long counter = profile.getCounter(currentTimeSec);
+			if (cachedCounters[i] != counter) {
+				final long start = metrics.start();
+				final int len = tokenGenerator.generate(counter, profile, tokenChars, 0);
+				metrics.record(TOTPMIDlet.METRIC_TOKEN, start);
+				siTokens[i].setText(new String(tokenChars, 0, len));
+				cachedCounters[i] = counter;
+			}
+			final int remainSec = profile.getTimeStep() == 1 ? 0 : profile.getRemainingSeconds(currentTimeSec);
+			if (gauValidities[i].getValue() != remainSec) {
+				gauValidities[i].setValue(remainSec);
+			}
+		}
+	}
+}
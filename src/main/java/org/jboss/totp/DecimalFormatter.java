@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Decimal token formatter (RFC 4226). The code is the truncated value modulo
+ * a precomputed power of ten and it's written two digits at a time using
+ * lookup tables.
+ * <p>
+ * The truncated value has 31 bits, so tokens longer than {@link #MAX_LENGTH}
+ * digits are only padded by leading zeros.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public final class DecimalFormatter implements TokenFormatter {
+
+	/**
+	 * Shared instance.
+	 */
+	public static final DecimalFormatter INSTANCE = new DecimalFormatter();
+
+	/**
+	 * Maximal number of meaningful digits (2^31 - 1 has 10 digits).
+	 */
+	public static final int MAX_LENGTH = 10;
+
+	private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+			1000000000 };
+
+	/**
+	 * Tens and ones digit of numbers 0 - 99.
+	 */
+	private static final char[] TENS = new char[100];
+	private static final char[] ONES = new char[100];
+
+	static {
+		for (int i = 0; i < 100; i++) {
+			TENS[i] = (char) ('0' + i / 10);
+			ONES[i] = (char) ('0' + i % 10);
+		}
+	}
+
+	private DecimalFormatter() {
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns the token of the given length as an integer (the truncated value
+	 * modulo 10^digits). Tokens can be compared this way without creating
+	 * strings.
+	 *
+	 * @param binary
+	 *            truncated 31bit value
+	 * @param digits
+	 *            number of token digits
+	 * @return token value
+	 */
+	public static int toCode(final int binary, final int digits) {
+		return digits < POWERS_OF_TEN.length ? binary % POWERS_OF_TEN[digits] : binary;
+	}
+
+	public int format(final int binary, final int length, final char[] out, final int off) {
+		int code = toCode(binary, length);
+		int pos = off + length;
+		for (; pos - off >= 2; pos -= 2) {
+			final int quotient = code / 100;
+			final int pair = code - quotient * 100;
+			out[pos - 1] = ONES[pair];
+			out[pos - 2] = TENS[pair];
+			code = quotient;
+		}
+		if (pos > off) {
+			out[off] = ONES[code % 10];
+		}
+		return length;
+	}
+
+	public int format(final int binary, final int length, final byte[] out, final int off) {
+		int code = toCode(binary, length);
+		int pos = off + length;
+		for (; pos - off >= 2; pos -= 2) {
+			final int quotient = code / 100;
+			final int pair = code - quotient * 100;
+			out[pos - 1] = (byte) ONES[pair];
+			out[pos - 2] = (byte) TENS[pair];
+			code = quotient;
+		}
+		if (pos > off) {
+			out[off] = (byte) ONES[code % 10];
+		}
+		return length;
+	}
+
+	public boolean isSupportedLength(final int length) {
+		return length > 0 && length <= MAX_LENGTH;
+	}
+}
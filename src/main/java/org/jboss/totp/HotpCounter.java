@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Counter of a counter-based (HOTP, RFC 4226) profile. Counters are reserved
+ * in blocks - only the high-water mark of the reserved block is persisted, so
+ * the record store is written once per block instead of once per token.
+ * <p>
+ * A counter is used only after its block is persisted. The persisted value is
+ * the first counter which was surely not used yet, so after a crash the
+ * counter skips ahead to it and no counter is used twice. The skipped
+ * counters are covered by the look-ahead window of the server (it has to be
+ * at least the block size). On a regular exit {@link #release()} persists the
+ * next counter itself and nothing is skipped.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class HotpCounter {
+
+	/**
+	 * Default number of counters reserved at once.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 10;
+
+	private final Storage storage;
+	private final int blockSize;
+	private long next;
+	private long limit;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param persisted
+	 *            persisted high-water mark (the first counter to be used)
+	 * @param blockSize
+	 *            number of counters reserved at once
+	 * @param storage
+	 *            storage of the high-water mark
+	 */
+	public HotpCounter(long persisted, int blockSize, Storage storage) {
+		if (persisted < 0L || blockSize <= 0) {
+			throw new IllegalArgumentException("Counter and block size must not be negative.");
+		}
+		this.next = persisted;
+		this.limit = persisted;
+		this.blockSize = blockSize;
+		this.storage = storage;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns the next counter. A new block is reserved (and persisted) if the
+	 * current one is exhausted.
+	 *
+	 * @return counter or -1 if the new block can't be persisted
+	 */
+	public synchronized long next() {
+		if (next >= limit) {
+			final long newLimit = next + blockSize;
+			if (!storage.store(newLimit)) {
+				return -1L;
+			}
+			limit = newLimit;
+		}
+		return next++;
+	}
+
+	/**
+	 * Persists the next counter as the high-water mark, so the rest of the
+	 * reserved block is not skipped.
+	 */
+	public synchronized void release() {
+		if (next < limit && storage.store(next)) {
+			limit = next;
+		}
+	}
+
+	/**
+	 * Returns the counter which will be returned by {@link #next()}.
+	 *
+	 * @return
+	 */
+	public synchronized long getNext() {
+		return next;
+	}
+
+	/**
+	 * Returns the persisted high-water mark.
+	 *
+	 * @return
+	 */
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	// Embedded classes ------------------------------------------------------
+
+	/**
+	 * Persistent storage of the counter high-water mark.
+	 */
+	public interface Storage {
+
+		/**
+		 * Persists the high-water mark.
+		 *
+		 * @param limit
+		 *            the first counter which may be used after a restart
+		 * @return <code>true</code> if the value was persisted
+		 */
+		boolean store(long limit);
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * HMAC (RFC 2104) of 8 byte HOTP counter messages with precomputed key state.
+ * The key is processed only once - in the constructor - and the digest states
+ * after absorbing the inner and outer padded keys are kept. Each MAC
+ * computation then restores these states, so it costs only the compression
+ * rounds for the counter and for the inner hash.
+ * <p>
+ * This generic implementation works with any Bouncy Castle digest. SHA-1
+ * profiles use the specialized {@link Sha1TokenMac} - see
+ * {@link #create(int, byte[])}.
+ * </p>
+ * <p>
+ * Instances are not thread-safe. Use one instance per thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class KeyedMac implements TokenMac {
+
+	/**
+	 * HMAC algorithm indexes (the same as in the options screen).
+	 */
+	public static final int ALG_SHA1 = 0;
+	public static final int ALG_SHA256 = 1;
+	public static final int ALG_SHA512 = 2;
+
+	private static final byte IPAD = (byte) 0x36;
+	private static final byte OPAD = (byte) 0x5C;
+
+	private final int algorithm;
+	private final byte[] key;
+	private final Digest digest;
+	private final Memoable ipadState;
+	private final Memoable opadState;
+	private final byte[] innerHash;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates MAC for the given algorithm index and key.
+	 *
+	 * @param algorithm
+	 *            one of the <code>ALG_*</code> constants
+	 * @param key
+	 *            secret key (not-null)
+	 * @throws IllegalArgumentException
+	 *             if the algorithm index is not supported
+	 */
+	public KeyedMac(final int algorithm, final byte[] key) {
+		this.algorithm = algorithm;
+		this.key = new byte[key.length];
+		System.arraycopy(key, 0, this.key, 0, key.length);
+		digest = createDigest(algorithm);
+		innerHash = new byte[digest.getDigestSize()];
+
+		final byte[] pad = new byte[((ExtendedDigest) digest).getByteLength()];
+		if (key.length > pad.length) {
+			digest.update(key, 0, key.length);
+			digest.doFinal(pad, 0);
+		} else {
+			System.arraycopy(key, 0, pad, 0, key.length);
+		}
+		for (int i = 0; i < pad.length; i++) {
+			pad[i] ^= IPAD;
+		}
+		digest.update(pad, 0, pad.length);
+		ipadState = ((Memoable) digest).copy();
+		digest.reset();
+		for (int i = 0; i < pad.length; i++) {
+			pad[i] ^= IPAD ^ OPAD;
+		}
+		digest.update(pad, 0, pad.length);
+		opadState = ((Memoable) digest).copy();
+		digest.reset();
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Computes HMAC of the 8 byte big-endian counter value (RFC 4226) and
+	 * writes it to the <code>out</code> array.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @return number of bytes written (MAC size)
+	 */
+	public int doFinal(final long counter, final byte[] out, final int outOff) {
+		((Memoable) digest).reset(ipadState);
+		for (int i = 56; i >= 0; i -= 8) {
+			digest.update((byte) (counter >>> i));
+		}
+		digest.doFinal(innerHash, 0);
+		((Memoable) digest).reset(opadState);
+		digest.update(innerHash, 0, innerHash.length);
+		return digest.doFinal(out, outOff);
+	}
+
+	/**
+	 * Returns MAC size in bytes.
+	 *
+	 * @return MAC size
+	 */
+	public int getMacSize() {
+		return innerHash.length;
+	}
+
+	/**
+	 * Returns algorithm index.
+	 *
+	 * @return one of the <code>ALG_*</code> constants
+	 */
+	public int getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Returns true if this MAC uses the given algorithm and key, i.e. it can
+	 * be reused instead of creating a new one.
+	 *
+	 * @param algorithm
+	 * @param key
+	 * @return
+	 */
+	public boolean isKeyedWith(final int algorithm, final byte[] key) {
+		if (this.algorithm != algorithm || key == null || key.length != this.key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != this.key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the fastest token MAC for the given algorithm index -
+	 * {@link Sha1TokenMac} for SHA-1, {@link KeyedMac} otherwise.
+	 *
+	 * @param algorithm
+	 *            one of the <code>ALG_*</code> constants
+	 * @param key
+	 *            secret key (not-null)
+	 * @return token MAC
+	 * @throws IllegalArgumentException
+	 *             if the algorithm index is not supported
+	 */
+	public static TokenMac create(final int algorithm, final byte[] key) {
+		return algorithm == ALG_SHA1 ? (TokenMac) new Sha1TokenMac(key) : new KeyedMac(algorithm, key);
+	}
+
+	/**
+	 * Creates a new digest instance for the given algorithm index.
+	 *
+	 * @param algorithm
+	 *            one of the <code>ALG_*</code> constants
+	 * @return digest
+	 * @throws IllegalArgumentException
+	 *             if the algorithm index is not supported
+	 */
+	public static Digest createDigest(final int algorithm) {
+		switch (algorithm) {
+		case ALG_SHA1:
+			return new SHA1Digest();
+		case ALG_SHA256:
+			return new SHA256Digest();
+		case ALG_SHA512:
+			return new SHA512Digest();
+		default:
+			throw new IllegalArgumentException("Unsupported HMAC algorithm index: " + algorithm);
+		}
+	}
+}
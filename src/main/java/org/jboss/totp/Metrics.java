@@ -0,0 +1,310 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Small registry of runtime metrics. Every metric has a counter, total and
+ * maximal duration and a latency histogram with fixed buckets (in
+ * milliseconds). The registry also samples the heap usage and keeps the heap
+ * used when the application finished its startup.
+ * <p>
+ * Metrics are identified by their index in the names array given to the
+ * constructor, so recording doesn't allocate any memory. When the registry
+ * is disabled, {@link #start()} and {@link #record(int, long)} return
+ * immediately.
+ * </p>
+ * <p>
+ * Recorded values are guarded by the registry monitor. The report copies them
+ * under the monitor and formats the copy without holding it, so the measured
+ * threads never wait for the formatting.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class Metrics {
+
+	/**
+	 * Upper bounds (inclusive, in milliseconds) of the histogram buckets. The
+	 * last bucket (not listed here) contains longer durations.
+	 */
+	private static final long[] BUCKET_LIMITS = { 0L, 1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L };
+
+	private final String[] names;
+	private final int[] counts;
+	private final long[] totalMillis;
+	private final long[] maxMillis;
+	private final int[][] buckets;
+
+	// the flag is read by start() and record() without locking, other fields are guarded by the monitor
+	private volatile boolean enabled = true;
+
+	private long freeMemory = -1L;
+	private long minFreeMemory = -1L;
+	private long totalMemory = -1L;
+	private long startupUsedMemory = -1L;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param names
+	 *            metric names (index in the array is the metric ID)
+	 */
+	public Metrics(String[] names) {
+		this.names = names;
+		counts = new int[names.length];
+		totalMillis = new long[names.length];
+		maxMillis = new long[names.length];
+		buckets = new int[names.length][BUCKET_LIMITS.length + 1];
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns start time of a measured operation (for
+	 * {@link #record(int, long)}).
+	 *
+	 * @return current time in milliseconds or 0 if the registry is disabled
+	 */
+	public long start() {
+		return enabled ? System.currentTimeMillis() : 0L;
+	}
+
+	/**
+	 * Records an operation which started at the given time.
+	 *
+	 * @param metric
+	 *            metric ID
+	 * @param startMillis
+	 *            value returned by {@link #start()}
+	 */
+	public void record(int metric, long startMillis) {
+		if (enabled && startMillis != 0L) {
+			recordDuration(metric, System.currentTimeMillis() - startMillis);
+		}
+	}
+
+	/**
+	 * Records an operation with the given duration.
+	 *
+	 * @param metric
+	 *            metric ID
+	 * @param durationMillis
+	 *            duration in milliseconds
+	 */
+	public synchronized void recordDuration(int metric, long durationMillis) {
+		if (!enabled) {
+			return;
+		}
+		counts[metric]++;
+		totalMillis[metric] += durationMillis;
+		if (durationMillis > maxMillis[metric]) {
+			maxMillis[metric] = durationMillis;
+		}
+		int bucket = 0;
+		while (bucket < BUCKET_LIMITS.length && durationMillis > BUCKET_LIMITS[bucket]) {
+			bucket++;
+		}
+		buckets[metric][bucket]++;
+	}
+
+	/**
+	 * Samples the free and total heap size.
+	 */
+	public synchronized void sampleMemory() {
+		if (!enabled) {
+			return;
+		}
+		final Runtime runtime = Runtime.getRuntime();
+		freeMemory = runtime.freeMemory();
+		totalMemory = runtime.totalMemory();
+		if (minFreeMemory < 0L || freeMemory < minFreeMemory) {
+			minFreeMemory = freeMemory;
+		}
+	}
+
+	/**
+	 * Samples the heap and keeps its used size as the startup heap usage.
+	 */
+	public synchronized void sampleStartupMemory() {
+		sampleMemory();
+		if (enabled) {
+			startupUsedMemory = totalMemory - freeMemory;
+		}
+	}
+
+	/**
+	 * Clears all recorded values.
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < names.length; i++) {
+			counts[i] = 0;
+			totalMillis[i] = 0L;
+			maxMillis[i] = 0L;
+			for (int j = 0; j < buckets[i].length; j++) {
+				buckets[i][j] = 0;
+			}
+		}
+		freeMemory = -1L;
+		minFreeMemory = -1L;
+		totalMemory = -1L;
+		startupUsedMemory = -1L;
+	}
+
+	/**
+	 * Returns the metrics as a human readable text: count, average, maximum
+	 * and non-empty histogram buckets of each used metric and the heap usage.
+	 *
+	 * @return
+	 */
+	public String getReport() {
+		final int[] counts = new int[names.length];
+		final long[] totalMillis = new long[names.length];
+		final long[] maxMillis = new long[names.length];
+		final int[][] buckets = new int[names.length][BUCKET_LIMITS.length + 1];
+		final long freeMemory;
+		final long minFreeMemory;
+		final long totalMemory;
+		final long startupUsedMemory;
+		synchronized (this) {
+			System.arraycopy(this.counts, 0, counts, 0, counts.length);
+			System.arraycopy(this.totalMillis, 0, totalMillis, 0, totalMillis.length);
+			System.arraycopy(this.maxMillis, 0, maxMillis, 0, maxMillis.length);
+			for (int i = 0; i < buckets.length; i++) {
+				System.arraycopy(this.buckets[i], 0, buckets[i], 0, buckets[i].length);
+			}
+			freeMemory = this.freeMemory;
+			minFreeMemory = this.minFreeMemory;
+			totalMemory = this.totalMemory;
+			startupUsedMemory = this.startupUsedMemory;
+		}
+		final StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < names.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			sb.append(names[i]).append(": ").append(counts[i]).append("x, avg ").append(totalMillis[i] / counts[i])
+					.append(" ms, max ").append(maxMillis[i]).append(" ms\n ");
+			for (int j = 0; j < buckets[i].length; j++) {
+				if (buckets[i][j] > 0) {
+					sb.append(j < BUCKET_LIMITS.length ? "<=" + BUCKET_LIMITS[j] : ">" + BUCKET_LIMITS[j - 1])
+							.append(':').append(buckets[i][j]).append(' ');
+				}
+			}
+			sb.append('\n');
+		}
+		if (totalMemory >= 0L) {
+			sb.append("heap: ").append(freeMemory / 1024L).append(" kB free (min ").append(minFreeMemory / 1024L)
+					.append(" kB) of ").append(totalMemory / 1024L).append(" kB\n");
+		}
+		if (startupUsedMemory >= 0L) {
+			sb.append("startup heap: ").append(startupUsedMemory / 1024L).append(" kB used\n");
+		}
+		return sb.toString();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int metric) {
+		return names[metric];
+	}
+
+	public synchronized int getCount(int metric) {
+		return counts[metric];
+	}
+
+	public synchronized long getTotalMillis(int metric) {
+		return totalMillis[metric];
+	}
+
+	public synchronized long getMaxMillis(int metric) {
+		return maxMillis[metric];
+	}
+
+	/**
+	 * Returns number of recorded durations in the given histogram bucket.
+	 *
+	 * @param metric
+	 *            metric ID
+	 * @param bucket
+	 *            bucket index (<code>0 .. getBucketCount() - 1</code>)
+	 * @return
+	 */
+	public synchronized int getBucketValue(int metric, int bucket) {
+		return buckets[metric][bucket];
+	}
+
+	/**
+	 * Returns number of histogram buckets.
+	 *
+	 * @return
+	 */
+	public static int getBucketCount() {
+		return BUCKET_LIMITS.length + 1;
+	}
+
+	/**
+	 * Returns inclusive upper bound of the given bucket in milliseconds.
+	 *
+	 * @param bucket
+	 *            bucket index
+	 * @return upper bound or {@link Long#MAX_VALUE} for the last bucket
+	 */
+	public static long getBucketLimit(int bucket) {
+		return bucket < BUCKET_LIMITS.length ? BUCKET_LIMITS[bucket] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the last sampled free heap size in bytes (-1 if not sampled).
+	 */
+	public synchronized long getFreeMemory() {
+		return freeMemory;
+	}
+
+	/**
+	 * Returns the lowest sampled free heap size in bytes (-1 if not sampled).
+	 */
+	public synchronized long getMinFreeMemory() {
+		return minFreeMemory;
+	}
+
+	/**
+	 * Returns the last sampled total heap size in bytes (-1 if not sampled).
+	 */
+	public synchronized long getTotalMemory() {
+		return totalMemory;
+	}
+
+	/**
+	 * Returns the heap size in bytes used at the end of the startup (-1 if not
+	 * sampled).
+	 */
+	public synchronized long getStartupUsedMemory() {
+		return startupUsedMemory;
+	}
+}
@@ -0,0 +1,672 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming parser of <code>otpauth://totp/...</code> and
+ * <code>otpauth://hotp/...</code> key URIs (the format of Google
+ * Authenticator QR codes). The input contains URIs separated by
+ * whitespace (e.g. one URI per line).
+ * <p>
+ * Every URI is parsed in a single pass character by character. The label and
+ * the issuer are percent-decoded (UTF-8) into reused buffers, the secret is
+ * Base32 decoded directly into the key buffer and the numeric parameters are
+ * accumulated as they are read, so no intermediate Strings are created.
+ * Supported parameters are <code>secret</code>, <code>issuer</code>,
+ * <code>algorithm</code> (SHA1, SHA256, SHA512), <code>digits</code> and
+ * <code>period</code>, <code>counter</code> (HOTP) and <code>encoder</code>
+ * (<code>steam</code> for Steam Guard codes), other parameters are ignored.
+ * </p>
+ * Usage:
+ *
+ * <pre>
+ * final OtpAuthParser parser = new OtpAuthParser(reader);
+ * while (parser.next()) {
+ * 	if (parser.isValid()) {
+ * 		// use parser.getName(), parser.getKey(), ...
+ * 	} else {
+ * 		// report parser.getError()
+ * 	}
+ * }
+ * </pre>
+ *
+ * @author Josef Cacek
+ */
+public class OtpAuthParser {
+
+	/**
+	 * Maximal length of the profile name (size of the profile name text
+	 * field).
+	 */
+	public static final int MAX_NAME_LENGTH = 105;
+
+	/**
+	 * Maximal length of the secret key - the HMAC block size of SHA-512 (the
+	 * key length RFC 6238 uses for HMAC-SHA-512).
+	 */
+	public static final int MAX_KEY_LENGTH = 64;
+
+	public static final int DEFAULT_DIGITS = 6;
+	public static final int DEFAULT_TIME_STEP = 30;
+
+	private static final int MAX_TIME_STEP = 999;
+
+	private static final String SCHEME = "otpauth://";
+	// indexes are Profile.TYPE_* values
+	private static final String[] TYPES = { "totp", "hotp" };
+	private static final String[] ALGORITHMS = { "sha1", "sha256", "sha512" };
+
+	private static final String ERR_URI = "Not an otpauth:// URI.";
+	private static final String ERR_TYPE = "Only TOTP and HOTP keys are supported.";
+	private static final String ERR_ENCODING = "Invalid percent encoding.";
+	private static final String ERR_NAME = "Label is missing.";
+	private static final String ERR_NAME_LENGTH = "Label is too long.";
+	private static final String ERR_SECRET = "Secret is missing or invalid.";
+	private static final String ERR_KEY_LENGTH = "Secret is too long.";
+	private static final String ERR_ALGORITHM = "Unsupported algorithm.";
+	private static final String ERR_DIGITS = "Invalid number of digits.";
+	private static final String ERR_PERIOD = "Invalid period.";
+	private static final String ERR_COUNTER = "Invalid counter.";
+	private static final String ERR_ENCODER = "Unsupported encoder.";
+	private static final String ENCODER_STEAM = "steam";
+
+	// parser states
+	private static final int ST_SCHEME = 0;
+	private static final int ST_TYPE = 1;
+	private static final int ST_LABEL = 2;
+	private static final int ST_PARAM_NAME = 3;
+	private static final int ST_PARAM_VALUE = 4;
+
+	// parameters
+	private static final String[] PARAMS = { "secret", "issuer", "algorithm", "digits", "period", "counter",
+			"encoder" };
+	private static final int PARAM_UNKNOWN = -1;
+	private static final int PARAM_SECRET = 0;
+	private static final int PARAM_ISSUER = 1;
+	private static final int PARAM_ALGORITHM = 2;
+	private static final int PARAM_DIGITS = 3;
+	private static final int PARAM_PERIOD = 4;
+	private static final int PARAM_COUNTER = 5;
+	private static final int PARAM_ENCODER = 6;
+
+	private final Reader reader;
+	private final char[] chars;
+	private int pos;
+	private final int end;
+
+	private final char[] token = new char[16];
+	private int tokenLength;
+	private final char[] label = new char[MAX_NAME_LENGTH];
+	private int labelLength;
+	private final char[] issuer = new char[MAX_NAME_LENGTH];
+	private int issuerLength;
+	private final char[] name = new char[MAX_NAME_LENGTH];
+	private int nameLength;
+	private final byte[] key = new byte[MAX_KEY_LENGTH];
+	private int keyLength;
+	private int algorithm;
+	private int digits;
+	private int timeStep;
+	private int type;
+	private long counter;
+	private boolean counterSet;
+	private boolean digitsSet;
+	private int format;
+
+	private int uriCount;
+	private String error;
+	private int state;
+	private int param;
+	// Base32 decoding state
+	private int bits;
+	private int bitCount;
+	// percent and UTF-8 decoding state
+	private int escapePos;
+	private int escapeValue;
+	private int utf8Char;
+	private int utf8Remaining;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates parser reading URIs from the given reader.
+	 *
+	 * @param reader
+	 */
+	public OtpAuthParser(Reader reader) {
+		this.reader = reader;
+		this.chars = null;
+		this.end = 0;
+	}
+
+	/**
+	 * Creates parser reading URIs from the given characters.
+	 *
+	 * @param chars
+	 * @param off
+	 *            offset of the first character
+	 * @param len
+	 *            number of characters
+	 */
+	public OtpAuthParser(char[] chars, int off, int len) {
+		this.reader = null;
+		this.chars = chars;
+		this.pos = off;
+		this.end = off + len;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Parses the next URI from the input.
+	 *
+	 * @return <code>false</code> if there is no other URI in the input
+	 * @throws IOException
+	 *             reading from the reader failed
+	 */
+	public boolean next() throws IOException {
+		int ch = read();
+		while (isWhitespace(ch)) {
+			ch = read();
+		}
+		if (ch < 0) {
+			return false;
+		}
+		reset();
+		for (; ch >= 0 && !isWhitespace(ch); ch = read()) {
+			if (error == null) {
+				process(ch);
+			}
+		}
+		if (error == null) {
+			finish();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if the last parsed URI is valid.
+	 *
+	 * @return
+	 */
+	public boolean isValid() {
+		return uriCount > 0 && error == null;
+	}
+
+	/**
+	 * Returns reason why the last parsed URI is not valid.
+	 *
+	 * @return error message or <code>null</code> if the URI is valid
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Returns number of URIs (both valid and invalid) parsed so far.
+	 *
+	 * @return
+	 */
+	public int getUriCount() {
+		return uriCount;
+	}
+
+	/**
+	 * Returns profile name - the decoded label prefixed by the issuer if the
+	 * label doesn't contain its own issuer prefix.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return new String(name, 0, nameLength);
+	}
+
+	/**
+	 * Returns copy of the decoded secret key.
+	 *
+	 * @return
+	 */
+	public byte[] getKey() {
+		final byte[] result = new byte[keyLength];
+		System.arraycopy(key, 0, result, 0, keyLength);
+		return result;
+	}
+
+	/**
+	 * Returns HMAC algorithm index (see <code>KeyedMac.ALG_*</code>).
+	 *
+	 * @return
+	 */
+	public int getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getDigits() {
+		return digits;
+	}
+
+	public int getTimeStep() {
+		return timeStep;
+	}
+
+	/**
+	 * Returns profile type (see <code>Profile.TYPE_*</code>).
+	 *
+	 * @return
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns token format (see <code>TokenFormatter.FORMAT_*</code>).
+	 *
+	 * @return
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns initial counter of a HOTP key.
+	 *
+	 * @return
+	 */
+	public long getCounter() {
+		return counter;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private int read() throws IOException {
+		if (reader != null) {
+			return reader.read();
+		}
+		return pos < end ? chars[pos++] : -1;
+	}
+
+	private static boolean isWhitespace(int ch) {
+		return ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t';
+	}
+
+	/**
+	 * Resets the state before parsing a new URI.
+	 */
+	private void reset() {
+		uriCount++;
+		error = null;
+		state = ST_SCHEME;
+		param = PARAM_UNKNOWN;
+		tokenLength = 0;
+		labelLength = 0;
+		issuerLength = 0;
+		nameLength = 0;
+		keyLength = 0;
+		bits = 0;
+		bitCount = 0;
+		algorithm = KeyedMac.ALG_SHA1;
+		digits = DEFAULT_DIGITS;
+		timeStep = DEFAULT_TIME_STEP;
+		type = Profile.TYPE_TOTP;
+		counter = 0L;
+		counterSet = false;
+		digitsSet = false;
+		format = TokenFormatter.FORMAT_DECIMAL;
+		escapePos = 0;
+		utf8Remaining = 0;
+	}
+
+	/**
+	 * Processes one raw (not decoded) URI character.
+	 */
+	private void process(int ch) {
+		if (escapePos > 0) {
+			final int hex = Character.digit((char) ch, 16);
+			if (hex < 0) {
+				error = ERR_ENCODING;
+				return;
+			}
+			escapeValue = (escapeValue << 4) | hex;
+			if (++escapePos == 3) {
+				escapePos = 0;
+				processByte(escapeValue);
+			}
+			return;
+		}
+		switch (state) {
+		case ST_SCHEME:
+			if (Character.toLowerCase((char) ch) != SCHEME.charAt(tokenLength)) {
+				error = ERR_URI;
+			} else if (++tokenLength == SCHEME.length()) {
+				tokenLength = 0;
+				state = ST_TYPE;
+			}
+			return;
+		case ST_TYPE:
+			if (ch != '/') {
+				appendToken(ch);
+				return;
+			}
+			type = -1;
+			for (int i = 0; i < TYPES.length; i++) {
+				if (tokenEquals(TYPES[i])) {
+					type = i;
+				}
+			}
+			if (type < 0) {
+				error = ERR_TYPE;
+			}
+			state = ST_LABEL;
+			return;
+		case ST_LABEL:
+			if (ch == '?') {
+				state = ST_PARAM_NAME;
+				tokenLength = 0;
+				return;
+			}
+			break;
+		case ST_PARAM_NAME:
+			if (ch == '=') {
+				startValue();
+			} else if (ch == '&') {
+				// parameter without a value
+				tokenLength = 0;
+			} else {
+				appendToken(ch);
+			}
+			return;
+		default:
+			if (ch == '&') {
+				endValue();
+				state = ST_PARAM_NAME;
+				tokenLength = 0;
+				return;
+			} else if (ch == '+') {
+				// form encoded space
+				ch = ' ';
+			}
+			break;
+		}
+		if (ch == '%') {
+			escapePos = 1;
+			escapeValue = 0;
+		} else if (utf8Remaining > 0) {
+			error = ERR_ENCODING;
+		} else {
+			processChar(ch);
+		}
+	}
+
+	/**
+	 * Processes one percent-decoded byte of UTF-8 sequence.
+	 */
+	private void processByte(int b) {
+		if (utf8Remaining > 0) {
+			if ((b & 0xC0) != 0x80) {
+				error = ERR_ENCODING;
+			} else {
+				utf8Char = (utf8Char << 6) | (b & 0x3F);
+				if (--utf8Remaining == 0) {
+					processChar(utf8Char);
+				}
+			}
+		} else if (b < 0x80) {
+			processChar(b);
+		} else if ((b & 0xE0) == 0xC0) {
+			utf8Char = b & 0x1F;
+			utf8Remaining = 1;
+		} else if ((b & 0xF0) == 0xE0) {
+			utf8Char = b & 0x0F;
+			utf8Remaining = 2;
+		} else {
+			// characters out of the BMP are not supported
+			error = ERR_ENCODING;
+		}
+	}
+
+	/**
+	 * Processes one decoded character of the label or of a parameter value.
+	 */
+	private void processChar(int ch) {
+		if (state == ST_LABEL) {
+			labelLength = appendText(label, labelLength, ch);
+			return;
+		}
+		switch (param) {
+		case PARAM_SECRET:
+			appendSecret(ch);
+			break;
+		case PARAM_ISSUER:
+			issuerLength = appendText(issuer, issuerLength, ch);
+			break;
+		case PARAM_ALGORITHM:
+		case PARAM_ENCODER:
+			appendToken(ch);
+			break;
+		case PARAM_DIGITS:
+			digits = appendDigit(digits, ch, ERR_DIGITS);
+			break;
+		case PARAM_PERIOD:
+			timeStep = appendDigit(timeStep, ch, ERR_PERIOD);
+			break;
+		case PARAM_COUNTER:
+			if (ch < '0' || ch > '9' || counter > Long.MAX_VALUE / 10 - 1) {
+				error = ERR_COUNTER;
+			} else {
+				counter = counter * 10 + (ch - '0');
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Starts value of the parameter which name is in the token buffer.
+	 */
+	private void startValue() {
+		param = PARAM_UNKNOWN;
+		for (int i = 0; i < PARAMS.length; i++) {
+			if (tokenEquals(PARAMS[i])) {
+				param = i;
+			}
+		}
+		// repeated parameter overrides the previous value
+		switch (param) {
+		case PARAM_SECRET:
+			keyLength = 0;
+			bits = 0;
+			bitCount = 0;
+			break;
+		case PARAM_ISSUER:
+			issuerLength = 0;
+			break;
+		case PARAM_DIGITS:
+			digits = 0;
+			digitsSet = true;
+			break;
+		case PARAM_PERIOD:
+			timeStep = 0;
+			break;
+		case PARAM_COUNTER:
+			counter = 0L;
+			counterSet = true;
+			break;
+		default:
+			break;
+		}
+		tokenLength = 0;
+		state = ST_PARAM_VALUE;
+	}
+
+	/**
+	 * Finishes the current parameter value.
+	 */
+	private void endValue() {
+		if (param == PARAM_ALGORITHM) {
+			algorithm = -1;
+			for (int i = 0; i < ALGORITHMS.length; i++) {
+				if (tokenEquals(ALGORITHMS[i])) {
+					algorithm = i;
+				}
+			}
+			if (algorithm < 0) {
+				error = ERR_ALGORITHM;
+			}
+		} else if (param == PARAM_ENCODER) {
+			if (tokenEquals(ENCODER_STEAM)) {
+				format = TokenFormatter.FORMAT_STEAM;
+			} else {
+				error = ERR_ENCODER;
+			}
+		}
+	}
+
+	/**
+	 * Checks the whole URI and composes the profile name.
+	 */
+	private void finish() {
+		if (escapePos > 0 || utf8Remaining > 0) {
+			error = ERR_ENCODING;
+			return;
+		}
+		if (state == ST_SCHEME || state == ST_TYPE) {
+			error = ERR_URI;
+			return;
+		}
+		if (state == ST_PARAM_VALUE) {
+			endValue();
+			if (error != null) {
+				return;
+			}
+		}
+		if (format == TokenFormatter.FORMAT_STEAM && !digitsSet) {
+			digits = SteamFormatter.LENGTH;
+		}
+		if (keyLength == 0) {
+			error = ERR_SECRET;
+		} else if (!TokenGenerator.getFormatter(format).isSupportedLength(digits)) {
+			error = ERR_DIGITS;
+		} else if (timeStep <= 0 || timeStep > MAX_TIME_STEP) {
+			error = ERR_PERIOD;
+		} else if (type == Profile.TYPE_HOTP && !counterSet) {
+			// the counter is required for HOTP keys
+			error = ERR_COUNTER;
+		} else if (labelLength == 0 && issuerLength == 0) {
+			error = ERR_NAME;
+		} else {
+			composeName();
+		}
+	}
+
+	/**
+	 * Composes the profile name as <code>issuer:label</code>. The label is
+	 * used as it is if the issuer is not provided or if the label already
+	 * contains an issuer prefix.
+	 */
+	private void composeName() {
+		boolean issuerPrefix = issuerLength == 0;
+		for (int i = 0; i < labelLength && !issuerPrefix; i++) {
+			issuerPrefix = label[i] == ':';
+		}
+		if (!issuerPrefix) {
+			if (issuerLength + 1 + labelLength > MAX_NAME_LENGTH) {
+				error = ERR_NAME_LENGTH;
+				return;
+			}
+			System.arraycopy(issuer, 0, name, 0, issuerLength);
+			nameLength = issuerLength;
+			if (labelLength > 0) {
+				name[nameLength++] = ':';
+			}
+		}
+		System.arraycopy(label, 0, name, nameLength, labelLength);
+		nameLength += labelLength;
+	}
+
+	private int appendText(char[] buffer, int length, int ch) {
+		if (length == buffer.length) {
+			error = ERR_NAME_LENGTH;
+			return length;
+		}
+		buffer[length] = (char) ch;
+		return length + 1;
+	}
+
+	/**
+	 * Decodes Base32 character of the secret. Padding and spaces are skipped.
+	 */
+	private void appendSecret(int ch) {
+		if (ch == '=' || ch == ' ') {
+			return;
+		}
+		final int value = Base32.decodeChar(ch);
+		if (value < 0) {
+			error = ERR_SECRET;
+			return;
+		}
+		bits = (bits << 5) | value;
+		bitCount += 5;
+		if (bitCount >= 8) {
+			bitCount -= 8;
+			if (keyLength == MAX_KEY_LENGTH) {
+				error = ERR_KEY_LENGTH;
+				return;
+			}
+			key[keyLength++] = (byte) (bits >> bitCount);
+			bits &= (1 << bitCount) - 1;
+		}
+	}
+
+	private int appendDigit(int value, int ch, String errorMessage) {
+		if (ch < '0' || ch > '9' || value > MAX_TIME_STEP) {
+			error = errorMessage;
+			return value;
+		}
+		return value * 10 + (ch - '0');
+	}
+
+	/**
+	 * Appends character to the token buffer. Characters which don't fit are
+	 * replaced by an invalid value so the token doesn't match any keyword.
+	 */
+	private void appendToken(int ch) {
+		if (tokenLength < token.length) {
+			token[tokenLength++] = Character.toLowerCase((char) ch);
+		} else {
+			token[token.length - 1] = 0;
+		}
+	}
+
+	/**
+	 * Compares the token buffer with given (lower case) keyword.
+	 */
+	private boolean tokenEquals(String keyword) {
+		if (tokenLength != keyword.length()) {
+			return false;
+		}
+		for (int i = 0; i < tokenLength; i++) {
+			if (token[i] != keyword.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Immutable snapshot of a profile prepared for token generation - it holds the
+ * keyed MAC and already validated numeric options. Counter-based (HOTP)
+ * profiles don't derive the counter from time, their counter is handled by
+ * {@link HotpCounter}.
+ *
+ * @author Josef Cacek
+ */
+public class Profile {
+
+	/**
+	 * Time-based profile (RFC 6238).
+	 */
+	public static final int TYPE_TOTP = 0;
+
+	/**
+	 * Counter-based profile (RFC 4226).
+	 */
+	public static final int TYPE_HOTP = 1;
+
+	private final String name;
+	private final TokenMac mac;
+	private final int timeStep;
+	private final int digits;
+	private final long delta;
+	private final int type;
+	private final TokenFormatter formatter;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            profile name
+	 * @param mac
+	 *            keyed MAC (may be <code>null</code> if the profile has no
+	 *            secret key)
+	 * @param timeStep
+	 *            time step in seconds
+	 * @param digits
+	 *            number of token digits
+	 * @param delta
+	 *            time correction in seconds
+	 */
+	public Profile(String name, TokenMac mac, int timeStep, int digits, long delta) {
+		this(name, mac, timeStep, digits, delta, TYPE_TOTP, DecimalFormatter.INSTANCE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            profile name
+	 * @param mac
+	 *            keyed MAC (may be <code>null</code> if the profile has no
+	 *            secret key)
+	 * @param timeStep
+	 *            time step in seconds
+	 * @param digits
+	 *            number of token digits
+	 * @param delta
+	 *            time correction in seconds
+	 * @param type
+	 *            {@link #TYPE_TOTP} or {@link #TYPE_HOTP}
+	 * @param formatter
+	 *            token formatter
+	 */
+	public Profile(String name, TokenMac mac, int timeStep, int digits, long delta, int type,
+			TokenFormatter formatter) {
+		this.name = name;
+		this.mac = mac;
+		this.timeStep = timeStep;
+		this.digits = digits;
+		this.delta = delta;
+		this.type = type;
+		this.formatter = formatter;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns counter for the given time (delta is applied).
+	 *
+	 * @param timeInSec
+	 *            seconds since the epoch
+	 * @return counter or -1 if the time step is not positive or if the
+	 *         profile is counter-based
+	 */
+	public long getCounter(long timeInSec) {
+		return timeStep > 0 && type == TYPE_TOTP ? (timeInSec + delta) / timeStep : -1L;
+	}
+
+	/**
+	 * Returns number of seconds (rounded down) for which the token is still
+	 * valid at the given time.
+	 *
+	 * @param timeInSec
+	 *            seconds since the epoch
+	 * @return remaining seconds
+	 */
+	public int getRemainingSeconds(long timeInSec) {
+		if (timeStep <= 0) {
+			return 0;
+		}
+		final long time = timeInSec + delta;
+		return (int) (timeStep - 1 - (time % timeStep + timeStep) % timeStep);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public TokenMac getMac() {
+		return mac;
+	}
+
+	public int getTimeStep() {
+		return timeStep;
+	}
+
+	public int getDigits() {
+		return digits;
+	}
+
+	public long getDelta() {
+		return delta;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public TokenFormatter getFormatter() {
+		return formatter;
+	}
+
+	public boolean isCounterBased() {
+		return type == TYPE_HOTP;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Small LRU cache of decoded profile records and the profiles (with ready
+ * keyed MACs) created from them, indexed by the record ID. Switching back to a
+ * recently used profile doesn't need to read the record store, parse the
+ * record nor key the MAC again. The capacity is small, so the entries are kept
+ * in arrays and searched linearly; the least recently used entry is replaced
+ * when the cache is full.
+ * <p>
+ * Entries have to be removed whenever their record is changed or deleted.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+class ProfileCache {
+
+	private final int[] recordIds;
+	private final ProfileRecord[] records;
+	private final Profile[] profiles;
+	// access stamps of the entries, the lowest one is the least recently used
+	private final long[] lastUses;
+	private int size;
+	private long accessCount;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity
+	 *            maximal number of cached profiles
+	 */
+	ProfileCache(int capacity) {
+		capacity = Math.max(capacity, 1);
+		recordIds = new int[capacity];
+		records = new ProfileRecord[capacity];
+		profiles = new Profile[capacity];
+		lastUses = new long[capacity];
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns number of cached profiles.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the cached record with given ID and marks it as recently used.
+	 *
+	 * @param recordId
+	 * @return record or <code>null</code> if it's not cached
+	 */
+	public synchronized ProfileRecord getRecord(int recordId) {
+		final int idx = touch(recordId);
+		return idx < 0 ? null : records[idx];
+	}
+
+	/**
+	 * Returns the profile created from the cached record with given ID and
+	 * marks it as recently used.
+	 *
+	 * @param recordId
+	 * @return profile or <code>null</code> if it's not cached
+	 */
+	public synchronized Profile getProfile(int recordId) {
+		final int idx = touch(recordId);
+		return idx < 0 ? null : profiles[idx];
+	}
+
+	/**
+	 * Caches the given record and the profile created from it. The least
+	 * recently used entry is replaced if the cache is full.
+	 *
+	 * @param recordId
+	 * @param record
+	 *            decoded profile record
+	 * @return profile created from the record
+	 */
+	public synchronized Profile put(int recordId, ProfileRecord record) {
+		int idx = indexOf(recordId);
+		if (idx < 0) {
+			if (size < recordIds.length) {
+				idx = size++;
+			} else {
+				idx = 0;
+				for (int i = 1; i < size; i++) {
+					if (lastUses[i] < lastUses[idx]) {
+						idx = i;
+					}
+				}
+			}
+		}
+		recordIds[idx] = recordId;
+		records[idx] = record;
+		profiles[idx] = record.toProfile();
+		lastUses[idx] = ++accessCount;
+		return profiles[idx];
+	}
+
+	/**
+	 * Removes the entry with given record ID (if cached).
+	 *
+	 * @param recordId
+	 */
+	public synchronized void remove(int recordId) {
+		final int idx = indexOf(recordId);
+		if (idx >= 0) {
+			size--;
+			recordIds[idx] = recordIds[size];
+			records[idx] = records[size];
+			profiles[idx] = profiles[size];
+			lastUses[idx] = lastUses[size];
+			records[size] = null;
+			profiles[size] = null;
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < size; i++) {
+			records[i] = null;
+			profiles[i] = null;
+		}
+		size = 0;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private int touch(int recordId) {
+		final int idx = indexOf(recordId);
+		if (idx >= 0) {
+			lastUses[idx] = ++accessCount;
+		}
+		return idx;
+	}
+
+	private int indexOf(int recordId) {
+		for (int i = 0; i < size; i++) {
+			if (recordIds[i] == recordId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import javax.microedition.lcdui.List;
+
+/**
+ * In-memory index of profiles (name and record ID) sorted alphabetically by
+ * the profile name. Insert and remove positions are found by a binary search,
+ * bulk loaded entries are sorted by a merge sort. Profiles with equal names
+ * keep their insertion order.
+ *
+ * @author Josef Cacek
+ */
+class ProfileIndex {
+
+	private static final int DEFAULT_CAPACITY = 8;
+
+	private String[] names;
+	private int[] recordIds;
+	private int size;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates an empty index.
+	 */
+	ProfileIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty index with given initial capacity.
+	 *
+	 * @param capacity
+	 */
+	ProfileIndex(int capacity) {
+		names = new String[Math.max(capacity, 1)];
+		recordIds = new int[names.length];
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns number of profiles.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns name of the profile on given position.
+	 *
+	 * @param idx
+	 * @return
+	 */
+	public String getName(int idx) {
+		checkIndex(idx);
+		return names[idx];
+	}
+
+	/**
+	 * Returns record ID of the profile on given position.
+	 *
+	 * @param idx
+	 * @return
+	 */
+	public int getRecordId(int idx) {
+		checkIndex(idx);
+		return recordIds[idx];
+	}
+
+	/**
+	 * Returns record IDs of all profiles in the index order.
+	 *
+	 * @return
+	 */
+	public int[] getRecordIds() {
+		final int[] result = new int[size];
+		System.arraycopy(recordIds, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * Returns position of the profile with given record ID or -1.
+	 *
+	 * @param recordId
+	 * @return
+	 */
+	public int indexOfRecord(int recordId) {
+		for (int i = 0; i < size; i++) {
+			if (recordIds[i] == recordId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Inserts profile to its sorted position (after profiles with the same
+	 * name) and returns the position.
+	 *
+	 * @param name
+	 * @param recordId
+	 * @return position of the new profile
+	 */
+	public int add(String name, int recordId) {
+		ensureCapacity(size + 1);
+		final int idx = insertionPoint(name);
+		System.arraycopy(names, idx, names, idx + 1, size - idx);
+		System.arraycopy(recordIds, idx, recordIds, idx + 1, size - idx);
+		names[idx] = name;
+		recordIds[idx] = recordId;
+		size++;
+		return idx;
+	}
+
+	/**
+	 * Appends profile without keeping the order. Call {@link #sort()} after
+	 * the bulk load is finished.
+	 *
+	 * @param name
+	 * @param recordId
+	 */
+	public void append(String name, int recordId) {
+		ensureCapacity(size + 1);
+		names[size] = name;
+		recordIds[size] = recordId;
+		size++;
+	}
+
+	/**
+	 * Removes profile on given position.
+	 *
+	 * @param idx
+	 */
+	public void remove(int idx) {
+		checkIndex(idx);
+		size--;
+		System.arraycopy(names, idx + 1, names, idx, size - idx);
+		System.arraycopy(recordIds, idx + 1, recordIds, idx, size - idx);
+		names[size] = null;
+	}
+
+	/**
+	 * Changes name of the profile on given position and moves it to the new
+	 * sorted position, which is returned.
+	 *
+	 * @param idx
+	 * @param name
+	 * @return new position of the profile
+	 */
+	public int rename(int idx, String name) {
+		final int recordId = getRecordId(idx);
+		remove(idx);
+		return add(name, recordId);
+	}
+
+	/**
+	 * Sorts the profiles by name (stable merge sort).
+	 */
+	public void sort() {
+		if (size < 2) {
+			return;
+		}
+		final String[] tmpNames = new String[size];
+		final int[] tmpIds = new int[size];
+		for (int width = 1; width < size; width *= 2) {
+			for (int lo = 0; lo < size - width; lo += 2 * width) {
+				merge(lo, lo + width, Math.min(lo + 2 * width, size), tmpNames, tmpIds);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the given list so it contains the profile names in the index
+	 * order. Existing list entries are reused.
+	 *
+	 * @param list
+	 */
+	public void fillList(List list) {
+		final int listSize = list.size();
+		for (int i = 0; i < size; i++) {
+			if (i < listSize) {
+				if (!names[i].equals(list.getString(i))) {
+					list.set(i, names[i], null);
+				}
+			} else {
+				list.append(names[i], null);
+			}
+		}
+		for (int i = listSize - 1; i >= size; i--) {
+			list.delete(i);
+		}
+	}
+
+	// Private methods -------------------------------------------------------
+
+	/**
+	 * Returns position after the last profile with name lower or equal to
+	 * the given one.
+	 */
+	private int insertionPoint(String name) {
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (names[mid].compareTo(name) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private void merge(int lo, int mid, int hi, String[] tmpNames, int[] tmpIds) {
+		if (names[mid - 1].compareTo(names[mid]) <= 0) {
+			// already ordered
+			return;
+		}
+		final int len = hi - lo;
+		System.arraycopy(names, lo, tmpNames, 0, len);
+		System.arraycopy(recordIds, lo, tmpIds, 0, len);
+		int i = 0;
+		int j = mid - lo;
+		final int leftEnd = j;
+		for (int k = lo; k < hi; k++) {
+			if (j >= len || (i < leftEnd && tmpNames[i].compareTo(tmpNames[j]) <= 0)) {
+				names[k] = tmpNames[i];
+				recordIds[k] = tmpIds[i++];
+			} else {
+				names[k] = tmpNames[j];
+				recordIds[k] = tmpIds[j++];
+			}
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= names.length) {
+			return;
+		}
+		final int newCapacity = Math.max(capacity, names.length * 2);
+		final String[] newNames = new String[newCapacity];
+		final int[] newIds = new int[newCapacity];
+		System.arraycopy(names, 0, newNames, 0, size);
+		System.arraycopy(recordIds, 0, newIds, 0, size);
+		names = newNames;
+		recordIds = newIds;
+	}
+
+	private void checkIndex(int idx) {
+		if (idx < 0 || idx >= size) {
+			throw new IndexOutOfBoundsException("Profile index " + idx + " (size " + size + ")");
+		}
+	}
+}
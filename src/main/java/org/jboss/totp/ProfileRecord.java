@@ -0,0 +1,375 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * View of a profile record (version 4) in the record store. Fields are read
+ * directly from the record bytes, no streams are used. Numeric fields have
+ * fixed offsets, the variable length secret key and profile name follow them:
+ *
+ * <pre>
+ * offset  size  field
+ *  0      1     magic (0xFF - the first byte of a version 1 record is never 0xFF)
+ *  1      1     version (4)
+ *  2      1     HMAC algorithm index
+ *  3      1     number of digits
+ *  4      4     time step (seconds)
+ *  8      8     delta (seconds)
+ * 16      1     key length (unsigned)
+ * 17      2     name length in bytes (unsigned)
+ * 19      1     profile type (Profile.TYPE_*)
+ * 20      8     HOTP counter (high-water mark of reserved counters)
+ * 28      1     token format (TokenFormatter.FORMAT_*)
+ * 29      n     key
+ * 29+n    m     name (UTF-8)
+ * </pre>
+ *
+ * Version 1 records (<code>DataOutputStream</code> with the name as the
+ * first field) and records with a shorter header (version 2 without the type
+ * and the counter, version 3 without the token format) are converted by
+ * {@link #migrate(byte[])}.
+ *
+ * @author Josef Cacek
+ */
+public final class ProfileRecord {
+
+	public static final int MAGIC = 0xFF;
+	public static final int VERSION = 4;
+
+	private static final int OFF_ALGORITHM = 2;
+	private static final int OFF_DIGITS = 3;
+	private static final int OFF_TIME_STEP = 4;
+	private static final int OFF_DELTA = 8;
+	private static final int OFF_KEY_LENGTH = 16;
+	private static final int OFF_NAME_LENGTH = 17;
+	private static final int OFF_TYPE = 19;
+	private static final int OFF_COUNTER = 20;
+	private static final int OFF_FORMAT = 28;
+	private static final int HEADER_SIZE = 29;
+
+	/**
+	 * Header sizes of the older versions - each header is a prefix of the
+	 * next one and the added fields default to 0.
+	 */
+	private static final int[] OLD_HEADER_SIZES = { 0, 0, 19, 28 };
+
+	private final byte[] data;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates view of the given record value (the array is not copied).
+	 *
+	 * @param data
+	 *            record value
+	 * @throws IllegalArgumentException
+	 *             if the value is not a valid version 4 record or if the
+	 *             HMAC algorithm or the token format is not supported (so
+	 *             {@link #toProfile()} doesn't fail later)
+	 */
+	public ProfileRecord(byte[] data) {
+		if (!isCurrentVersion(data)) {
+			throw new IllegalArgumentException("Not a profile record (version " + VERSION + ").");
+		}
+		this.data = data;
+		if (HEADER_SIZE + getKeyLength() + getNameLength() > data.length) {
+			throw new IllegalArgumentException("Profile record is truncated.");
+		}
+		final int algorithm = getAlgorithm();
+		if (algorithm != KeyedMac.ALG_SHA1 && algorithm != KeyedMac.ALG_SHA256 && algorithm != KeyedMac.ALG_SHA512) {
+			throw new IllegalArgumentException("Unsupported HMAC algorithm index: " + algorithm);
+		}
+		final int format = getFormat();
+		if (format != TokenFormatter.FORMAT_DECIMAL && format != TokenFormatter.FORMAT_STEAM) {
+			throw new IllegalArgumentException("Unsupported token format: " + format);
+		}
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns <code>true</code> if the value has the version 4 header.
+	 *
+	 * @param data
+	 *            record value (may be <code>null</code>)
+	 * @return
+	 */
+	public static boolean isCurrentVersion(byte[] data) {
+		return data != null && data.length >= HEADER_SIZE && (data[0] & 0xFF) == MAGIC && data[1] == VERSION;
+	}
+
+	/**
+	 * Creates version 4 record value of a time-based profile with decimal
+	 * tokens.
+	 *
+	 * @param name
+	 *            profile name
+	 * @param key
+	 *            secret key (may be <code>null</code>)
+	 * @param timeStep
+	 * @param algorithm
+	 *            HMAC algorithm index
+	 * @param digits
+	 * @param delta
+	 * @return record value
+	 * @throws IllegalArgumentException
+	 *             if the key or the name is too long
+	 */
+	public static byte[] create(String name, byte[] key, int timeStep, int algorithm, int digits, long delta) {
+		return create(name, key, timeStep, algorithm, digits, delta, Profile.TYPE_TOTP, 0L,
+				TokenFormatter.FORMAT_DECIMAL);
+	}
+
+	/**
+	 * Creates version 4 record value.
+	 *
+	 * @param name
+	 *            profile name
+	 * @param key
+	 *            secret key (may be <code>null</code>)
+	 * @param timeStep
+	 * @param algorithm
+	 *            HMAC algorithm index
+	 * @param digits
+	 * @param delta
+	 * @param type
+	 *            profile type (<code>Profile.TYPE_*</code>)
+	 * @param counter
+	 *            HOTP counter
+	 * @param format
+	 *            token format (<code>TokenFormatter.FORMAT_*</code>)
+	 * @return record value
+	 * @throws IllegalArgumentException
+	 *             if the key or the name is too long
+	 */
+	public static byte[] create(String name, byte[] key, int timeStep, int algorithm, int digits, long delta,
+			int type, long counter, int format) {
+		final int keyLength = key == null ? 0 : key.length;
+		final int nameLength = utf8Length(name);
+		if (keyLength > 0xFF || nameLength > 0xFFFF) {
+			throw new IllegalArgumentException("Profile key or name is too long.");
+		}
+		final byte[] data = new byte[HEADER_SIZE + keyLength + nameLength];
+		data[0] = (byte) MAGIC;
+		data[1] = VERSION;
+		data[OFF_ALGORITHM] = (byte) algorithm;
+		data[OFF_DIGITS] = (byte) digits;
+		writeInt(data, OFF_TIME_STEP, timeStep);
+		writeLong(data, OFF_DELTA, delta);
+		data[OFF_KEY_LENGTH] = (byte) keyLength;
+		data[OFF_NAME_LENGTH] = (byte) (nameLength >>> 8);
+		data[OFF_NAME_LENGTH + 1] = (byte) nameLength;
+		data[OFF_TYPE] = (byte) type;
+		writeLong(data, OFF_COUNTER, counter);
+		data[OFF_FORMAT] = (byte) format;
+		if (keyLength > 0) {
+			System.arraycopy(key, 0, data, HEADER_SIZE, keyLength);
+		}
+		int pos = HEADER_SIZE + keyLength;
+		for (int i = 0, len = name.length(); i < len; i++) {
+			final char ch = name.charAt(i);
+			if (ch < 0x80) {
+				data[pos++] = (byte) ch;
+			} else if (ch < 0x800) {
+				data[pos++] = (byte) (0xC0 | (ch >> 6));
+				data[pos++] = (byte) (0x80 | (ch & 0x3F));
+			} else {
+				data[pos++] = (byte) (0xE0 | (ch >> 12));
+				data[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+				data[pos++] = (byte) (0x80 | (ch & 0x3F));
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Converts record value of an older version to the current one.
+	 *
+	 * @param oldData
+	 *            version 1, 2 or 3 record value
+	 * @return version 4 record value
+	 * @throws IllegalArgumentException
+	 *             if the old value can't be parsed
+	 */
+	public static byte[] migrate(byte[] oldData) {
+		if (oldData != null && oldData.length >= 2 && (oldData[0] & 0xFF) == MAGIC && oldData[1] > 1
+				&& oldData[1] < OLD_HEADER_SIZES.length) {
+			// the old header is a prefix of the current one, new fields are 0
+			final int oldHeaderSize = OLD_HEADER_SIZES[oldData[1]];
+			if (oldData.length < oldHeaderSize) {
+				throw new IllegalArgumentException("Profile record is truncated.");
+			}
+			final byte[] data = new byte[oldData.length + HEADER_SIZE - oldHeaderSize];
+			System.arraycopy(oldData, 0, data, 0, oldHeaderSize);
+			System.arraycopy(oldData, oldHeaderSize, data, HEADER_SIZE, oldData.length - oldHeaderSize);
+			data[1] = VERSION;
+			return data;
+		}
+		final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(oldData));
+		try {
+			final String name = dis.readUTF();
+			final byte[] key = new byte[dis.readByte()];
+			dis.readFully(key);
+			final int timeStep = dis.readInt();
+			final int algorithm = dis.readInt();
+			final int digits = dis.readByte();
+			final long delta = dis.readLong();
+			return create(name, key, timeStep, algorithm, digits, delta);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Invalid version 1 profile record - " + e.getMessage());
+		} finally {
+			try {
+				dis.close();
+			} catch (IOException e) {
+				// closing a byte array stream doesn't fail
+			}
+		}
+	}
+
+	/**
+	 * Decodes the profile name.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		final int off = HEADER_SIZE + getKeyLength();
+		final int end = off + getNameLength();
+		final char[] chars = new char[end - off];
+		int count = 0;
+		for (int i = off; i < end; i++) {
+			final int b = data[i] & 0xFF;
+			if (b < 0x80) {
+				chars[count++] = (char) b;
+			} else if (b < 0xE0 && i + 1 < end) {
+				chars[count++] = (char) (((b & 0x1F) << 6) | (data[++i] & 0x3F));
+			} else if (i + 2 < end) {
+				chars[count++] = (char) (((b & 0x0F) << 12) | ((data[++i] & 0x3F) << 6) | (data[++i] & 0x3F));
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	public int getKeyLength() {
+		return data[OFF_KEY_LENGTH] & 0xFF;
+	}
+
+	/**
+	 * Returns a copy of the secret key.
+	 *
+	 * @return key (empty array if the profile has no key)
+	 */
+	public byte[] getKey() {
+		final byte[] key = new byte[getKeyLength()];
+		System.arraycopy(data, HEADER_SIZE, key, 0, key.length);
+		return key;
+	}
+
+	public int getTimeStep() {
+		return readInt(data, OFF_TIME_STEP);
+	}
+
+	public int getAlgorithm() {
+		return data[OFF_ALGORITHM];
+	}
+
+	public int getDigits() {
+		return data[OFF_DIGITS];
+	}
+
+	public long getDelta() {
+		return readLong(data, OFF_DELTA);
+	}
+
+	public int getType() {
+		return data[OFF_TYPE];
+	}
+
+	public long getCounter() {
+		return readLong(data, OFF_COUNTER);
+	}
+
+	/**
+	 * Returns token format (see <code>TokenFormatter.FORMAT_*</code>).
+	 *
+	 * @return
+	 */
+	public int getFormat() {
+		return data[OFF_FORMAT];
+	}
+
+	/**
+	 * Writes the HOTP counter directly to the viewed record value (e.g. before
+	 * the value is stored).
+	 *
+	 * @param counter
+	 */
+	public void setCounter(long counter) {
+		writeLong(data, OFF_COUNTER, counter);
+	}
+
+	/**
+	 * Creates profile snapshot (with a keyed MAC if the record contains a
+	 * key).
+	 *
+	 * @return profile
+	 */
+	public Profile toProfile() {
+		final TokenMac mac = getKeyLength() > 0 ? KeyedMac.create(getAlgorithm(), getKey()) : null;
+		return new Profile(getName(), mac, getTimeStep(), getDigits(), getDelta(), getType(),
+				TokenGenerator.getFormatter(getFormat()));
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private int getNameLength() {
+		return ((data[OFF_NAME_LENGTH] & 0xFF) << 8) | (data[OFF_NAME_LENGTH + 1] & 0xFF);
+	}
+
+	private static int utf8Length(String str) {
+		int len = 0;
+		for (int i = 0, strLen = str.length(); i < strLen; i++) {
+			final char ch = str.charAt(i);
+			len += ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+		}
+		return len;
+	}
+
+	private static int readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) | ((buf[off + 2] & 0xFF) << 8)
+				| (buf[off + 3] & 0xFF);
+	}
+
+	private static long readLong(byte[] buf, int off) {
+		return ((long) readInt(buf, off) << 32) | (readInt(buf, off + 4) & 0xFFFFFFFFL);
+	}
+
+	private static void writeInt(byte[] buf, int off, int value) {
+		buf[off] = (byte) (value >>> 24);
+		buf[off + 1] = (byte) (value >>> 16);
+		buf[off + 2] = (byte) (value >>> 8);
+		buf[off + 3] = (byte) value;
+	}
+
+	private static void writeLong(byte[] buf, int off, long value) {
+		writeInt(buf, off, (int) (value >>> 32));
+		writeInt(buf, off + 4, (int) value);
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Long-lived session to the profile {@link RecordStore}. The store is opened
+ * on the first access and it stays open until {@link #close()} is called
+ * (i.e. when the MIDlet is paused or destroyed). Multi-record operations run
+ * within the single opened store.
+ * <p>
+ * Duration of every operation is recorded to the {@link Metrics} (the
+ * <code>TOTPMIDlet.METRIC_RMS_*</code> metrics).
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+class ProfileStore {
+
+	private final String storeName;
+	private final Metrics metrics;
+	private RecordStore recordStore;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param storeName
+	 *            name of the {@link RecordStore}
+	 * @param metrics
+	 *            registry for operation durations
+	 */
+	ProfileStore(String storeName, Metrics metrics) {
+		this.storeName = storeName;
+		this.metrics = metrics;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns number of records in the store.
+	 *
+	 * @return
+	 * @throws RecordStoreException
+	 */
+	public synchronized int getNumRecords() throws RecordStoreException {
+		return getRecordStore().getNumRecords();
+	}
+
+	/**
+	 * Adds a new record and returns its ID.
+	 *
+	 * @param value
+	 * @return record ID
+	 * @throws RecordStoreException
+	 */
+	public synchronized int addRecord(byte[] value) throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final long start = metrics.start();
+		try {
+			return rs.addRecord(value, 0, value.length);
+		} finally {
+			record(TOTPMIDlet.METRIC_RMS_ADD, start);
+		}
+	}
+
+	/**
+	 * Adds new records within the single store session. Adding stops on the
+	 * first failure (e.g. when the store is full).
+	 *
+	 * @param values
+	 * @return IDs of the new records (-1 for records which were not added)
+	 * @throws RecordStoreException
+	 *             if the store can't be opened
+	 */
+	public synchronized int[] addRecords(byte[][] values) throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final int[] recordIds = new int[values.length];
+		boolean failed = false;
+		for (int i = 0; i < values.length; i++) {
+			recordIds[i] = -1;
+			if (failed) {
+				continue;
+			}
+			final long start = metrics.start();
+			try {
+				recordIds[i] = rs.addRecord(values[i], 0, values[i].length);
+			} catch (RecordStoreException e) {
+				TOTPMIDlet.debugErr("addRecords - " + e.getClass().getName() + " - " + e.getMessage());
+				failed = true;
+			} finally {
+				record(TOTPMIDlet.METRIC_RMS_ADD, start);
+			}
+		}
+		return recordIds;
+	}
+
+	/**
+	 * Returns value of the record with given ID.
+	 *
+	 * @param recordId
+	 * @return
+	 * @throws RecordStoreException
+	 */
+	public synchronized byte[] getRecord(int recordId) throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final long start = metrics.start();
+		try {
+			return rs.getRecord(recordId);
+		} finally {
+			record(TOTPMIDlet.METRIC_RMS_READ, start);
+		}
+	}
+
+	/**
+	 * Returns values of records with given IDs. A <code>null</code> value is
+	 * returned for records which can't be read.
+	 *
+	 * @param recordIds
+	 * @return
+	 * @throws RecordStoreException
+	 *             if the store can't be opened
+	 */
+	public synchronized byte[][] getRecords(int[] recordIds) throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final long start = metrics.start();
+		final byte[][] values = new byte[recordIds.length][];
+		for (int i = 0; i < recordIds.length; i++) {
+			try {
+				values[i] = rs.getRecord(recordIds[i]);
+			} catch (RecordStoreException e) {
+				TOTPMIDlet.debugErr("getRecords - " + recordIds[i] + " - " + e.getMessage());
+			}
+		}
+		record(TOTPMIDlet.METRIC_RMS_READ_ALL, start);
+		return values;
+	}
+
+	/**
+	 * Returns IDs of all records in the store.
+	 *
+	 * @return
+	 * @throws RecordStoreException
+	 */
+	public synchronized int[] getRecordIds() throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final int[] recordIds = new int[rs.getNumRecords()];
+		final RecordEnumeration recEnum = rs.enumerateRecords(null, null, false);
+		try {
+			int i = 0;
+			while (recEnum.hasNextElement() && i < recordIds.length) {
+				recordIds[i++] = recEnum.nextRecordId();
+			}
+		} finally {
+			recEnum.destroy();
+		}
+		return recordIds;
+	}
+
+	/**
+	 * Sets value of the record with given ID.
+	 *
+	 * @param recordId
+	 * @param value
+	 * @throws RecordStoreException
+	 */
+	public synchronized void setRecord(int recordId, byte[] value) throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final long start = metrics.start();
+		try {
+			rs.setRecord(recordId, value, 0, value.length);
+		} finally {
+			record(TOTPMIDlet.METRIC_RMS_WRITE, start);
+		}
+	}
+
+	/**
+	 * Deletes the record with given ID.
+	 *
+	 * @param recordId
+	 * @throws RecordStoreException
+	 */
+	public synchronized void deleteRecord(int recordId) throws RecordStoreException {
+		final RecordStore rs = getRecordStore();
+		final long start = metrics.start();
+		try {
+			rs.deleteRecord(recordId);
+		} finally {
+			record(TOTPMIDlet.METRIC_RMS_DELETE, start);
+		}
+	}
+
+	/**
+	 * Closes the store if it's open. It's reopened on the next access.
+	 */
+	public synchronized void close() {
+		if (recordStore == null) {
+			return;
+		}
+		final long start = metrics.start();
+		try {
+			recordStore.closeRecordStore();
+		} catch (RecordStoreException e) {
+			TOTPMIDlet.debugErr("ProfileStore.close - " + e.getClass().getName() + " - " + e.getMessage());
+		} finally {
+			recordStore = null;
+			record(TOTPMIDlet.METRIC_RMS_CLOSE, start);
+		}
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private RecordStore getRecordStore() throws RecordStoreException {
+		if (recordStore == null) {
+			final long start = metrics.start();
+			recordStore = RecordStore.openRecordStore(storeName, true);
+			record(TOTPMIDlet.METRIC_RMS_OPEN, start);
+		}
+		return recordStore;
+	}
+
+	private void record(int metric, long start) {
+		metrics.record(metric, start);
+		if (TOTPMIDlet.DEBUG) {
+			TOTPMIDlet.debug("ProfileStore " + metrics.getName(metric) + " - "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import java.util.Random;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.DigestRandomGenerator;
+
+/**
+ * Generator of random secret keys backed by the Bouncy Castle digest-based
+ * DRBG (SHA-256). The DRBG is seeded once in the constructor and keys are
+ * generated in bulk into a caller-supplied buffer, so provisioning of many
+ * keys doesn't allocate memory per key.
+ * <p>
+ * Instances are not thread-safe. Use one generator per thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class SecretGenerator {
+
+	/**
+	 * Key lengths in bytes indexed by <code>KeyedMac.ALG_*</code> values -
+	 * the HMAC output sizes (as in the RFC 6238 test vectors).
+	 */
+	private static final int[] KEY_LENGTHS = { 160 / 8, 256 / 8, 512 / 8 };
+
+	private final DigestRandomGenerator drbg = new DigestRandomGenerator(new SHA256Digest());
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates generator seeded with the given seed.
+	 *
+	 * @param seed
+	 *            seed material (not empty)
+	 * @throws IllegalArgumentException
+	 *             if the seed is empty
+	 */
+	public SecretGenerator(final byte[] seed) {
+		if (seed == null || seed.length == 0) {
+			throw new IllegalArgumentException("Seed is empty.");
+		}
+		drbg.addSeedMaterial(seed);
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Mixes additional seed material (e.g. time of a user action) to the DRBG
+	 * state.
+	 *
+	 * @param value
+	 */
+	public void addSeedMaterial(final long value) {
+		drbg.addSeedMaterial(value);
+	}
+
+	/**
+	 * Generates keys of the given length and writes them one after another
+	 * to the <code>out</code> array.
+	 *
+	 * @param out
+	 *            output array with at least <code>count * keyLength</code>
+	 *            free bytes
+	 * @param off
+	 *            offset in the output array
+	 * @param count
+	 *            number of keys
+	 * @param keyLength
+	 *            key length in bytes
+	 */
+	public void nextKeys(final byte[] out, final int off, final int count, final int keyLength) {
+		drbg.nextBytes(out, off, count * keyLength);
+	}
+
+	/**
+	 * Generates a new key for the given HMAC algorithm.
+	 *
+	 * @param algorithm
+	 *            one of the <code>KeyedMac.ALG_*</code> constants
+	 * @return key of {@link #getKeyLength(int)} bytes
+	 * @throws IllegalArgumentException
+	 *             if the algorithm index is not supported
+	 */
+	public byte[] nextKey(final int algorithm) {
+		final byte[] key = new byte[getKeyLength(algorithm)];
+		nextKeys(key, 0, 1, key.length);
+		return key;
+	}
+
+	/**
+	 * Returns key length for the given algorithm.
+	 *
+	 * @param algorithm
+	 *            one of the <code>KeyedMac.ALG_*</code> constants
+	 * @return key length in bytes
+	 * @throws IllegalArgumentException
+	 *             if the algorithm index is not supported
+	 */
+	public static int getKeyLength(final int algorithm) {
+		if (algorithm < 0 || algorithm >= KEY_LENGTHS.length) {
+			throw new IllegalArgumentException("Unsupported HMAC algorithm index: " + algorithm);
+		}
+		return KEY_LENGTHS[algorithm];
+	}
+
+	/**
+	 * Collects a best-effort seed from sources available in CLDC (time, heap
+	 * state, object identities). Use a proper entropy source (e.g.
+	 * <code>SecureRandom</code>) where it's available.
+	 *
+	 * @return seed
+	 */
+	public static byte[] collectSeed() {
+		final Runtime runtime = Runtime.getRuntime();
+		final long[] values = { System.currentTimeMillis(), runtime.freeMemory(), runtime.totalMemory(),
+				System.identityHashCode(new Object()), new Random().nextLong(), Thread.activeCount() };
+		final byte[] seed = new byte[values.length * 8];
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < 8; j++) {
+				seed[i * 8 + j] = (byte) (values[i] >>> (56 - 8 * j));
+			}
+		}
+		return seed;
+	}
+}
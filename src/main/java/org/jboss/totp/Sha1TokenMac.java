@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import org.bouncycastle.crypto.digests.SHA1Digest;
+
+/**
+ * HMAC-SHA1 specialized for 8 byte HOTP counter messages. The inner message
+ * (padded key block + counter) and the outer message (padded key block + inner
+ * hash) both fit into a single SHA-1 block after the key block, so the keyed
+ * states are kept as plain <code>int</code> words and each MAC computation
+ * runs exactly two compressions over blocks built directly from the counter.
+ * No arrays are allocated after construction.
+ * <p>
+ * Instances are not thread-safe. Use one instance per thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class Sha1TokenMac implements TokenMac {
+
+	/**
+	 * MAC size in bytes.
+	 */
+	public static final int MAC_SIZE = 20;
+
+	private static final int BLOCK_SIZE = 64;
+	private static final int IPAD = 0x36363636;
+	private static final int OPAD = 0x5C5C5C5C;
+
+	/**
+	 * Bit lengths of the inner (key block + counter) and outer (key block +
+	 * inner hash) messages.
+	 */
+	private static final int INNER_BIT_LENGTH = (BLOCK_SIZE + 8) * 8;
+	private static final int OUTER_BIT_LENGTH = (BLOCK_SIZE + MAC_SIZE) * 8;
+
+	private final byte[] key;
+	private final int[] w = new int[80];
+
+	// chaining states after the inner and outer padded key blocks
+	private final int i0, i1, i2, i3, i4;
+	private final int o0, o1, o2, o3, o4;
+
+	// result of the last compression
+	private int h0, h1, h2, h3, h4;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates MAC for the given key.
+	 *
+	 * @param key
+	 *            secret key (not-null)
+	 */
+	public Sha1TokenMac(final byte[] key) {
+		this.key = new byte[key.length];
+		System.arraycopy(key, 0, this.key, 0, key.length);
+
+		final byte[] pad = new byte[BLOCK_SIZE];
+		if (key.length > BLOCK_SIZE) {
+			final SHA1Digest digest = new SHA1Digest();
+			digest.update(key, 0, key.length);
+			digest.doFinal(pad, 0);
+		} else {
+			System.arraycopy(key, 0, pad, 0, key.length);
+		}
+		for (int i = 0; i < 16; i++) {
+			w[i] = ((pad[i * 4] & 0xFF) << 24) | ((pad[i * 4 + 1] & 0xFF) << 16) | ((pad[i * 4 + 2] & 0xFF) << 8)
+					| (pad[i * 4 + 3] & 0xFF);
+		}
+		for (int i = 0; i < 16; i++) {
+			w[i] ^= IPAD;
+		}
+		compress(0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0);
+		i0 = h0;
+		i1 = h1;
+		i2 = h2;
+		i3 = h3;
+		i4 = h4;
+		for (int i = 0; i < 16; i++) {
+			w[i] ^= IPAD ^ OPAD;
+		}
+		compress(0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0);
+		o0 = h0;
+		o1 = h1;
+		o2 = h2;
+		o3 = h3;
+		o4 = h4;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Computes HMAC-SHA1 of the 8 byte big-endian counter value (RFC 4226)
+	 * and writes it to the <code>out</code> array.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @return number of bytes written ({@link #MAC_SIZE})
+	 */
+	public int doFinal(final long counter, final byte[] out, final int outOff) {
+		final int[] w = this.w;
+		// inner block: counter, padding and message length
+		w[0] = (int) (counter >>> 32);
+		w[1] = (int) counter;
+		w[2] = 0x80000000;
+		for (int i = 3; i < 15; i++) {
+			w[i] = 0;
+		}
+		w[15] = INNER_BIT_LENGTH;
+		compress(i0, i1, i2, i3, i4);
+
+		// outer block: inner hash, padding and message length
+		w[0] = h0;
+		w[1] = h1;
+		w[2] = h2;
+		w[3] = h3;
+		w[4] = h4;
+		w[5] = 0x80000000;
+		for (int i = 6; i < 15; i++) {
+			w[i] = 0;
+		}
+		w[15] = OUTER_BIT_LENGTH;
+		compress(o0, o1, o2, o3, o4);
+
+		putInt(h0, out, outOff);
+		putInt(h1, out, outOff + 4);
+		putInt(h2, out, outOff + 8);
+		putInt(h3, out, outOff + 12);
+		putInt(h4, out, outOff + 16);
+		return MAC_SIZE;
+	}
+
+	public int getMacSize() {
+		return MAC_SIZE;
+	}
+
+	/**
+	 * Returns {@link KeyedMac#ALG_SHA1}.
+	 */
+	public int getAlgorithm() {
+		return KeyedMac.ALG_SHA1;
+	}
+
+	public boolean isKeyedWith(final int algorithm, final byte[] key) {
+		if (algorithm != KeyedMac.ALG_SHA1 || key == null || key.length != this.key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != this.key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	/**
+	 * Runs SHA-1 compression of the block in <code>w[0..15]</code> starting
+	 * from the given chaining state. The result is stored in the
+	 * <code>h0..h4</code> fields.
+	 */
+	private void compress(final int s0, final int s1, final int s2, final int s3, final int s4) {
+		final int[] w = this.w;
+		for (int i = 16; i < 80; i++) {
+			final int x = w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16];
+			w[i] = (x << 1) | (x >>> 31);
+		}
+		int a = s0, b = s1, c = s2, d = s3, e = s4, t;
+		int i = 0;
+		for (; i < 20; i++) {
+			t = ((a << 5) | (a >>> 27)) + ((b & c) | (~b & d)) + e + w[i] + 0x5A827999;
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = t;
+		}
+		for (; i < 40; i++) {
+			t = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + w[i] + 0x6ED9EBA1;
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = t;
+		}
+		for (; i < 60; i++) {
+			t = ((a << 5) | (a >>> 27)) + ((b & c) | (b & d) | (c & d)) + e + w[i] + 0x8F1BBCDC;
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = t;
+		}
+		for (; i < 80; i++) {
+			t = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + w[i] + 0xCA62C1D6;
+			e = d;
+			d = c;
+			c = (b << 30) | (b >>> 2);
+			b = a;
+			a = t;
+		}
+		h0 = s0 + a;
+		h1 = s1 + b;
+		h2 = s2 + c;
+		h3 = s3 + d;
+		h4 = s4 + e;
+	}
+
+	private static void putInt(final int value, final byte[] out, final int off) {
+		out[off] = (byte) (value >>> 24);
+		out[off + 1] = (byte) (value >>> 16);
+		out[off + 2] = (byte) (value >>> 8);
+		out[off + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Steam Guard token formatter. The truncated value is written as 5 base-26
+ * characters of the Steam alphabet (the least significant one first).
+ *
+ * @author Josef Cacek
+ */
+public final class SteamFormatter implements TokenFormatter {
+
+	/**
+	 * Shared instance.
+	 */
+	public static final SteamFormatter INSTANCE = new SteamFormatter();
+
+	/**
+	 * The Steam Guard alphabet.
+	 */
+	public static final String ALPHABET = "23456789BCDFGHJKMNPQRTVWXY";
+
+	/**
+	 * Length of Steam Guard codes.
+	 */
+	public static final int LENGTH = 5;
+
+	private static final char[] CHARS = ALPHABET.toCharArray();
+
+	private SteamFormatter() {
+	}
+
+	// Public methods --------------------------------------------------------
+
+	public int format(final int binary, final int length, final char[] out, final int off) {
+		int code = binary;
+		for (int i = off, end = off + length; i < end; i++) {
+			out[i] = CHARS[code % CHARS.length];
+			code /= CHARS.length;
+		}
+		return length;
+	}
+
+	public int format(final int binary, final int length, final byte[] out, final int off) {
+		int code = binary;
+		for (int i = off, end = off + length; i < end; i++) {
+			out[i] = (byte) CHARS[code % CHARS.length];
+			code /= CHARS.length;
+		}
+		return length;
+	}
+
+	public boolean isSupportedLength(final int length) {
+		return length == LENGTH;
+	}
+}
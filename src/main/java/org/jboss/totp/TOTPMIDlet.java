@@ -17,14 +17,10 @@
 package org.jboss.totp;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Calendar;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Vector;
 
 import javax.microedition.lcdui.Alert;
 import javax.microedition.lcdui.AlertType;
@@ -38,19 +34,14 @@ import javax.microedition.lcdui.Form;
 import javax.microedition.lcdui.Gauge;
 import javax.microedition.lcdui.List;
 import javax.microedition.lcdui.StringItem;
+import javax.microedition.lcdui.TextBox;
 import javax.microedition.lcdui.TextField;
 import javax.microedition.midlet.MIDlet;
-import javax.microedition.rms.RecordEnumeration;
 import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreNotFoundException;
 
-import org.bouncycastle.crypto.Digest;
-import org.bouncycastle.crypto.digests.SHA1Digest;
-import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.digests.SHA512Digest;
 import org.bouncycastle.crypto.macs.HMac;
-import org.bouncycastle.crypto.params.KeyParameter;
 
 /**
  * TOTP generator for Java ME.
@@ -59,20 +50,30 @@ import org.bouncycastle.crypto.params.KeyParameter;
  */
 public class TOTPMIDlet extends MIDlet implements CommandListener {
 
-	private static final boolean DEBUG = false;
+	static final boolean DEBUG = false;
+
+	// runtime metrics (see the diagnostics screen)
+	static final int METRIC_TOKEN = 0;
+	static final int METRIC_REFRESH = 1;
+	static final int METRIC_RMS_OPEN = 2;
+	static final int METRIC_RMS_CLOSE = 3;
+	static final int METRIC_RMS_READ = 4;
+	static final int METRIC_RMS_READ_ALL = 5;
+	static final int METRIC_RMS_ADD = 6;
+	static final int METRIC_RMS_WRITE = 7;
+	static final int METRIC_RMS_DELETE = 8;
+	static final int METRIC_LOAD_PROFILES = 9;
+	static final int METRIC_IMPORT = 10;
+	// from the MIDlet creation to the first token (or the first screen without a token)
+	static final int METRIC_STARTUP = 11;
+
+	static final String[] METRIC_NAMES = { "token", "refresh tick", "rms open", "rms close", "rms read",
+			"rms read all", "rms add", "rms write", "rms delete", "load profiles", "import", "first token" };
 
 	private static final String STORE_CONFIG_OLD = "config";
 	private static final String STORE_PROFILE_CONFIG = "profile-config";
 	private static final String STORE_KEY_OLD = "key";
 
-	private static final String BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
-
-	private static final int[] BASE32_LOOKUP = { 0xFF, 0xFF, 0x1A, 0x1B, 0x1C, 0x1D, 0x1E, 0x1F, 0xFF, 0xFF, 0xFF,
-			0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B,
-			0x0C, 0x0D, 0x0E, 0x0F, 0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18, 0x19, 0xFF, 0xFF, 0xFF, 0xFF,
-			0xFF, 0xFF, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F,
-			0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18, 0x19, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF };
-
 	private static final char[] HEX_TABLE = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
 			'e', 'f' };
 
@@ -81,82 +82,145 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	private static final String SHA512 = "SHA-512";
 
 	private static final String[] HMAC_ALGORITHMS = { SHA1, SHA256, SHA512 };
-	private static final int[] HMAC_BYTE_COUNT = { 160 / 8, 256 / 8, 512 / 8 };
+	// indexes are Profile.TYPE_* values
+	private static final String[] PROFILE_TYPES = { "Time-based (TOTP)", "Counter-based (HOTP)" };
+	// indexes are TokenFormatter.FORMAT_* values
+	private static final String[] TOKEN_FORMATS = { "Digits", "Steam Guard" };
 
 	private static final int DEFAULT_TIMESTEP = 30;
 	private static final byte[] DEFAULT_SECRET = null;
 	private static final int DEFAULT_DIGITS = 6;
 	private static final long DEFAULT_DELTA = 0L;
 	private static final int DEFAULT_HMAC_ALG_IDX = 0;
+	private static final long DEFAULT_COUNTER = 0L;
 
 	private static final String DEFAULT_PROFILE = "Default";
 
 	private static final long INVALID_COUNTER = -1L;
 
-	private static final int INDEFINITE = 1;
-	private static final int IDLE = 0;
+	// position of the next token item in the main form
+	private static final int NEXT_TOKEN_ITEM_IDX = 2;
+
+	// clock resynchronization searches +-1 day, RESYNC_CHUNK counters at once
+	private static final int RESYNC_WINDOW_SEC = 24 * 60 * 60;
+	private static final int RESYNC_CHUNK = 32;
+
+	// otpauth:// URIs import - text box size and number of reported invalid URIs
+	private static final int IMPORT_MAX_SIZE = 16384;
+	private static final int IMPORT_MAX_ERRORS = 5;
+
+	// number of recently used profiles kept decoded with keyed MACs
+	private static final int PROFILE_CACHE_SIZE = 4;
+
+	// the grouped Base32 form of the longest importable key fits the secret key field
+	private static final int SECRET_FIELD_SIZE = Base32.encodedLength(OtpAuthParser.MAX_KEY_LENGTH);
 
 	private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
-	private static final byte[] DEFAULT_CONFIG_BYTES = getProfileConfig(DEFAULT_PROFILE, EMPTY_BYTE_ARRAY,
-			DEFAULT_TIMESTEP, DEFAULT_HMAC_ALG_IDX, DEFAULT_DIGITS, DEFAULT_DELTA);
+
+	private final long createdMillis = System.currentTimeMillis();
 
 	// GUI components
 	// main screen
 	private Command cmdExit = new Command("Exit", Command.EXIT, 1);
 	private Command cmdProfiles = new Command("Profiles", Command.SCREEN, 2);
+	private Command cmdDashboard = new Command("All tokens", Command.SCREEN, 2);
 	private Command cmdOptions = new Command("Options", Command.SCREEN, 3);
+	private Command cmdShowNextToken = new Command("Show next token", Command.SCREEN, 5);
+	// only for counter-based profiles
+	private Command cmdNextCode = new Command("Next code", Command.SCREEN, 1);
+	private Command cmdHideNextToken = new Command("Hide next token", Command.SCREEN, 5);
 	// main+options screen
 	private Command cmdGenerator = new Command("Key generator", Command.SCREEN, 4);
 	// options screen
 	private Command cmdOK = new Command("OK", Command.OK, 1);
 	private Command cmdReset = new Command("Default values", Command.SCREEN, 3);
+	private Command cmdResync = new Command("Clock resync", Command.SCREEN, 5);
+	// clock resync screen
+	private Command cmdResyncStart = new Command("Find correction", Command.OK, 1);
 	// keyGenerator screen
 	private Command cmdNewKey = new Command("New key", Command.SCREEN, 1);
 	private Command cmdGeneratorOK = new Command("OK", Command.OK, 1);
 	// profiles screen
 	private Command cmdAddProfile = new Command("Add", Command.SCREEN, 1);
 	private Command cmdRemoveProfile = new Command("Remove", Command.SCREEN, 2);
-	// confirmation screen
+	private Command cmdImport = new Command("Import", Command.SCREEN, 3);
+	// import screen
+	private Command cmdImportStart = new Command("Import", Command.OK, 1);
+	// hidden at the end of the menu
+	private Command cmdDiagnostics = new Command("Diagnostics", Command.HELP, 99);
+	// confirmation, clock resync and import screens
 	private Command cmdCancel = new Command("Cancel", Command.CANCEL, 1);
+	// dashboard and diagnostics screens
+	private Command cmdBack = new Command("Back", Command.BACK, 1);
+	// diagnostics screen
+	private Command cmdMetricsReset = new Command("Reset", Command.SCREEN, 1);
+	private Command cmdMetricsToggle = new Command("Enable/disable", Command.SCREEN, 2);
 
-	private final StringItem siKeyHex = new StringItem("HEX", null);
-	private final StringItem siKeyBase32 = new StringItem("Base32 (no zeros)", null);
 	private final StringItem siToken = new StringItem("Token", null);
+	private final StringItem siNextToken = new StringItem("Next token", null);
 	private final StringItem siProfile = new StringItem(null, null);
-	private final StringItem siConfirm = new StringItem(null, null);
 	private final Gauge gauValidity = new Gauge(null, false, DEFAULT_TIMESTEP - 1, DEFAULT_TIMESTEP);
-	private final TextField tfSecret = new TextField("Secret key (Base32, no zeros)", null, 105, TextField.ANY);
-	private final TextField tfProfile = new TextField("Profile name", null, 105, TextField.ANY);
-	private final TextField tfTimeStep = new TextField("Time step (sec)", String.valueOf(DEFAULT_TIMESTEP), 3,
-			TextField.NUMERIC);
-	private final TextField tfDigits = new TextField("Number of digits", String.valueOf(DEFAULT_DIGITS), 2,
-			TextField.NUMERIC);
-	//http://docs.oracle.com/javame/config/cldc/ref-impl/midp2.0/jsr118/javax/microedition/lcdui/TextField.htm getMaxSize
-	private final TextField tfDelta = new TextField("Time correction (sec)", String.valueOf(DEFAULT_DELTA), 20,
-			TextField.ANY);
-	private final ChoiceGroup chgHmacAlgorithm = new ChoiceGroup("HMAC algorithm", Choice.EXCLUSIVE);
-
-	private final Alert alertWarn = new Alert("Warning", "Something went wrong!", null, AlertType.ALARM);
+	// items of the other screens are created together with their screen
+	private StringItem siKeyHex;
+	private StringItem siKeyBase32;
+	private StringItem siConfirm;
+	private StringItem siMetrics;
+	private TextField tfSecret;
+	private TextField tfProfile;
+	private TextField tfTimeStep;
+	private TextField tfDigits;
+	private TextField tfDelta;
+	private ChoiceGroup chgHmacAlgorithm;
+	private ChoiceGroup chgType;
+	private ChoiceGroup chgFormat;
+	private TextField tfCounter;
+	private TextField tfPreviousCode;
+	private TextField tfCurrentCode;
+	private Gauge gauResync;
+
+	private Alert alertWarn;
+	private Alert alertInfo;
 
 	private final Form fMain = new Form("TOTP ME ${project.version}");
-	private final Form fOptions = new Form("TOTP configuration");
-	private final Form fGenerator = new Form("Key generator");
-	private final Form fConfirm = new Form("Confirm action");
 	private final List listProfiles = new List("Profiles", Choice.IMPLICIT);
-
-	private final Timer timer = new Timer();
+	// created on the first use
+	private Form fOptions;
+	private Form fGenerator;
+	private Form fConfirm;
+	private Form fResync;
+	private Form fDiagnostics;
+	private TextBox tbImport;
+	// read by the refreshing thread without locking
+	private volatile Dashboard dashboard;
+
+	private final Metrics metrics = new Metrics(METRIC_NAMES);
 	private final RefreshTokenTask refreshTokenTask = new RefreshTokenTask();
-
-	private long cachedCounter;
-	private HMac hmac;
-	private final Random rand = new Random();
-
-	private int[] recordIds;
+	private final TokenScheduler tokenScheduler = new TokenScheduler(refreshTokenTask);
+	// the current profile and displayed token, the state is swapped by the UI thread only
+	private final TokenView tokenView = new TokenView(refreshTokenTask, metrics, METRIC_TOKEN);
+	private boolean initialized;
+	private volatile boolean startupRecorded;
+	private boolean paused;
+	private boolean tokensShown;
+
+	// record ID of the current profile
+	private int currentRecordId = -1;
+	// counter of the current profile if it's counter-based
+	private HotpCounter hotpCounter;
+	// created on the first key generation
+	private SecretGenerator secretGenerator;
+
+	private ProfileIndex profileIndex = new ProfileIndex();
+	// recently used profiles, entries are removed when their records change
+	private final ProfileCache profileCache = new ProfileCache(PROFILE_CACHE_SIZE);
+	private final ProfileStore profileStore = new ProfileStore(STORE_PROFILE_CONFIG, metrics);
+	private ResyncTask resyncTask;
 
 	// Constructors ----------------------------------------------------------
 
 	/**
-	 * Constructor - initializes GUI components.
+	 * Constructor - initializes the main screen and the profile list. Other
+	 * screens are created on their first use.
 	 */
 	public TOTPMIDlet() {
 
@@ -166,92 +230,80 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 		fMain.append(siProfile);
 		fMain.addCommand(cmdExit);
 		fMain.addCommand(cmdProfiles);
+		fMain.addCommand(cmdDashboard);
 		fMain.addCommand(cmdOptions);
 		fMain.addCommand(cmdGenerator);
+		fMain.addCommand(cmdShowNextToken);
 		fMain.setCommandListener(this);
 
-		// Key generator
-		fGenerator.append(siKeyHex);
-		fGenerator.append(siKeyBase32);
-		fGenerator.addCommand(cmdGeneratorOK);
-		fGenerator.addCommand(cmdNewKey);
-		fGenerator.setCommandListener(this);
-
-		// Configuration display
-		fOptions.append(tfSecret);
-		fOptions.append(tfProfile);
-		fOptions.append(tfTimeStep);
-		fOptions.append(tfDigits);
-		for (int i = 0; i < HMAC_ALGORITHMS.length; i++) {
-			chgHmacAlgorithm.append(HMAC_ALGORITHMS[i], null);
-		}
-		fOptions.append(chgHmacAlgorithm);
-		fOptions.append(tfDelta);
-		fOptions.addCommand(cmdOK);
-		fOptions.addCommand(cmdGenerator);
-		fOptions.addCommand(cmdReset);
-		fOptions.setCommandListener(this);
-
 		// Profiles
 		listProfiles.addCommand(cmdAddProfile);
 		listProfiles.addCommand(cmdRemoveProfile);
+		listProfiles.addCommand(cmdImport);
+		listProfiles.addCommand(cmdDiagnostics);
 		listProfiles.setCommandListener(this);
-
-		// Confirm dialog
-		fConfirm.append(siConfirm);
-		fConfirm.addCommand(cmdOK);
-		fConfirm.addCommand(cmdCancel);
-		fConfirm.setCommandListener(this);
-
-		// set alert
-		alertWarn.setTimeout(Alert.FOREVER);
-
-		tfTimeStep.setString(String.valueOf(DEFAULT_TIMESTEP));
-		tfDigits.setString(String.valueOf(DEFAULT_DIGITS));
-		chgHmacAlgorithm.setSelectedIndex(DEFAULT_HMAC_ALG_IDX, true);
 	}
 
 	// Public methods --------------------------------------------------------
 
 	/**
-	 * Loads configuration and initializes token-refreshing timer.
+	 * Loads configuration and starts token-refreshing scheduler. When the
+	 * application is resumed, only the scheduler is reactivated.
+	 * <p>
+	 * If there is only one profile, its token is shown first and the profile
+	 * list is loaded after the main screen is painted.
+	 * </p>
 	 * 
 	 * @see javax.microedition.midlet.MIDlet#startApp()
 	 */
 	public void startApp() {
 		try {
-			loadProfiles();
-			reorderProfiles();
-			if (listProfiles.getSelectedIndex() < 0)
-				listProfiles.setSelectedIndex(0, true);
-			if (listProfiles.size() > 1) {
-				Display.getDisplay(this).setCurrent(listProfiles);
-			} else {
-				loadSelectedProfile();
+			if (!initialized) {
+				initialized = true;
+				tokenScheduler.start();
+				if (!showOnlyProfile()) {
+					loadProfiles();
+					if (listProfiles.getSelectedIndex() < 0)
+						listProfiles.setSelectedIndex(0, true);
+					if (listProfiles.size() > 1) {
+						showScreen(listProfiles);
+						recordStartup();
+					} else {
+						loadSelectedProfile();
+					}
+				}
 			}
-			timer.schedule(refreshTokenTask, 0L, 1000L);
+			paused = false;
+			updateScheduler();
 		} catch (Exception e) {
 			debugErr("TOTPMIDlet.startApp() - " + e.getMessage());
 			error(e);
 		}
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Suspends the token refreshing and closes the profile record store (it's
+	 * reopened on the next access).
 	 * 
 	 * @see javax.microedition.midlet.MIDlet#pauseApp()
 	 */
 	public void pauseApp() {
+		paused = true;
+		updateScheduler();
+		releaseHotpCounter();
+		profileStore.close();
 	}
 
 	/**
-	 * Saves configuration to the record store and exits the refreshing timer.
+	 * Saves configuration to the record store and stops the refreshing
+	 * scheduler.
 	 * 
 	 * @see javax.microedition.midlet.MIDlet#destroyApp(boolean)
 	 */
 	public void destroyApp(boolean unconditional) {
-		refreshTokenTask.cancel();
-		timer.cancel();
+		tokenScheduler.stop();
+		releaseHotpCounter();
+		profileStore.close();
 		notifyDestroyed();
 	}
 
@@ -265,12 +317,11 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 		if (DEBUG && aCmd != null) {
 			debug("Options - Command action: " + aCmd.getLabel());
 		}
-		final Display display = Display.getDisplay(this);
-		if (aDisp == fConfirm) {
+		if (aDisp != null && aDisp == fConfirm) {
 			if (aCmd == cmdOK) {
 				removeProfile(listProfiles.getSelectedIndex());
 			}
-			display.setCurrent(listProfiles);
+			showScreen(listProfiles);
 			return;
 		}
 		if (aCmd == cmdOK) {
@@ -278,37 +329,61 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 			if (warning.length() == 0) {
 				siProfile.setText(tfProfile.getString());
 				final int algorithmIdx = chgHmacAlgorithm.getSelectedIndex();
-				final byte[] secretKey = base32Decode(tfSecret.getString());
-				HMac newHmac = null;
+				final byte[] secretKey = Base32.decode(tfSecret.getString());
+				final int type = chgType.getSelectedIndex();
+				TokenMac newMac = null;
 				if (secretKey != null) {
-					Digest digest = null;
-					if (SHA1.equals(HMAC_ALGORITHMS[algorithmIdx])) {
-						digest = new SHA1Digest();
-					} else if (SHA256.equals(HMAC_ALGORITHMS[algorithmIdx])) {
-						digest = new SHA256Digest();
-					} else if (SHA512.equals(HMAC_ALGORITHMS[algorithmIdx])) {
-						digest = new SHA512Digest();
+					// keep the precomputed key state if the key hasn't changed; a TOTP MAC may still be used by
+					// the refresh tick, so it's reused only by another TOTP profile (HOTP tokens are generated
+					// in the UI thread)
+					final Profile currentProfile = getProfile();
+					newMac = currentProfile != null && type == Profile.TYPE_TOTP ? currentProfile.getMac() : null;
+					if (newMac == null || !newMac.isKeyedWith(algorithmIdx, secretKey)) {
+						newMac = KeyedMac.create(algorithmIdx, secretKey);
 					}
-					newHmac = new HMac(digest);
-					newHmac.init(new KeyParameter(secretKey));
 				}
-				setHMac(newHmac);
-				refreshTokenTask.run();
-				display.setCurrent(fMain);
-				if (aDisp != null)
-					save();
-				reorderProfiles();
+				setProfile(new Profile(tfProfile.getString(), newMac, Integer.parseInt(tfTimeStep.getString()),
+						Integer.parseInt(tfDigits.getString()), Long.parseLong(tfDelta.getString()), type,
+						TokenGenerator.getFormatter(chgFormat.getSelectedIndex())));
+				releaseHotpCounter();
+				save();
+				currentRecordId = profileIndex.getRecordId(listProfiles.getSelectedIndex());
+				setHotpCounter(type == Profile.TYPE_HOTP ? new HotpCounter(Long.parseLong(tfCounter.getString()),
+						HotpCounter.DEFAULT_BLOCK_SIZE, new CounterStorage(currentRecordId)) : null);
+				showScreen(fMain);
 			} else {
 				displayAlert("Invalid input:\n" + warning, fOptions);
 			}
 		} else if (aCmd == cmdGenerator) {
-			final byte[] key = base32Decode(tfSecret.getString());
+			// the generated key is set to the options screen
+			getOptionsScreen();
+			final Form generator = getGeneratorScreen();
+			final byte[] key = Base32.decode(tfSecret.getString());
 			// set current key
 			siKeyHex.setText(key == null ? "" : toHexString(key, 0, key.length));
-			siKeyBase32.setText(base32Encode(key));
-			display.setCurrent(fGenerator);
+			siKeyBase32.setText(Base32.encode(key));
+			showScreen(generator);
 		} else if (aCmd == cmdProfiles) {
-			display.setCurrent(listProfiles);
+			showScreen(listProfiles);
+		} else if (aCmd == cmdDashboard) {
+			Dashboard currentDashboard = getDashboard();
+			if (currentDashboard == null) {
+				currentDashboard = new Dashboard("All tokens", loadAllProfiles(), metrics);
+				currentDashboard.addCommand(cmdBack);
+				currentDashboard.setCommandListener(this);
+				setDashboard(currentDashboard);
+			}
+			currentDashboard.refresh(System.currentTimeMillis() / 1000L);
+			showScreen(currentDashboard);
+		} else if (aCmd == cmdBack) {
+			showScreen(aDisp == fDiagnostics ? (Displayable) listProfiles : fMain);
+		} else if (aCmd == cmdNextCode) {
+			showHotpToken();
+		} else if (aCmd == cmdShowNextToken || aCmd == cmdHideNextToken) {
+			final boolean nextTokenEnabled = aCmd == cmdShowNextToken;
+			setTokenState(tokenView.getState().withNextTokenEnabled(nextTokenEnabled));
+			fMain.removeCommand(aCmd);
+			fMain.addCommand(nextTokenEnabled ? cmdHideNextToken : cmdShowNextToken);
 		} else if (aCmd == cmdAddProfile) {
 			final Calendar cal = Calendar.getInstance();
 			// use date-time as generated profile name YYYYMMDD-HHMMSS
@@ -318,19 +393,12 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 					+ zeroLeftPad(cal.get(Calendar.SECOND), 2);
 			if (DEBUG)
 				debug("Creating profile" + profileName);
-			int newPos = 0;
-			while (newPos < listProfiles.size() && profileName.compareTo(listProfiles.getString(newPos)) > 0) {
-				newPos++;
-			}
-			listProfiles.insert(newPos, profileName, null);
-			listProfiles.setSelectedIndex(newPos, true);
-			int[] newRecIds = new int[recordIds.length + 1];
-			System.arraycopy(recordIds, 0, newRecIds, 0, newPos);
-			System.arraycopy(recordIds, newPos, newRecIds, newPos + 1, recordIds.length - newPos);
-			recordIds = newRecIds;
 			final byte[] profileConfig = getProfileConfig(profileName, EMPTY_BYTE_ARRAY, DEFAULT_TIMESTEP,
 					DEFAULT_HMAC_ALG_IDX, DEFAULT_DIGITS, DEFAULT_DELTA);
-			recordIds[newPos] = addProfileToRecordStore(profileConfig);
+			final int newPos = profileIndex.add(profileName, addProfileToRecordStore(profileConfig));
+			listProfiles.insert(newPos, profileName, null);
+			listProfiles.setSelectedIndex(newPos, true);
+			setDashboard(null);
 		} else if (aDisp == listProfiles && aCmd == List.SELECT_COMMAND) {
 			if (listProfiles.getSelectedIndex() >= 0)
 				loadSelectedProfile();
@@ -344,35 +412,64 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 				break;
 			default:
 				if (listProfiles.getSelectedIndex() >= 0) {
+					final Form confirm = getConfirmScreen();
 					siConfirm.setText("Do you really want to delete profile "
-							+ listProfiles.getString(listProfiles.getSelectedIndex()) + "?");
-					display.setCurrent(fConfirm);
+							+ profileIndex.getName(listProfiles.getSelectedIndex()) + "?");
+					showScreen(confirm);
 				}
 				break;
 			}
+		} else if (aCmd == cmdImport) {
+			showScreen(getImportScreen());
+		} else if (aCmd == cmdImportStart) {
+			importProfiles();
+		} else if (aCmd == cmdDiagnostics) {
+			showDiagnostics();
+		} else if (aCmd == cmdMetricsReset) {
+			metrics.reset();
+			showDiagnostics();
+		} else if (aCmd == cmdMetricsToggle) {
+			metrics.setEnabled(!metrics.isEnabled());
+			showDiagnostics();
 		} else if (aCmd == cmdNewKey) {
 			final byte[] secretKey = generateNewKey();
 			siKeyHex.setText(toHexString(secretKey, 0, secretKey.length));
-			siKeyBase32.setText(base32Encode(secretKey));
+			siKeyBase32.setText(Base32.encode(secretKey));
 			tfSecret.setString(siKeyBase32.getText());
 		} else if (aCmd == cmdGeneratorOK) {
-			display.setCurrent(fOptions);
+			showScreen(fOptions);
 		} else if (aCmd == cmdOptions) {
-			display.setCurrent(fOptions);
+			showScreen(getOptionsScreen());
 		} else if (aCmd == cmdReset) {
-			setHMac(null);
-			gauValidity.setMaxValue(INDEFINITE);
-			gauValidity.setValue(IDLE);
-			tfSecret.setString(base32Encode(DEFAULT_SECRET));
+			setProfile(null);
+			tfSecret.setString(Base32.encode(DEFAULT_SECRET));
 			tfTimeStep.setString(Integer.toString(DEFAULT_TIMESTEP));
 			tfDigits.setString(Integer.toString(DEFAULT_DIGITS));
 			chgHmacAlgorithm.setSelectedIndex(DEFAULT_HMAC_ALG_IDX, true);
+			chgType.setSelectedIndex(Profile.TYPE_TOTP, true);
+			chgFormat.setSelectedIndex(TokenFormatter.FORMAT_DECIMAL, true);
 			tfDelta.setString(Long.toString(DEFAULT_DELTA));
-			tfProfile.setString(listProfiles.getString(listProfiles.getSelectedIndex()));
+			tfCounter.setString(Long.toString(DEFAULT_COUNTER));
+			tfProfile.setString(profileIndex.getName(listProfiles.getSelectedIndex()));
+		} else if (aCmd == cmdResync && (chgType.getSelectedIndex() == Profile.TYPE_HOTP
+				|| chgFormat.getSelectedIndex() != TokenFormatter.FORMAT_DECIMAL)) {
+			displayAlert("Clock resync is available only for time-based profiles with digit codes.", fOptions);
+		} else if (aCmd == cmdResync) {
+			final Form resync = getResyncScreen();
+			tfPreviousCode.setString("");
+			tfCurrentCode.setString("");
+			gauResync.setValue(0);
+			showScreen(resync);
+		} else if (aCmd == cmdResyncStart) {
+			startResync();
+		} else if (aCmd == cmdCancel && aDisp == tbImport) {
+			showScreen(listProfiles);
+		} else if (aCmd == cmdCancel) {
+			resyncTask = null;
+			showScreen(fOptions);
 		} else if (aCmd == cmdExit) {
 			destroyApp(false);
 		}
-		cachedCounter = INVALID_COUNTER;
 	}
 
 	// Protected methods -----------------------------------------------------
@@ -387,31 +484,39 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 		if (hmac == null || digits <= 0) {
 			return "";
 		}
+		final char[] token = new char[digits];
+		new TokenGenerator().generate(counter, hmac, digits, token, 0);
+		return new String(token);
+	}
 
-		// generate 8 byte HOTP counter value (RFC 4226)
-		final byte msg[] = new byte[8];
-		for (int i = 0; i < 8; i++) {
-			msg[7 - i] = (byte) (counter >>> (i * 8));
+	/**
+	 * Generates the current token using precomputed key state. If the token
+	 * can't be generated it returns an empty String.
+	 * 
+	 * @return current token or an empty String
+	 */
+	protected static String genToken(final long counter, final TokenMac mac, final int digits) {
+		if (mac == null || digits <= 0) {
+			return "";
 		}
+		return genToken(counter, mac, DecimalFormatter.INSTANCE, digits);
+	}
 
-		// compute the HMAC
-		final byte[] hash = new byte[hmac.getMacSize()];
-		hmac.update(msg, 0, msg.length);
-		hmac.doFinal(hash, 0);
-
-		// Transform the HMAC to a HOTP value according to RFC 4226.
-		final int off = hash[hash.length - 1] & 0xF;
-		// Truncate the HMAC (look at RFC 4226 section 5.3, step 2).
-		int binary = ((hash[off] & 0x7f) << 24) | ((hash[off + 1] & 0xff) << 16) | ((hash[off + 2] & 0xff) << 8)
-				| ((hash[off + 3] & 0xff));
-
-		// use requested number of digits
-		final byte[] digitsArray = new byte[digits];
-		for (int i = 0; i < digits; i++) {
-			digitsArray[digits - 1 - i] = (byte) ('0' + (char) (binary % 10));
-			binary /= 10;
+	/**
+	 * Generates the token of given length using precomputed key state and the
+	 * given formatter. If the token can't be generated it returns an empty
+	 * String.
+	 * 
+	 * @return current token or an empty String
+	 */
+	protected static String genToken(final long counter, final TokenMac mac, final TokenFormatter formatter,
+			final int length) {
+		if (mac == null || length <= 0) {
+			return "";
 		}
-		return new String(digitsArray, 0, digits);
+		final char[] token = new char[length];
+		new TokenGenerator().generate(counter, mac, formatter, length, token, 0);
+		return new String(token);
 	}
 
 	/**
@@ -428,21 +533,102 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	// Private methods -------------------------------------------------------
 
 	/**
-	 * Returns HMac.
+	 * Returns the compiled current profile.
+	 * 
+	 * @return current profile or <code>null</code>
+	 */
+	private Profile getProfile() {
+		return tokenView.getState().getProfile();
+	}
+
+	/**
+	 * Sets the compiled current profile. The displayed token is cleared and
+	 * rendered again by the refreshing task.
+	 * 
+	 * @param profile
+	 */
+	private void setProfile(Profile profile) {
+		setTokenState(tokenView.getState().withProfile(profile));
+	}
+
+	/**
+	 * Publishes new token state and requests its rendering. Token items of the
+	 * main screen are changed only by the refreshing task.
+	 * 
+	 * @param state
+	 */
+	private void setTokenState(TokenState state) {
+		tokenView.setState(state);
+		tokenScheduler.requestTick();
+	}
+
+	/**
+	 * Sets counter of the current (counter-based) profile and shows the
+	 * command for generating codes.
+	 * 
+	 * @param counter
+	 *            counter or <code>null</code> for time-based profiles
+	 */
+	private void setHotpCounter(HotpCounter counter) {
+		hotpCounter = counter;
+		if (counter != null) {
+			fMain.addCommand(cmdNextCode);
+		} else {
+			fMain.removeCommand(cmdNextCode);
+		}
+	}
+
+	/**
+	 * Persists the next counter of the current counter-based profile, so the
+	 * rest of its reserved block is not skipped.
+	 */
+	private void releaseHotpCounter() {
+		if (hotpCounter != null) {
+			hotpCounter.release();
+		}
+	}
+
+	/**
+	 * Generates token for the next counter of the current counter-based
+	 * profile.
+	 */
+	private void showHotpToken() {
+		final Profile currentProfile = getProfile();
+		if (hotpCounter == null || currentProfile == null || currentProfile.getMac() == null) {
+			return;
+		}
+		final long counter = hotpCounter.next();
+		if (counter < 0L) {
+			displayAlert("The counter can't be saved.", fMain);
+			return;
+		}
+		final long start = metrics.start();
+		final String token = genToken(counter, currentProfile.getMac(), currentProfile.getFormatter(),
+				currentProfile.getDigits());
+		metrics.record(METRIC_TOKEN, start);
+		setTokenState(tokenView.getState().withHotpToken(counter, token));
+		if (tfCounter != null) {
+			tfCounter.setString(Long.toString(hotpCounter.getNext()));
+		}
+	}
+
+	/**
+	 * Returns the dashboard screen or <code>null</code> if it wasn't created
+	 * yet (or profiles changed since).
 	 * 
 	 * @return
 	 */
-	private synchronized HMac getHMac() {
-		return hmac;
+	private Dashboard getDashboard() {
+		return dashboard;
 	}
 
 	/**
-	 * Sets HMac.
+	 * Sets the dashboard screen.
 	 * 
-	 * @param hmac
+	 * @param dashboard
 	 */
-	private synchronized void setHMac(HMac hmac) {
-		this.hmac = hmac;
+	private void setDashboard(Dashboard dashboard) {
+		this.dashboard = dashboard;
 	}
 
 	/**
@@ -469,7 +655,7 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 			str = str.toUpperCase().replace('0', 'O').replace('1', 'L');
 			for (int i = 0; i < str.length(); i++) {
 				char ch = str.charAt(i);
-				if (BASE32_CHARS.indexOf(ch) >= 0) {
+				if (Base32.ALPHABET.indexOf(ch) >= 0) {
 					sb.append(ch);
 				}
 			}
@@ -489,7 +675,7 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 				warnings.append("\n");
 			warnings.append("Time step must be positive number.");
 		}
-		gauValidity.setMaxValue((str.length() > 0 && step > 1) ? step - 1 : INDEFINITE);
+		final boolean counterBased = chgType.getSelectedIndex() == Profile.TYPE_HOTP;
 
 		int digits = 0;
 		try {
@@ -497,10 +683,17 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 		} catch (NumberFormatException e) {
 			tfDigits.setString(Integer.toString(DEFAULT_DIGITS));
 		}
-		if (digits <= 0) {
+		int format = chgFormat.getSelectedIndex();
+		if (format < 0) {
+			format = TokenFormatter.FORMAT_DECIMAL;
+			chgFormat.setSelectedIndex(format, true);
+		}
+		if (!TokenGenerator.getFormatter(format).isSupportedLength(digits)) {
 			if (warnings.length() > 0)
 				warnings.append("\n");
-			warnings.append("Number of digits must be positive number.");
+			warnings.append(format == TokenFormatter.FORMAT_STEAM ? "Steam Guard codes have "
+					+ SteamFormatter.LENGTH + " characters." : "Number of digits must be between 1 and "
+					+ DecimalFormatter.MAX_LENGTH + ".");
 		}
 
 		//Example: If device manufactur has set limited lifetime [2000..2017)
@@ -518,6 +711,18 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 			warnings.append("' (is not a number).");
 		}
 
+		long counter = -1L;
+		try {
+			counter = Long.parseLong(tfCounter.getString());
+		} catch (NumberFormatException e) {
+			tfCounter.setString(Long.toString(DEFAULT_COUNTER));
+		}
+		if (counterBased && counter < 0L) {
+			if (warnings.length() > 0)
+				warnings.append("\n");
+			warnings.append("Counter must not be negative.");
+		}
+
 		return warnings.toString();
 	}
 
@@ -530,8 +735,319 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 *            a user.
 	 */
 	private void displayAlert(final String msg, Displayable nextDisplayable) {
+		if (alertWarn == null) {
+			alertWarn = new Alert("Warning", "Something went wrong!", null, AlertType.ALARM);
+			alertWarn.setTimeout(Alert.FOREVER);
+		}
 		alertWarn.setString(msg);
-		Display.getDisplay(this).setCurrent(alertWarn, nextDisplayable);
+		showAlert(alertWarn, nextDisplayable);
+	}
+
+	/**
+	 * Shows {@link Alert} information screen with given message.
+	 * 
+	 * @param msg
+	 * @param nextDisplayable
+	 *            Next screen, which is displayed after the confirmation by a
+	 *            user.
+	 */
+	private void displayInfo(final String msg, Displayable nextDisplayable) {
+		if (alertInfo == null) {
+			alertInfo = new Alert("Information", null, null, AlertType.INFO);
+			alertInfo.setTimeout(Alert.FOREVER);
+		}
+		alertInfo.setString(msg);
+		showAlert(alertInfo, nextDisplayable);
+	}
+
+	/**
+	 * Displays the given screen and suspends or activates the token refreshing
+	 * according to it.
+	 * 
+	 * @param displayable
+	 */
+	private void showScreen(Displayable displayable) {
+		Display.getDisplay(this).setCurrent(displayable);
+		tokensShown = displayable == fMain || displayable instanceof Dashboard;
+		updateScheduler();
+	}
+
+	/**
+	 * Displays the alert followed by the given screen.
+	 * 
+	 * @param alert
+	 * @param nextDisplayable
+	 */
+	private void showAlert(Alert alert, Displayable nextDisplayable) {
+		Display.getDisplay(this).setCurrent(alert, nextDisplayable);
+		tokensShown = nextDisplayable == fMain || nextDisplayable instanceof Dashboard;
+		updateScheduler();
+	}
+
+	/**
+	 * Displays the diagnostics screen with the current metrics.
+	 */
+	private void showDiagnostics() {
+		if (fDiagnostics == null) {
+			siMetrics = new StringItem(null, null);
+			fDiagnostics = new Form("Diagnostics");
+			fDiagnostics.append(siMetrics);
+			fDiagnostics.addCommand(cmdBack);
+			fDiagnostics.addCommand(cmdMetricsReset);
+			fDiagnostics.addCommand(cmdMetricsToggle);
+			fDiagnostics.setCommandListener(this);
+		}
+		metrics.sampleMemory();
+		final String report = metrics.getReport();
+		siMetrics.setText((metrics.isEnabled() ? "" : "Metrics are disabled.\n")
+				+ (report.length() > 0 ? report : "No metrics recorded yet."));
+		showScreen(fDiagnostics);
+	}
+
+	/**
+	 * Returns the options screen. It's created on the first use and filled
+	 * with the current profile.
+	 * 
+	 * @return
+	 */
+	private Form getOptionsScreen() {
+		if (fOptions == null) {
+			tfSecret = new TextField("Secret key (Base32, no zeros)", null, SECRET_FIELD_SIZE, TextField.ANY);
+			tfProfile = new TextField("Profile name", null, 105, TextField.ANY);
+			tfTimeStep = new TextField("Time step (sec)", String.valueOf(DEFAULT_TIMESTEP), 3, TextField.NUMERIC);
+			tfDigits = new TextField("Number of digits", String.valueOf(DEFAULT_DIGITS), 2, TextField.NUMERIC);
+			//http://docs.oracle.com/javame/config/cldc/ref-impl/midp2.0/jsr118/javax/microedition/lcdui/TextField.htm getMaxSize
+			tfDelta = new TextField("Time correction (sec)", String.valueOf(DEFAULT_DELTA), 20, TextField.ANY);
+			chgHmacAlgorithm = new ChoiceGroup("HMAC algorithm", Choice.EXCLUSIVE, HMAC_ALGORITHMS, null);
+			chgType = new ChoiceGroup("Token type", Choice.EXCLUSIVE, PROFILE_TYPES, null);
+			chgFormat = new ChoiceGroup("Token format", Choice.EXCLUSIVE, TOKEN_FORMATS, null);
+			tfCounter = new TextField("Counter (HOTP)", String.valueOf(DEFAULT_COUNTER), 19, TextField.NUMERIC);
+
+			fOptions = new Form("TOTP configuration");
+			fOptions.append(tfSecret);
+			fOptions.append(tfProfile);
+			fOptions.append(chgType);
+			fOptions.append(tfTimeStep);
+			fOptions.append(tfDigits);
+			fOptions.append(chgFormat);
+			fOptions.append(chgHmacAlgorithm);
+			fOptions.append(tfDelta);
+			fOptions.append(tfCounter);
+			fOptions.addCommand(cmdOK);
+			fOptions.addCommand(cmdGenerator);
+			fOptions.addCommand(cmdReset);
+			fOptions.addCommand(cmdResync);
+			fOptions.setCommandListener(this);
+
+			chgHmacAlgorithm.setSelectedIndex(DEFAULT_HMAC_ALG_IDX, true);
+			chgType.setSelectedIndex(Profile.TYPE_TOTP, true);
+			chgFormat.setSelectedIndex(TokenFormatter.FORMAT_DECIMAL, true);
+			fillOptions(currentRecordId >= 0 ? getProfileRecord(currentRecordId) : null);
+		}
+		return fOptions;
+	}
+
+	/**
+	 * Returns the key generator screen (it's created on the first use).
+	 * 
+	 * @return
+	 */
+	private Form getGeneratorScreen() {
+		if (fGenerator == null) {
+			siKeyHex = new StringItem("HEX", null);
+			siKeyBase32 = new StringItem("Base32 (no zeros)", null);
+			fGenerator = new Form("Key generator");
+			fGenerator.append(siKeyHex);
+			fGenerator.append(siKeyBase32);
+			fGenerator.addCommand(cmdGeneratorOK);
+			fGenerator.addCommand(cmdNewKey);
+			fGenerator.setCommandListener(this);
+		}
+		return fGenerator;
+	}
+
+	/**
+	 * Returns the confirmation screen (it's created on the first use).
+	 * 
+	 * @return
+	 */
+	private Form getConfirmScreen() {
+		if (fConfirm == null) {
+			siConfirm = new StringItem(null, null);
+			fConfirm = new Form("Confirm action");
+			fConfirm.append(siConfirm);
+			fConfirm.addCommand(cmdOK);
+			fConfirm.addCommand(cmdCancel);
+			fConfirm.setCommandListener(this);
+		}
+		return fConfirm;
+	}
+
+	/**
+	 * Returns the clock resync screen (it's created on the first use).
+	 * 
+	 * @return
+	 */
+	private Form getResyncScreen() {
+		if (fResync == null) {
+			tfPreviousCode = new TextField("Previous code", null, 10, TextField.NUMERIC);
+			tfCurrentCode = new TextField("Current code", null, 10, TextField.NUMERIC);
+			gauResync = new Gauge("Search progress", false, 100, 0);
+			fResync = new Form("Clock resync");
+			fResync.append(new StringItem(null,
+					"Enter two consecutive codes from a device with the correct time (e.g. a server)."));
+			fResync.append(tfPreviousCode);
+			fResync.append(tfCurrentCode);
+			fResync.append(gauResync);
+			fResync.addCommand(cmdResyncStart);
+			fResync.addCommand(cmdCancel);
+			fResync.setCommandListener(this);
+		}
+		return fResync;
+	}
+
+	/**
+	 * Returns the import screen (it's created on the first use).
+	 * 
+	 * @return
+	 */
+	private TextBox getImportScreen() {
+		if (tbImport == null) {
+			tbImport = new TextBox("Paste otpauth:// URIs", null, IMPORT_MAX_SIZE, TextField.ANY);
+			tbImport.addCommand(cmdImportStart);
+			tbImport.addCommand(cmdCancel);
+			tbImport.setCommandListener(this);
+		}
+		return tbImport;
+	}
+
+	/**
+	 * Imports profiles from the otpauth:// URIs in the import screen. The
+	 * URIs are parsed in a single pass, all the new records are added within
+	 * one store session and the profile list is sorted and refreshed once at
+	 * the end.
+	 */
+	private void importProfiles() {
+		final long start = metrics.start();
+		final char[] chars = new char[tbImport.size()];
+		final OtpAuthParser parser = new OtpAuthParser(chars, 0, tbImport.getChars(chars));
+		final Vector names = new Vector();
+		final Vector records = new Vector();
+		final StringBuffer errors = new StringBuffer();
+		int invalidCount = 0;
+		try {
+			while (parser.next()) {
+				if (parser.isValid()) {
+					final String name = parser.getName();
+					names.addElement(name);
+					records.addElement(ProfileRecord.create(name, parser.getKey(), parser.getTimeStep(),
+							parser.getAlgorithm(), parser.getDigits(), DEFAULT_DELTA, parser.getType(),
+							parser.getCounter(), parser.getFormat()));
+				} else if (++invalidCount <= IMPORT_MAX_ERRORS) {
+					errors.append("\nURI ").append(parser.getUriCount()).append(": ").append(parser.getError());
+				}
+			}
+		} catch (IOException e) {
+			// reading from the char array doesn't fail
+			debugErr("importProfiles - " + e.getMessage());
+		}
+
+		final byte[][] values = new byte[records.size()][];
+		records.copyInto(values);
+		int[] recordIds = new int[0];
+		if (values.length > 0) {
+			try {
+				recordIds = profileStore.addRecords(values);
+			} catch (RecordStoreException e) {
+				debugErr("importProfiles - " + e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		// update the index and the list once
+		final int selectedIdx = listProfiles.getSelectedIndex();
+		final int selectedRecordId = selectedIdx >= 0 ? profileIndex.getRecordId(selectedIdx) : -1;
+		int importedCount = 0;
+		for (int i = 0; i < recordIds.length; i++) {
+			if (recordIds[i] >= 0) {
+				profileIndex.append((String) names.elementAt(i), recordIds[i]);
+				importedCount++;
+			}
+		}
+		if (importedCount > 0) {
+			profileIndex.sort();
+			profileIndex.fillList(listProfiles);
+			if (selectedRecordId >= 0) {
+				listProfiles.setSelectedIndex(profileIndex.indexOfRecord(selectedRecordId), true);
+			}
+			setDashboard(null);
+		}
+		metrics.record(METRIC_IMPORT, start);
+
+		final StringBuffer message = new StringBuffer();
+		message.append("Imported profiles: ").append(importedCount);
+		if (importedCount < values.length) {
+			message.append("\nProfiles not saved: ").append(values.length - importedCount);
+		}
+		if (invalidCount > 0) {
+			message.append("\nInvalid URIs: ").append(invalidCount).append(errors);
+		}
+		if (importedCount == values.length && invalidCount == 0) {
+			tbImport.setString(null);
+			displayInfo(message.toString(), listProfiles);
+		} else {
+			displayAlert(message.toString(), tbImport);
+		}
+	}
+
+	/**
+	 * Validates the options and codes in the clock resync screen and starts
+	 * the search of the time correction. The search runs in small chunks
+	 * serialized with the UI events.
+	 */
+	private void startResync() {
+		final String warning = validateInput();
+		final byte[] secretKey = Base32.decode(tfSecret.getString());
+		if (warning.length() > 0 || secretKey == null) {
+			displayAlert("Invalid input:\n" + (warning.length() > 0 ? warning : "Secret key is empty."), fOptions);
+			return;
+		}
+		final int digits = Integer.parseInt(tfDigits.getString());
+		final int previousCode = TotpVerifier.parseCode(tfPreviousCode.getString(), digits);
+		final int currentCode = TotpVerifier.parseCode(tfCurrentCode.getString(), digits);
+		if (previousCode < 0 || currentCode < 0) {
+			displayAlert("Enter two consecutive codes with " + digits + " digits.", fResync);
+			return;
+		}
+		final int timeStep = Integer.parseInt(tfTimeStep.getString());
+		gauResync.setValue(0);
+		resyncTask = new ResyncTask(new ClockResync(KeyedMac.create(chgHmacAlgorithm.getSelectedIndex(), secretKey),
+				digits, timeStep, previousCode, currentCode, System.currentTimeMillis() / 1000L, RESYNC_WINDOW_SEC
+						/ timeStep));
+		Display.getDisplay(this).callSerially(resyncTask);
+	}
+
+	/**
+	 * Uses the result of a finished clock resync - the found time correction
+	 * is set to the profile and saved.
+	 * 
+	 * @param resync
+	 */
+	private void finishResync(ClockResync resync) {
+		resyncTask = null;
+		if (resync.isFound()) {
+			tfDelta.setString(Long.toString(resync.getDelta()));
+			commandAction(cmdOK, fResync);
+			displayInfo("Time correction set to " + resync.getDelta() + " seconds.", fMain);
+		} else {
+			displayAlert("No matching codes found within 24 hours from the device time.", fResync);
+		}
+	}
+
+	/**
+	 * Token refreshing is active only if the application is not paused and a
+	 * screen with tokens is displayed.
+	 */
+	private void updateScheduler() {
+		tokenScheduler.setActive(!paused && tokensShown);
 	}
 
 	/**
@@ -543,86 +1059,64 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * @return new record ID or -1 (if adding fails)
 	 */
 	private int addProfileToRecordStore(final byte[] configBytes) {
-		RecordStore tmpRS = null;
 		try {
-			tmpRS = RecordStore.openRecordStore(STORE_PROFILE_CONFIG, true);
-			return tmpRS.addRecord(configBytes, 0, configBytes.length);
+			return profileStore.addRecord(configBytes);
 		} catch (Exception e) {
 			debugErr("addProfile - " + e.getClass().getName() + " - " + e.getMessage());
-		} finally {
-			if (tmpRS != null) {
-				try {
-					tmpRS.closeRecordStore();
-				} catch (RecordStoreException e) {
-					debugErr("addProfile (close) - " + e.getClass().getName() + " - " + e.getMessage());
-				}
-			}
 		}
 		return -1;
 	}
 
 	/**
-	 * Removes record with given ID from a {@link RecordStore} with given name.
+	 * Removes profile record with given ID from the {@link RecordStore}.
 	 * 
-	 * @param storeName
 	 * @param recordId
 	 */
-	private void removeRecordFromStore(final String storeName, final int recordId) {
-		RecordStore tmpRS = null;
+	private void removeProfileRecord(final int recordId) {
 		if (DEBUG)
-			debug("removeRecordFromStore - " + storeName + " - " + recordId);
+			debug("removeProfileRecord - " + recordId);
+		profileCache.remove(recordId);
 		try {
-			tmpRS = RecordStore.openRecordStore(storeName, false);
-			tmpRS.deleteRecord(recordId);
-		} catch (RecordStoreNotFoundException e) {
-			if (DEBUG)
-				debug("removeRecordFromStore - RecordStoreNotFoundException - " + storeName);
+			profileStore.deleteRecord(recordId);
 		} catch (Exception e) {
-			debugErr("removeRecordFromStore - " + e.getClass().getName() + " - " + storeName + " - " + recordId + ": "
-					+ e.getMessage());
-		} finally {
-			if (tmpRS != null) {
-				try {
-					tmpRS.closeRecordStore();
-				} catch (RecordStoreException e) {
-					debugErr("removeRecordFromStore (close) - " + e.getClass().getName() + " - " + storeName + " - "
-							+ recordId + ": " + e.getMessage());
-				}
-			}
+			debugErr("removeProfileRecord - " + e.getClass().getName() + " - " + recordId + ": " + e.getMessage());
 		}
 	}
 
 	/**
-	 * Sets record with given ID and value to a {@link RecordStore} with given
-	 * name.
+	 * Sets profile record with given ID to the {@link RecordStore}.
 	 * 
-	 * @param storeName
 	 * @param recordId
 	 * @param value
 	 * @return
 	 */
-	private boolean saveRecordToStore(final String storeName, final int recordId, final byte[] value) {
-		RecordStore tmpRS = null;
+	private boolean saveProfileRecord(final int recordId, final byte[] value) {
+		profileCache.remove(recordId);
 		try {
-			tmpRS = RecordStore.openRecordStore(storeName, true);
-			tmpRS.setRecord(recordId, value, 0, value.length);
+			profileStore.setRecord(recordId, value);
 		} catch (Exception e) {
-			debugErr("saveRecordToStore - " + e.getClass().getName() + " - " + storeName + " - " + recordId + ": "
-					+ e.getMessage());
+			debugErr("saveProfileRecord - " + e.getClass().getName() + " - " + recordId + ": " + e.getMessage());
 			return false;
-		} finally {
-			if (tmpRS != null) {
-				try {
-					tmpRS.closeRecordStore();
-				} catch (RecordStoreException e) {
-					debugErr("saveRecordToStore (close) - " + e.getClass().getName() + " - " + storeName + " - "
-							+ recordId + ": " + e.getMessage());
-				}
-			}
 		}
 		return true;
 	}
 
+	/**
+	 * Loads value of a profile record with given ID from the
+	 * {@link RecordStore}.
+	 * 
+	 * @param recordId
+	 * @return
+	 */
+	private byte[] loadProfileRecord(final int recordId) {
+		try {
+			return profileStore.getRecord(recordId);
+		} catch (Exception e) {
+			debugErr("loadProfileRecord - " + e.getClass().getName() + " - " + recordId + ": " + e.getMessage());
+		}
+		return EMPTY_BYTE_ARRAY;
+	}
+
 	/**
 	 * Loads value of a record with given ID from a {@link RecordStore} with
 	 * given name.
@@ -664,65 +1158,182 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * @param profileIdx
 	 */
 	private void removeProfile(final int profileIdx) {
-		if (profileIdx >= listProfiles.size() || profileIdx < 0) {
+		if (profileIdx >= profileIndex.size() || profileIdx < 0) {
 			return;
 		}
+		final int recordId = profileIndex.getRecordId(profileIdx);
+		final boolean current = recordId == currentRecordId;
+		if (current) {
+			// the counter can't be stored to the removed record anymore
+			setHotpCounter(null);
+			currentRecordId = -1;
+		}
 		listProfiles.delete(profileIdx);
 		listProfiles.setSelectedIndex(profileIdx < listProfiles.size() ? profileIdx : profileIdx - 1, true);
-		removeRecordFromStore(STORE_PROFILE_CONFIG, recordIds[profileIdx]);
-		int[] newRecIds = new int[recordIds.length - 1];
-		System.arraycopy(recordIds, 0, newRecIds, 0, profileIdx);
-		System.arraycopy(recordIds, profileIdx + 1, newRecIds, profileIdx, newRecIds.length - profileIdx);
-		recordIds = newRecIds;
+		removeProfileRecord(recordId);
+		profileIndex.remove(profileIdx);
+		setDashboard(null);
+		if (current) {
+			if (listProfiles.getSelectedIndex() >= 0) {
+				selectProfile(profileIndex.getRecordId(listProfiles.getSelectedIndex()));
+			} else {
+				setProfile(null);
+				siProfile.setText(null);
+			}
+		}
 	}
 
 	/**
 	 * Loads configuration of the selected profile.
 	 */
 	private void loadSelectedProfile() {
-		final int profileIdx = listProfiles.getSelectedIndex();
+		showProfile(profileIndex.getRecordId(listProfiles.getSelectedIndex()));
+	}
 
-		// load from profile
-		debug("Loading profile config record.");
-		final byte[] profileConfig = loadRecordFromStore(STORE_PROFILE_CONFIG, recordIds[profileIdx]);
-		ByteArrayInputStream bais = new ByteArrayInputStream(profileConfig);
-		DataInputStream dis = new DataInputStream(bais);
-		String base32EncodedSecret = "";
+	/**
+	 * Returns the decoded profile record with given ID. Recently used records
+	 * are taken from the profile cache, other ones are loaded from the
+	 * {@link RecordStore} and cached.
+	 * 
+	 * @param recordId
+	 * @return profile record or <code>null</code> if it can't be parsed
+	 */
+	private ProfileRecord getProfileRecord(final int recordId) {
+		ProfileRecord record = profileCache.getRecord(recordId);
+		if (record == null) {
+			debug("Loading profile config record.");
+			record = parseRecord(loadProfileRecord(recordId));
+			if (record != null) {
+				profileCache.put(recordId, record);
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Shows the token of the only profile before the profile list is loaded.
+	 * The list is loaded after the main screen is painted.
+	 * 
+	 * @return <code>false</code> if there is not exactly one profile record in
+	 *         the current format (the full loading is needed then)
+	 */
+	private boolean showOnlyProfile() {
+		final int recordId;
 		try {
-			tfProfile.setString(dis.readUTF());
-			byte[] key = new byte[dis.readByte()];
-			dis.readFully(key);
-			base32EncodedSecret = base32Encode(key);
-			tfTimeStep.setString(String.valueOf(dis.readInt()));
-			chgHmacAlgorithm.setSelectedIndex(dis.readInt(), true);
-			tfDigits.setString(String.valueOf(dis.readByte()));
-			tfDelta.setString(String.valueOf(dis.readLong()));
+			final int[] recordIds = profileStore.getRecordIds();
+			if (recordIds.length != 1) {
+				return false;
+			}
+			recordId = recordIds[0];
+			final byte[] value = profileStore.getRecord(recordId);
+			if (!ProfileRecord.isCurrentVersion(value)) {
+				return false;
+			}
+			profileCache.put(recordId, new ProfileRecord(value));
 		} catch (Exception e) {
-			e.printStackTrace();
-			debugErr("loading profile configuration - " + e.getClass().getName() + " - " + e.getMessage());
-		} finally {
+			debugErr("showOnlyProfile - " + e.getClass().getName() + " - " + e.getMessage());
+			return false;
+		}
+		showProfile(recordId);
+		Display.getDisplay(this).callSerially(new LoadProfilesTask());
+		return true;
+	}
+
+	/**
+	 * Makes the given profile current and shows its token. If the profile is
+	 * not valid, the options screen is shown instead.
+	 * 
+	 * @param recordId
+	 */
+	private void showProfile(final int recordId) {
+		final boolean valid = selectProfile(recordId);
+		final Profile newProfile = profileCache.getProfile(recordId);
+		if (valid) {
+			showScreen(fMain);
+		} else if (newProfile == null || newProfile.getMac() == null) {
+			showScreen(getOptionsScreen());
+		} else {
+			final Form options = getOptionsScreen();
+			displayAlert("Invalid input:\n" + validateInput(), options);
+		}
+		if (!valid || newProfile.isCounterBased()) {
+			recordStartup();
+		}
+	}
+
+	/**
+	 * Makes the given profile current without changing the displayed screen.
+	 * The options screen is filled with the profile if it was already
+	 * created. The decoded record and the keyed MAC are reused from the
+	 * profile cache if possible.
+	 * 
+	 * @param recordId
+	 * @return <code>true</code> if the profile is valid (its token is shown)
+	 */
+	private boolean selectProfile(final int recordId) {
+		// storing the counter removes the cached record, so the record is read after the release
+		releaseHotpCounter();
+		currentRecordId = recordId;
+		final ProfileRecord record = getProfileRecord(recordId);
+		final Profile newProfile = record != null ? profileCache.getProfile(recordId) : null;
+		final boolean valid = newProfile != null && newProfile.getMac() != null && newProfile.getTimeStep() > 0
+				&& newProfile.getFormatter().isSupportedLength(newProfile.getDigits())
+				&& (!newProfile.isCounterBased() || record.getCounter() >= 0L);
+		setProfile(valid ? newProfile : null);
+		setHotpCounter(valid && newProfile.isCounterBased() ? new HotpCounter(record.getCounter(),
+				HotpCounter.DEFAULT_BLOCK_SIZE, new CounterStorage(recordId)) : null);
+		siProfile.setText(record != null ? record.getName() : DEFAULT_PROFILE);
+		if (fOptions != null) {
+			fillOptions(record);
+		}
+		return valid;
+	}
+
+	/**
+	 * Fills the options screen with values of the given profile record.
+	 * 
+	 * @param record
+	 *            profile record or <code>null</code> if it can't be parsed
+	 */
+	private void fillOptions(final ProfileRecord record) {
+		String base32EncodedSecret = "";
+		if (record != null) {
 			try {
-				dis.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+				tfProfile.setString(record.getName());
+				base32EncodedSecret = Base32.encode(record.getKey());
+				tfTimeStep.setString(String.valueOf(record.getTimeStep()));
+				chgHmacAlgorithm.setSelectedIndex(record.getAlgorithm(), true);
+				tfDigits.setString(String.valueOf(record.getDigits()));
+				tfDelta.setString(String.valueOf(record.getDelta()));
+				chgType.setSelectedIndex(record.getType() == Profile.TYPE_HOTP ? Profile.TYPE_HOTP
+						: Profile.TYPE_TOTP, true);
+				// the counter may be already used from the reserved block
+				tfCounter.setString(String.valueOf(hotpCounter != null ? hotpCounter.getNext() : record
+						.getCounter()));
+				chgFormat.setSelectedIndex(record.getFormat() == TokenFormatter.FORMAT_STEAM
+						? TokenFormatter.FORMAT_STEAM : TokenFormatter.FORMAT_DECIMAL, true);
+			} catch (Exception e) {
+				debugErr("loading profile configuration - " + e.getClass().getName() + " - " + e.getMessage());
 			}
 		}
 		tfSecret.setString(base32EncodedSecret);
-		siProfile.setText(tfProfile.getString());
-		siToken.setText("");
-		int timeStep = -1;
-		try {
-			timeStep = Integer.parseInt(tfTimeStep.getString());
-		} catch (NumberFormatException e) {
-			debugErr(e.getMessage());
+	}
+
+	/**
+	 * Records the time from the MIDlet creation to the first token (or to the
+	 * first screen without a token) and the heap used at that moment.
+	 */
+	private void recordStartup() {
+		if (!startupRecorded) {
+			recordStartupOnce();
 		}
-		gauValidity.setMaxValue((base32EncodedSecret.length() > 0 && timeStep > 1) ? timeStep - 1 : INDEFINITE);
-		if (base32EncodedSecret.length() == 0) {
-			final Display display = Display.getDisplay(this);
-			display.setCurrent(fOptions);
-		} else {
-			// use validation - to check loaded data
-			commandAction(cmdOK, null);
+	}
+
+	private synchronized void recordStartupOnce() {
+		if (!startupRecorded) {
+			startupRecorded = true;
+			metrics.recordDuration(METRIC_STARTUP, System.currentTimeMillis() - createdMillis);
+			metrics.sampleStartupMemory();
 		}
 	}
 
@@ -730,12 +1341,12 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * Loads list of profile names and IDs from the {@link RecordStore}.
 	 */
 	private void loadProfiles() {
-		RecordStore tmpRS = null;
-		recordIds = new int[0];
+		final long start = metrics.start();
+		profileIndex = new ProfileIndex();
 		try {
-			tmpRS = RecordStore.openRecordStore(STORE_PROFILE_CONFIG, true);
-			if (tmpRS.getNumRecords() == 0) {
-				byte[] newRecord = DEFAULT_CONFIG_BYTES;
+			if (profileStore.getNumRecords() == 0) {
+				byte[] newRecord = getProfileConfig(DEFAULT_PROFILE, EMPTY_BYTE_ARRAY, DEFAULT_TIMESTEP,
+						DEFAULT_HMAC_ALG_IDX, DEFAULT_DIGITS, DEFAULT_DELTA);
 
 				// try to load old-style (1.3) configuration
 				byte[] secret = loadRecordFromStore(STORE_KEY_OLD, 1);
@@ -779,34 +1390,57 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 				}
 
 				debug("Adding new configuration record.");
-				tmpRS.addRecord(newRecord, 0, newRecord.length);
+				profileStore.addRecord(newRecord);
 			}
-			// load profile record IDs
-			recordIds = new int[tmpRS.getNumRecords()];
-			RecordEnumeration recEnum = tmpRS.enumerateRecords(null, null, false);
-			int i = 0;
-			while (recEnum.hasNextElement()) {
-				recordIds[i++] = recEnum.nextRecordId();
+			// load profile record IDs and all records at once
+			final int[] recordIds = profileStore.getRecordIds();
+			final byte[][] records = profileStore.getRecords(recordIds);
+			// convert version 1 records (1.4 - 1.8) to the current format
+			for (int i = 0; i < recordIds.length; i++) {
+				if (records[i] != null && !ProfileRecord.isCurrentVersion(records[i])) {
+					debug("Migrating profile record " + recordIds[i]);
+					try {
+						records[i] = ProfileRecord.migrate(records[i]);
+						profileCache.remove(recordIds[i]);
+						profileStore.setRecord(recordIds[i], records[i]);
+					} catch (IllegalArgumentException e) {
+						debugErr("migrating profile record " + recordIds[i] + " - " + e.getMessage());
+						records[i] = null;
+					}
+				}
 			}
 			// load profile names
-			for (i = 0; i < recordIds.length; i++) {
-				final int recordId = recordIds[i];
-				debug("Parsing profile name for record " + recordId);
-				final String profileName = parseProfileName(tmpRS.getRecord(recordId));
+			final ProfileIndex newIndex = new ProfileIndex(recordIds.length);
+			for (int i = 0; i < recordIds.length; i++) {
+				debug("Parsing profile name for record " + recordIds[i]);
+				final String profileName = records[i] != null ? parseProfileName(records[i]) : DEFAULT_PROFILE;
 				debug("Parsed profile name: " + profileName);
-				listProfiles.append(profileName, null);
+				newIndex.append(profileName, recordIds[i]);
 			}
+			debug("Sorting profiles alphabetically.");
+			newIndex.sort();
+			profileIndex = newIndex;
 		} catch (Exception e) {
 			debugErr("loadProfiles - " + e.getClass().getName() + " - " + e.getMessage());
-		} finally {
-			if (tmpRS != null) {
-				try {
-					tmpRS.closeRecordStore();
-				} catch (RecordStoreException e) {
-					debug("loadProfiles (close) - " + e.getClass().getName() + " - " + e.getMessage());
-				}
-			}
 		}
+		profileIndex.fillList(listProfiles);
+		metrics.record(METRIC_LOAD_PROFILES, start);
+		metrics.sampleMemory();
+	}
+
+	/**
+	 * Parses profile record value.
+	 * 
+	 * @param profileBytes
+	 * @return profile record or <code>null</code> if the value is not valid
+	 */
+	private static ProfileRecord parseRecord(byte[] profileBytes) {
+		try {
+			return new ProfileRecord(profileBytes);
+		} catch (IllegalArgumentException e) {
+			debugErr("parseRecord - " + e.getMessage());
+		}
+		return null;
 	}
 
 	/**
@@ -816,41 +1450,79 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * @return profile name
 	 */
 	private String parseProfileName(byte[] profileBytes) {
-		final ByteArrayInputStream bais = new ByteArrayInputStream(profileBytes);
-		final DataInputStream dis = new DataInputStream(bais);
 		try {
-			return dis.readUTF();
-		} catch (IOException e) {
+			return new ProfileRecord(profileBytes).getName();
+		} catch (IllegalArgumentException e) {
 			debugErr(e.getMessage());
-		} finally {
-			try {
-				dis.close();
-			} catch (IOException e) {
-				debugErr(e.getMessage());
-			}
 		}
 		return DEFAULT_PROFILE;
 	}
 
+	/**
+	 * Loads all profiles (in the order of the profile list) from the
+	 * {@link RecordStore}.
+	 * 
+	 * @return profiles
+	 */
+	private Profile[] loadAllProfiles() {
+		final Profile[] profiles = new Profile[profileIndex.size()];
+		try {
+			final byte[][] records = profileStore.getRecords(profileIndex.getRecordIds());
+			for (int i = 0; i < records.length; i++) {
+				if (records[i] != null) {
+					profiles[i] = parseProfile(records[i]);
+				}
+			}
+		} catch (Exception e) {
+			debugErr("loadAllProfiles - " + e.getClass().getName() + " - " + e.getMessage());
+		}
+		for (int i = 0; i < profiles.length; i++) {
+			if (profiles[i] == null) {
+				profiles[i] = new Profile(profileIndex.getName(i), null, DEFAULT_TIMESTEP, DEFAULT_DIGITS,
+						DEFAULT_DELTA);
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * Creates profile snapshot from given profile record value.
+	 * 
+	 * @param profileBytes
+	 * @return profile or <code>null</code> if the record is not valid
+	 */
+	private static Profile parseProfile(byte[] profileBytes) {
+		try {
+			return new ProfileRecord(profileBytes).toProfile();
+		} catch (IllegalArgumentException e) {
+			debugErr("parseProfile - " + e.getClass().getName() + " - " + e.getMessage());
+		}
+		return null;
+	}
+
 	/**
 	 * Saves profile to a record store.
 	 */
 	private void save() {
 		final int profileIdx = listProfiles.getSelectedIndex();
-		final int recordId = recordIds[profileIdx];
+		final int recordId = profileIndex.getRecordId(profileIdx);
 
 		// store configuration of current profile
-		final byte[] configBytes = getProfileConfig(tfProfile.getString(), base32Decode(tfSecret.getString()),
+		final byte[] configBytes = ProfileRecord.create(tfProfile.getString(), Base32.decode(tfSecret.getString()),
 				Integer.parseInt(tfTimeStep.getString()), chgHmacAlgorithm.getSelectedIndex(),
-				Integer.parseInt(tfDigits.getString()), Long.parseLong(tfDelta.getString()));
-		saveRecordToStore(STORE_PROFILE_CONFIG, recordId, configBytes);
-
-		// update also profile name
-		listProfiles.set(profileIdx, tfProfile.getString(), null);
+				Integer.parseInt(tfDigits.getString()), Long.parseLong(tfDelta.getString()), chgType.getSelectedIndex(),
+				Long.parseLong(tfCounter.getString()), chgFormat.getSelectedIndex());
+		saveProfileRecord(recordId, configBytes);
+		setDashboard(null);
+
+		// update also profile name (and its position in the sorted list)
+		final int newIdx = profileIndex.rename(profileIdx, tfProfile.getString());
+		profileIndex.fillList(listProfiles);
+		listProfiles.setSelectedIndex(newIdx, true);
 	}
 
 	/**
-	 * Creates profile record from provided values.
+	 * Creates profile record (see {@link ProfileRecord}) from provided values.
 	 * 
 	 * @param profileName
 	 * @param key
@@ -860,30 +1532,9 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * @param delta
 	 * @return
 	 */
-	private static byte[] getProfileConfig(String profileName, byte[] key, int timeStep, int hmacIdx, int digits,
+	static byte[] getProfileConfig(String profileName, byte[] key, int timeStep, int hmacIdx, int digits,
 			long delta) {
-		if (key == null)
-			key = EMPTY_BYTE_ARRAY;
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		final DataOutputStream dos = new DataOutputStream(baos);
-		try {
-			dos.writeUTF(profileName);
-			dos.writeByte(key.length);
-			dos.write(key);
-			dos.writeInt(timeStep);
-			dos.writeInt(hmacIdx);
-			dos.writeByte(digits);
-			dos.writeLong(delta);
-		} catch (IOException e) {
-			debugErr("Creating configuration failed - " + e.getMessage());
-		} finally {
-			try {
-				dos.close();
-			} catch (IOException e) {
-				debugErr("Creating configuration failed (close)- " + e.getMessage());
-			}
-		}
-		return baos.toByteArray();
+		return ProfileRecord.create(profileName, key, timeStep, hmacIdx, digits, delta);
 	}
 
 	/**
@@ -891,7 +1542,7 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * 
 	 * @param aWhat
 	 */
-	private static void debug(final String aWhat) {
+	static void debug(final String aWhat) {
 		if (DEBUG) {
 			System.out.println(">>>DEBUG " + aWhat);
 		}
@@ -902,7 +1553,7 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * 
 	 * @param aWhat
 	 */
-	private static void debugErr(final String aWhat) {
+	static void debugErr(final String aWhat) {
 		if (DEBUG) {
 			System.err.println(">>>ERROR " + aWhat);
 		}
@@ -921,105 +1572,6 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 		}
 	}
 
-	/**
-	 * Encodes byte array to Base32 String. Returns not-null String.
-	 * 
-	 * @param bytes
-	 *            Bytes to encode.
-	 * @return Encoded byte array <code>bytes</code> as a String.
-	 * 
-	 */
-	private static String base32Encode(final byte[] bytes) {
-		if (bytes == null) {
-			return "";
-		}
-		int i = 0, index = 0, digit = 0, outchars = 0;
-		int currByte, nextByte;
-		StringBuffer base32 = new StringBuffer((bytes.length + 7) * 8 / 5);
-
-		while (i < bytes.length) {
-			currByte = (bytes[i] >= 0) ? bytes[i] : (bytes[i] + 256); // unsign
-
-			// Is the current digit going to span a byte boundary?
-			if (index > 3) {
-				if ((i + 1) < bytes.length) {
-					nextByte = (bytes[i + 1] >= 0) ? bytes[i + 1] : (bytes[i + 1] + 256);
-				} else {
-					nextByte = 0;
-				}
-
-				digit = currByte & (0xFF >> index);
-				index = (index + 5) % 8;
-				digit <<= index;
-				digit |= nextByte >> (8 - index);
-				i++;
-			} else {
-				digit = (currByte >> (8 - (index + 5))) & 0x1F;
-				index = (index + 5) % 8;
-				if (index == 0)
-					i++;
-			}
-			base32.append(BASE32_CHARS.charAt(digit));
-			outchars++;
-			if (outchars % 4 == 0)
-				base32.append(" ");
-		}
-
-		return base32.toString();
-	}
-
-	/**
-	 * Decodes the given Base32 String to a raw byte array.
-	 * 
-	 * @param base32
-	 * @return Decoded <code>base32</code> String as a raw byte array.
-	 */
-	private static byte[] base32Decode(final String aBase32) {
-		if (aBase32 == null || aBase32.length() == 0)
-			return null;
-		final String base32 = aBase32.toUpperCase();
-		int i, index, lookup, offset, digit;
-		byte[] bytes = new byte[base32.length() * 5 / 8];
-
-		for (i = 0, index = 0, offset = 0; i < base32.length(); i++) {
-			lookup = base32.charAt(i) - '0';
-
-			/* Skip chars outside the lookup table */
-			if (lookup < 0 || lookup >= BASE32_LOOKUP.length) {
-				continue;
-			}
-
-			digit = BASE32_LOOKUP[lookup];
-
-			/* If this digit is not in the table, ignore it */
-			if (digit == 0xFF) {
-				continue;
-			}
-
-			if (index <= 3) {
-				index = (index + 5) % 8;
-				if (index == 0) {
-					bytes[offset] |= digit;
-					offset++;
-					if (offset >= bytes.length)
-						break;
-				} else {
-					bytes[offset] |= digit << (8 - index);
-				}
-			} else {
-				index = (index + 5) % 8;
-				bytes[offset] |= (digit >>> index);
-				offset++;
-
-				if (offset >= bytes.length) {
-					break;
-				}
-				bytes[offset] |= digit << (8 - index);
-			}
-		}
-		return bytes;
-	}
-
 	/**
 	 * Convert a byte array to a String with a hexidecimal format.
 	 * 
@@ -1032,7 +1584,7 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * 
 	 * @return the String (with hexidecimal format) form of the byte array
 	 */
-	private static String toHexString(byte[] data, int offset, int length) {
+	static String toHexString(byte[] data, int offset, int length) {
 		if (data == null || data.length == 0)
 			return "";
 
@@ -1052,11 +1604,12 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 	 * @return secret key suitable for selected HMac Algorithm
 	 */
 	private byte[] generateNewKey() {
-		byte[] result = new byte[HMAC_BYTE_COUNT[chgHmacAlgorithm.getSelectedIndex()]];
-		for (int i = 0, len = result.length; i < len;)
-			for (int rnd = rand.nextInt(), n = Math.min(len - i, 4); n-- > 0; rnd >>= 8)
-				result[i++] = (byte) rnd;
-		return result;
+		if (secretGenerator == null) {
+			secretGenerator = new SecretGenerator(SecretGenerator.collectSeed());
+		}
+		// time of the user action adds some entropy
+		secretGenerator.addSeedMaterial(System.currentTimeMillis());
+		return secretGenerator.nextKey(chgHmacAlgorithm.getSelectedIndex());
 	}
 
 	/**
@@ -1079,88 +1632,141 @@ public class TOTPMIDlet extends MIDlet implements CommandListener {
 		return sb.append(strValue).toString();
 	}
 
+	// Embedded classes ------------------------------------------------------
+
 	/**
-	 * Sorts profiles by the name alphabetically. It updates both listProfiles
-	 * and recordIds member variables.
+	 * Chunk of the clock resync search. It schedules itself until the search
+	 * is finished or cancelled.
 	 */
-	private void reorderProfiles() {
-		final int n = listProfiles.size();
-		if (n < 2)
-			return;
-		debug("Sorting profiles alphabetically.");
-		final int selectedIndex = listProfiles.getSelectedIndex();
-		final int selectedRecordId = selectedIndex >= 0 ? recordIds[selectedIndex] : -1;
-		for (int i = n - 1; i > 0; i--) {
-			for (int j = 0; j < i; j++) {
-				final String thisStr = listProfiles.getString(j);
-				final String nextStr = listProfiles.getString(j + 1);
-				if (thisStr.compareTo(nextStr) > 1) {
-					listProfiles.set(j, nextStr, null);
-					listProfiles.set(j + 1, thisStr, null);
-					final int thisId = recordIds[j];
-					recordIds[j] = recordIds[j + 1];
-					recordIds[j + 1] = thisId;
-				}
+	private class ResyncTask implements Runnable {
+
+		private final ClockResync resync;
+
+		ResyncTask(ClockResync resync) {
+			this.resync = resync;
+		}
+
+		public void run() {
+			if (resyncTask != this) {
+				return;
+			}
+			final boolean finished = resync.search(RESYNC_CHUNK);
+			gauResync.setValue(resync.getChecked() * gauResync.getMaxValue() / resync.getCheckCount());
+			if (finished) {
+				finishResync(resync);
+			} else {
+				Display.getDisplay(TOTPMIDlet.this).callSerially(this);
 			}
 		}
-		if (selectedRecordId >= 0) {
-			for (int i = 0; i < recordIds.length; i++) {
-				if (selectedRecordId == recordIds[i]) {
-					listProfiles.setSelectedIndex(i, true);
-					break;
-				}
+	}
+
+	/**
+	 * Writes the counter high-water mark directly to the profile record.
+	 */
+	private class CounterStorage implements HotpCounter.Storage {
+
+		private final int recordId;
+
+		CounterStorage(int recordId) {
+			this.recordId = recordId;
+		}
+
+		public boolean store(long limit) {
+			profileCache.remove(recordId);
+			try {
+				final byte[] value = profileStore.getRecord(recordId);
+				new ProfileRecord(value).setCounter(limit);
+				profileStore.setRecord(recordId, value);
+				return true;
+			} catch (Exception e) {
+				debugErr("CounterStorage.store - " + e.getClass().getName() + " - " + recordId + ": "
+						+ e.getMessage());
 			}
+			return false;
 		}
 	}
 
-	// Embedded classes ------------------------------------------------------
+	/**
+	 * Loads the profile list after the token of the only profile is shown.
+	 */
+	private class LoadProfilesTask implements Runnable {
+
+		public void run() {
+			loadProfiles();
+			if (listProfiles.size() > 0) {
+				listProfiles.setSelectedIndex(0, true);
+			}
+		}
+	}
 
 	/**
-	 * Task for refreshing the token.
+	 * Task for refreshing the token. It renders the token state published by
+	 * the UI thread (see {@link TokenView}) and it's the only writer of the
+	 * token items of the main screen.
+	 * <p>
+	 * The token state and the dashboard are read without locking. Recording
+	 * the metrics and sampling the heap take the {@link Metrics} monitor, which
+	 * the other threads hold only for short updates and copies.
+	 * </p>
+	 * <p>
+	 * The next tick is requested at the beginning of the next second (step
+	 * boundaries are whole seconds too). Without a token and the dashboard
+	 * the task waits for a tick request.
+	 * </p>
 	 */
-	private class RefreshTokenTask extends TimerTask {
+	private class RefreshTokenTask implements TokenScheduler.Task, TokenView.Output {
 
-		public final void run() {
-			int timeStep = -1;
-			try {
-				timeStep = Integer.parseInt(tfTimeStep.getString());
-			} catch (NumberFormatException e) {
-				debugErr(e.getMessage());
+		private boolean nextTokenShown;
+
+		public final long tick(long currentTimeMillis) {
+			final long start = metrics.start();
+			final long currentTimeSec = currentTimeMillis / 1000L;
+			final boolean tokenShown = tokenView.render(currentTimeSec);
+			final Dashboard currentDashboard = getDashboard();
+			if (currentDashboard != null && currentDashboard.isShown()) {
+				currentDashboard.refresh(currentTimeSec);
+			}
+			metrics.record(METRIC_REFRESH, start);
+			metrics.sampleMemory();
+			// the scheduler is suspended when no token screen is displayed
+			return tokenShown || currentDashboard != null ? (currentTimeSec + 1L) * 1000L : TokenScheduler.NO_TICK;
+		}
+
+		public void showToken(String label, String token) {
+			siToken.setLabel(label);
+			siToken.setText(token);
+			if (token.length() > 0) {
+				recordStartup();
 			}
+		}
 
-			int remainSec = -1;
-			if (timeStep > 0) {
-				long delta = DEFAULT_DELTA;
-				try {
-					delta = Long.parseLong(tfDelta.getString());
-				} catch (NumberFormatException e) {
-					debugErr(e.getMessage());
-				}
-				final long currentTimeSec = System.currentTimeMillis() / 1000L + delta;
-				final long newCounter = getCounter(currentTimeSec, timeStep);
-				if (cachedCounter != newCounter) {
-					int digits = -1;
-					try {
-						digits = Integer.parseInt(tfDigits.getString());
-					} catch (NumberFormatException e) {
-						debugErr(e.getMessage());
-					}
-					siToken.setText(genToken(newCounter, getHMac(), digits));
-					cachedCounter = newCounter;
-				}
-				if (timeStep == 1 || "".equals(siToken.getText())) {
-					remainSec = IDLE;
-				} else {
-					remainSec = (int) (timeStep - 1 - currentTimeSec % timeStep);
+		public void showValidity(int maxValue, int value) {
+			if (gauValidity.getMaxValue() != maxValue) {
+				gauValidity.setMaxValue(maxValue);
+			}
+			gauValidity.setValue(value);
+		}
+
+		/**
+		 * Shows the next token item in the main form or removes it from the
+		 * form if the given token is <code>null</code>.
+		 * 
+		 * @param token
+		 */
+		public void showNextToken(String token) {
+			if (token == null) {
+				if (nextTokenShown) {
+					fMain.delete(NEXT_TOKEN_ITEM_IDX);
+					nextTokenShown = false;
 				}
-			} else {
-				remainSec = 0;
-				siToken.setText("");
-				cachedCounter = INVALID_COUNTER;
+				return;
+			}
+			if (!token.equals(siNextToken.getText())) {
+				siNextToken.setText(token);
 			}
-			// set values (and repaint) only if needed
-			if (gauValidity.getValue() != remainSec) {
-				gauValidity.setValue(remainSec);
+			if (!nextTokenShown) {
+				fMain.insert(NEXT_TOKEN_ITEM_IDX, siNextToken);
+				nextTokenShown = true;
 			}
 		}
 	}
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Formats the truncated HOTP value (RFC 4226 section 5.3) to token characters.
+ * Formatters write directly into caller-supplied arrays and they are
+ * stateless, so a single instance can be shared.
+ *
+ * @author Josef Cacek
+ */
+public interface TokenFormatter {
+
+	/**
+	 * Decimal digits (see {@link DecimalFormatter}).
+	 */
+	int FORMAT_DECIMAL = 0;
+
+	/**
+	 * Steam Guard alphabet (see {@link SteamFormatter}).
+	 */
+	int FORMAT_STEAM = 1;
+
+	/**
+	 * Writes the token characters to the given array.
+	 *
+	 * @param binary
+	 *            truncated 31bit value
+	 * @param length
+	 *            number of token characters
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	int format(int binary, int length, char[] out, int off);
+
+	/**
+	 * Writes the token characters as ASCII bytes to the given array.
+	 *
+	 * @param binary
+	 *            truncated 31bit value
+	 * @param length
+	 *            number of token characters
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of bytes written
+	 */
+	int format(int binary, int length, byte[] out, int off);
+
+	/**
+	 * Returns <code>true</code> if tokens of the given length carry only
+	 * meaningful characters.
+	 *
+	 * @param length
+	 *            number of token characters
+	 * @return
+	 */
+	boolean isSupportedLength(int length);
+}
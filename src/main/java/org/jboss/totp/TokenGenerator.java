@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+import org.bouncycastle.crypto.macs.HMac;
+
+/**
+ * Allocation-free HOTP (RFC 4226) token generator. The token is written into
+ * a caller-supplied array by a {@link TokenFormatter} (decimal digits by
+ * default) and all the temporary data (counter message, HMAC value) are kept
+ * in scratch buffers owned by the generator instance.
+ * <p>
+ * Instances are not thread-safe. Use one generator per thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class TokenGenerator {
+
+	/**
+	 * Size of the longest supported HMAC (SHA-512).
+	 */
+	private static final int MAX_MAC_SIZE = 512 / 8;
+
+	/**
+	 * Formatters indexed by <code>TokenFormatter.FORMAT_*</code> values.
+	 */
+	private static final TokenFormatter[] FORMATTERS = { DecimalFormatter.INSTANCE, SteamFormatter.INSTANCE };
+
+	private final byte[] msg = new byte[8];
+	private byte[] hash = new byte[MAX_MAC_SIZE];
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Computes the HMAC of the given counter and returns its dynamically
+	 * truncated value (RFC 4226 section 5.3). It returns -1 if the HMAC is
+	 * <code>null</code>.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param hmac
+	 *            initialized HMAC
+	 * @return non-negative 31bit HOTP value or -1
+	 */
+	public int generate(final long counter, final HMac hmac) {
+		if (hmac == null) {
+			return -1;
+		}
+
+		// generate 8 byte HOTP counter value (RFC 4226)
+		for (int i = 0; i < 8; i++) {
+			msg[7 - i] = (byte) (counter >>> (i * 8));
+		}
+
+		// compute the HMAC
+		final int macSize = hmac.getMacSize();
+		if (hash.length < macSize) {
+			hash = new byte[macSize];
+		}
+		hmac.update(msg, 0, msg.length);
+		hmac.doFinal(hash, 0);
+		return truncate(hash, macSize);
+	}
+
+	/**
+	 * Computes the MAC of the given counter and returns its dynamically
+	 * truncated value (RFC 4226 section 5.3). It returns -1 if the MAC is
+	 * <code>null</code>.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param mac
+	 *            keyed MAC
+	 * @return non-negative 31bit HOTP value or -1
+	 */
+	public int generate(final long counter, final TokenMac mac) {
+		if (mac == null) {
+			return -1;
+		}
+		final int macSize = mac.getMacSize();
+		if (hash.length < macSize) {
+			hash = new byte[macSize];
+		}
+		mac.doFinal(counter, hash, 0);
+		return truncate(hash, macSize);
+	}
+
+	/**
+	 * Generates token for the given counter and writes its digits to the
+	 * <code>out</code> array. Returns number of characters written, i.e.
+	 * <code>digits</code> or 0 if the token can't be generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param hmac
+	 *            initialized HMAC
+	 * @param digits
+	 *            number of token digits
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	public int generate(final long counter, final HMac hmac, final int digits, final char[] out, final int off) {
+		return generate(counter, hmac, DecimalFormatter.INSTANCE, digits, out, off);
+	}
+
+	/**
+	 * Generates token for the given counter and writes it to the
+	 * <code>out</code> array using the given formatter. Returns number of
+	 * characters written, i.e. <code>length</code> or 0 if the token can't be
+	 * generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param hmac
+	 *            initialized HMAC
+	 * @param formatter
+	 *            token formatter
+	 * @param length
+	 *            number of token characters
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	public int generate(final long counter, final HMac hmac, final TokenFormatter formatter, final int length,
+			final char[] out, final int off) {
+		if (hmac == null || length <= 0) {
+			return 0;
+		}
+		return formatter.format(generate(counter, hmac), length, out, off);
+	}
+
+	/**
+	 * Generates token for the given counter and writes its digits to the
+	 * <code>out</code> array. Returns number of characters written, i.e.
+	 * <code>digits</code> or 0 if the token can't be generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param mac
+	 *            keyed MAC
+	 * @param digits
+	 *            number of token digits
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	public int generate(final long counter, final TokenMac mac, final int digits, final char[] out, final int off) {
+		return generate(counter, mac, DecimalFormatter.INSTANCE, digits, out, off);
+	}
+
+	/**
+	 * Generates token for the given counter and writes it to the
+	 * <code>out</code> array using the given formatter. Returns number of
+	 * characters written, i.e. <code>length</code> or 0 if the token can't be
+	 * generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param mac
+	 *            keyed MAC
+	 * @param formatter
+	 *            token formatter
+	 * @param length
+	 *            number of token characters
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	public int generate(final long counter, final TokenMac mac, final TokenFormatter formatter, final int length,
+			final char[] out, final int off) {
+		if (mac == null || length <= 0) {
+			return 0;
+		}
+		return formatter.format(generate(counter, mac), length, out, off);
+	}
+
+	/**
+	 * Generates token of the given profile for the given counter and writes it
+	 * to the <code>out</code> array using the profile's formatter. Returns
+	 * number of characters written, i.e. the profile's token length or 0 if
+	 * the token can't be generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param profile
+	 *            profile with the keyed MAC, formatter and token length
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of characters written
+	 */
+	public int generate(final long counter, final Profile profile, final char[] out, final int off) {
+		return generate(counter, profile.getMac(), profile.getFormatter(), profile.getDigits(), out, off);
+	}
+
+	/**
+	 * Generates token for the given counter and writes its digits as ASCII
+	 * bytes to the <code>out</code> array. Returns number of bytes written,
+	 * i.e. <code>digits</code> or 0 if the token can't be generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param hmac
+	 *            initialized HMAC
+	 * @param digits
+	 *            number of token digits
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of bytes written
+	 */
+	public int generate(final long counter, final HMac hmac, final int digits, final byte[] out, final int off) {
+		if (hmac == null || digits <= 0) {
+			return 0;
+		}
+		return DecimalFormatter.INSTANCE.format(generate(counter, hmac), digits, out, off);
+	}
+
+	/**
+	 * Generates token for the given counter and writes its digits as ASCII
+	 * bytes to the <code>out</code> array. Returns number of bytes written,
+	 * i.e. <code>digits</code> or 0 if the token can't be generated.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param mac
+	 *            keyed MAC
+	 * @param digits
+	 *            number of token digits
+	 * @param out
+	 *            output array
+	 * @param off
+	 *            offset in the output array
+	 * @return number of bytes written
+	 */
+	public int generate(final long counter, final TokenMac mac, final int digits, final byte[] out, final int off) {
+		if (mac == null || digits <= 0) {
+			return 0;
+		}
+		return DecimalFormatter.INSTANCE.format(generate(counter, mac), digits, out, off);
+	}
+
+	/**
+	 * Dynamic truncation of the HMAC value (RFC 4226 section 5.3).
+	 *
+	 * @param hash
+	 *            HMAC value
+	 * @param len
+	 *            HMAC length
+	 * @return non-negative 31bit value
+	 */
+	public static int truncate(final byte[] hash, final int len) {
+		final int off = hash[len - 1] & 0xF;
+		return ((hash[off] & 0x7f) << 24) | ((hash[off + 1] & 0xff) << 16) | ((hash[off + 2] & 0xff) << 8)
+				| ((hash[off + 3] & 0xff));
+	}
+
+	/**
+	 * Returns the token of the given length as an integer (the truncated value
+	 * modulo 10^digits). Tokens can be compared this way without creating
+	 * strings.
+	 *
+	 * @param binary
+	 *            truncated 31bit value
+	 * @param digits
+	 *            number of token digits
+	 * @return token value
+	 */
+	public static int toCode(final int binary, final int digits) {
+		return DecimalFormatter.toCode(binary, digits);
+	}
+
+	/**
+	 * Returns the formatter for the given format.
+	 *
+	 * @param format
+	 *            format index (see <code>TokenFormatter.FORMAT_*</code>)
+	 * @return formatter (the decimal one for unknown formats)
+	 */
+	public static TokenFormatter getFormatter(final int format) {
+		return format >= 0 && format < FORMATTERS.length ? FORMATTERS[format] : DecimalFormatter.INSTANCE;
+	}
+}
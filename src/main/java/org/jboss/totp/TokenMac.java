@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * HMAC of 8 byte HOTP counter messages keyed with a fixed secret. Use
+ * {@link KeyedMac#create(int, byte[])} to get the fastest implementation for
+ * an algorithm.
+ * <p>
+ * Implementations are not thread-safe. Use one instance per thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public interface TokenMac {
+
+	/**
+	 * Computes HMAC of the 8 byte big-endian counter value (RFC 4226) and
+	 * writes it to the <code>out</code> array.
+	 *
+	 * @param counter
+	 *            HOTP counter
+	 * @param out
+	 *            output array
+	 * @param outOff
+	 *            offset in the output array
+	 * @return number of bytes written (MAC size)
+	 */
+	int doFinal(long counter, byte[] out, int outOff);
+
+	/**
+	 * Returns MAC size in bytes.
+	 *
+	 * @return MAC size
+	 */
+	int getMacSize();
+
+	/**
+	 * Returns algorithm index.
+	 *
+	 * @return one of the <code>KeyedMac.ALG_*</code> constants
+	 */
+	int getAlgorithm();
+
+	/**
+	 * Returns true if this MAC uses the given algorithm and key, i.e. it can
+	 * be reused instead of creating a new one.
+	 *
+	 * @param algorithm
+	 * @param key
+	 * @return
+	 */
+	boolean isKeyedWith(int algorithm, byte[] key);
+}
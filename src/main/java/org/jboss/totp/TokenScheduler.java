@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Scheduler of the token refreshing. It runs a task in its own thread at the
+ * times requested by the task itself (e.g. at the next whole second), so the
+ * ticks stay aligned to the wall clock and a late wake-up doesn't accumulate.
+ * While the scheduler is inactive (application paused, tokens not shown) the
+ * thread waits without any timeout and activating it runs an immediate
+ * catch-up tick.
+ * <p>
+ * A single wait never exceeds {@link #MAX_WAIT_MILLIS}. When the device clock
+ * is set back, the tick time requested before the change lies far in the
+ * future - it's shortened to one period, so the token freezes for at most one
+ * tick and the task then computes a new tick time from the corrected clock.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+class TokenScheduler implements Runnable {
+
+	/**
+	 * Value returned by {@link Task#tick(long)} if no further tick is needed
+	 * until {@link TokenScheduler#requestTick()} is called.
+	 */
+	static final long NO_TICK = 0L;
+
+	/**
+	 * Maximal time between ticks (the refreshing period) in milliseconds.
+	 */
+	static final long MAX_WAIT_MILLIS = 1000L;
+
+	private final Task task;
+
+	private Thread thread;
+	private boolean active;
+	private boolean stopped;
+	private boolean tickRequested = true;
+	private long nextTickTime = NO_TICK;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param task
+	 *            task called in the scheduler thread
+	 */
+	TokenScheduler(Task task) {
+		this.task = task;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Starts the scheduler thread (if not started yet).
+	 */
+	public synchronized void start() {
+		if (thread == null && !stopped) {
+			thread = new Thread(this);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the scheduler thread. The scheduler can't be started again.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		notify();
+	}
+
+	/**
+	 * Activates or suspends ticking. Activation runs an immediate tick.
+	 *
+	 * @param active
+	 */
+	public synchronized void setActive(boolean active) {
+		if (active && !this.active) {
+			tickRequested = true;
+		}
+		this.active = active;
+		notify();
+	}
+
+	/**
+	 * Requests an immediate tick (e.g. when the profile has changed). If the
+	 * scheduler is inactive the tick is postponed to its activation.
+	 */
+	public synchronized void requestTick() {
+		tickRequested = true;
+		notify();
+	}
+
+	/**
+	 * Scheduler thread loop.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (waitForTick()) {
+			long next;
+			try {
+				next = task.tick(System.currentTimeMillis());
+			} catch (RuntimeException e) {
+				TOTPMIDlet.debugErr("Token refresh failed - " + e.getMessage());
+				next = NO_TICK;
+			}
+			synchronized (this) {
+				nextTickTime = next;
+			}
+		}
+	}
+
+	// Private methods -------------------------------------------------------
+
+	/**
+	 * Blocks until the next tick time. The remaining time is recomputed after
+	 * every wake-up, so a premature wake-up doesn't trigger the tick.
+	 *
+	 * @return <code>false</code> if the scheduler was stopped
+	 */
+	private synchronized boolean waitForTick() {
+		while (!stopped) {
+			if (active) {
+				if (tickRequested) {
+					tickRequested = false;
+					return true;
+				}
+				if (nextTickTime != NO_TICK) {
+					final long now = System.currentTimeMillis();
+					final long remaining = nextTickTime - now;
+					if (remaining <= 0L) {
+						return true;
+					}
+					if (remaining > MAX_WAIT_MILLIS) {
+						// the clock was set back after the tick time was computed
+						nextTickTime = now + MAX_WAIT_MILLIS;
+					}
+					waitFor(Math.min(remaining, MAX_WAIT_MILLIS));
+					continue;
+				}
+			}
+			waitFor(0L);
+		}
+		return false;
+	}
+
+	private void waitFor(long millis) {
+		try {
+			wait(millis);
+		} catch (InterruptedException e) {
+			TOTPMIDlet.debugErr("Token scheduler interrupted");
+		}
+	}
+
+	// Embedded classes ------------------------------------------------------
+
+	/**
+	 * Task run by the scheduler.
+	 */
+	interface Task {
+
+		/**
+		 * Runs the task.
+		 *
+		 * @param currentTimeMillis
+		 *            current time in milliseconds
+		 * @return time (in milliseconds) of the next tick or
+		 *         {@link TokenScheduler#NO_TICK}; ticks are run at least
+		 *         every {@link TokenScheduler#MAX_WAIT_MILLIS}
+		 */
+		long tick(long currentTimeMillis);
+	}
+}
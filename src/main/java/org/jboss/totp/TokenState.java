@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Immutable state of the main screen token - the current profile and what is
+ * displayed with it. A new state is created for every change and published by
+ * a single reference swap (see {@link TokenView#setState(TokenState)}), so the
+ * refreshing thread always reads a consistent snapshot without locking.
+ *
+ * @author Josef Cacek
+ */
+final class TokenState {
+
+	/**
+	 * State without a profile.
+	 */
+	static final TokenState EMPTY = new TokenState(null, false, -1L, null);
+
+	private final Profile profile;
+	private final boolean nextTokenEnabled;
+	private final long hotpCounter;
+	private final String hotpToken;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param profile
+	 *            current profile or <code>null</code>
+	 * @param nextTokenEnabled
+	 *            flag which controls displaying of the next token
+	 * @param hotpCounter
+	 *            counter of the displayed counter-based token or -1
+	 * @param hotpToken
+	 *            displayed counter-based token or <code>null</code>
+	 */
+	TokenState(Profile profile, boolean nextTokenEnabled, long hotpCounter, String hotpToken) {
+		this.profile = profile;
+		this.nextTokenEnabled = nextTokenEnabled;
+		this.hotpCounter = hotpCounter;
+		this.hotpToken = hotpToken;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns new state with the given profile. No counter-based token is
+	 * displayed in the new state.
+	 *
+	 * @param newProfile
+	 * @return
+	 */
+	public TokenState withProfile(Profile newProfile) {
+		return new TokenState(newProfile, nextTokenEnabled, -1L, null);
+	}
+
+	/**
+	 * Returns new state with the given next token flag.
+	 *
+	 * @param enabled
+	 * @return
+	 */
+	public TokenState withNextTokenEnabled(boolean enabled) {
+		return new TokenState(profile, enabled, hotpCounter, hotpToken);
+	}
+
+	/**
+	 * Returns new state displaying the given counter-based token.
+	 *
+	 * @param counter
+	 * @param token
+	 * @return
+	 */
+	public TokenState withHotpToken(long counter, String token) {
+		return new TokenState(profile, nextTokenEnabled, counter, token);
+	}
+
+	public Profile getProfile() {
+		return profile;
+	}
+
+	public boolean isNextTokenEnabled() {
+		return nextTokenEnabled;
+	}
+
+	public long getHotpCounter() {
+		return hotpCounter;
+	}
+
+	public String getHotpToken() {
+		return hotpToken;
+	}
+}
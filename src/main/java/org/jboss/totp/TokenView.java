@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * Renders the main screen token of the current {@link TokenState}. The state
+ * is written only by the UI thread and published through a single volatile
+ * reference; {@link #render(long)} is called only by the refreshing thread,
+ * which reads the reference once per tick and is the only writer of the token
+ * items (through the {@link Output}). A change of the state is detected by the
+ * reference identity, so a swap done during a tick is never lost - it's
+ * rendered in the next tick. Only the state is read without locking, token
+ * computations are recorded to the {@link Metrics} registry, which is
+ * synchronized.
+ * <p>
+ * The token of the next counter is computed in a tick within the current time
+ * step, so the token change on the step boundary is only a reference swap.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+class TokenView {
+
+	/**
+	 * Maximal value of the validity gauge if no time-based token is shown.
+	 */
+	static final int NO_VALIDITY_MAX = 1;
+
+	/**
+	 * Label of the token without a counter.
+	 */
+	static final String TOKEN_LABEL = "Token";
+
+	// the next token is displayed when the current one expires in less seconds
+	private static final int NEXT_TOKEN_SECONDS = 10;
+	private static final long INVALID_COUNTER = -1L;
+
+	private final Output output;
+	private final Metrics metrics;
+	private final int tokenMetric;
+	private final TokenGenerator tokenGenerator = new TokenGenerator();
+	private final char[] tokenChars = new char[DecimalFormatter.MAX_LENGTH];
+
+	private volatile TokenState state = TokenState.EMPTY;
+
+	// confined to the refreshing thread
+	private TokenState renderedState;
+	private long renderedCounter = INVALID_COUNTER;
+	private int renderedMaxValue = -1;
+	private int renderedValue = -1;
+	private Profile nextProfile;
+	private long nextCounter = INVALID_COUNTER;
+	private String nextToken;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param output
+	 *            token items
+	 * @param metrics
+	 *            registry for token computation durations
+	 * @param tokenMetric
+	 *            metric index of the token computation
+	 */
+	TokenView(Output output, Metrics metrics, int tokenMetric) {
+		this.output = output;
+		this.metrics = metrics;
+		this.tokenMetric = tokenMetric;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Returns the current state.
+	 *
+	 * @return
+	 */
+	public TokenState getState() {
+		return state;
+	}
+
+	/**
+	 * Publishes a new state. It has to be called from a single (UI) thread.
+	 *
+	 * @param newState
+	 */
+	public void setState(TokenState newState) {
+		state = newState;
+	}
+
+	/**
+	 * Renders the current state - the token is regenerated only if the state
+	 * or the counter changed. Called from the refreshing thread only.
+	 *
+	 * @param currentTimeSec
+	 *            current time in seconds (without delta)
+	 * @return <code>true</code> if a time-based token is shown (i.e. the view
+	 *         should be rendered again in the next second)
+	 */
+	public boolean render(long currentTimeSec) {
+		final TokenState current = state;
+		final Profile profile = current.getProfile();
+		final boolean changed = current != renderedState;
+		int maxValue = NO_VALIDITY_MAX;
+		int value = 0;
+		String upcomingToken = null;
+		if (isTimeBased(profile)) {
+			final long counter = profile.getCounter(currentTimeSec);
+			if (changed || counter != renderedCounter) {
+				output.showToken(TOKEN_LABEL, isPrefetched(profile, counter) ? nextToken : generateToken(profile,
+						counter));
+				renderedCounter = counter;
+			} else if (!isPrefetched(profile, counter + 1)) {
+				nextToken = generateToken(profile, counter + 1);
+				nextCounter = counter + 1;
+				nextProfile = profile;
+			}
+			if (profile.getTimeStep() > 1) {
+				maxValue = profile.getTimeStep() - 1;
+				value = profile.getRemainingSeconds(currentTimeSec);
+				if (current.isNextTokenEnabled() && value < NEXT_TOKEN_SECONDS
+						&& isPrefetched(profile, counter + 1)) {
+					upcomingToken = nextToken;
+				}
+			}
+		} else {
+			if (changed) {
+				final long hotpCounter = current.getHotpCounter();
+				final String hotpToken = current.getHotpToken();
+				output.showToken(hotpCounter >= 0L ? TOKEN_LABEL + " #" + hotpCounter : TOKEN_LABEL,
+						hotpToken != null ? hotpToken : "");
+			}
+			renderedCounter = INVALID_COUNTER;
+		}
+		// set values (and repaint) only if needed
+		if (renderedMaxValue != maxValue || renderedValue != value) {
+			output.showValidity(maxValue, value);
+			renderedMaxValue = maxValue;
+			renderedValue = value;
+		}
+		output.showNextToken(upcomingToken);
+		renderedState = current;
+		return renderedCounter != INVALID_COUNTER;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private static boolean isTimeBased(Profile profile) {
+		return profile != null && profile.getMac() != null && profile.getTimeStep() > 0
+				&& !profile.isCounterBased();
+	}
+
+	private boolean isPrefetched(Profile profile, long counter) {
+		return nextProfile == profile && nextCounter == counter;
+	}
+
+	private String generateToken(Profile profile, long counter) {
+		final long start = metrics.start();
+		final int len = tokenGenerator.generate(counter, profile, tokenChars, 0);
+		metrics.record(tokenMetric, start);
+		return new String(tokenChars, 0, len);
+	}
+
+	// Embedded classes ------------------------------------------------------
+
+	/**
+	 * Items displaying the token. Methods are called from the refreshing
+	 * thread.
+	 */
+	interface Output {
+
+		/**
+		 * Shows the token.
+		 *
+		 * @param label
+		 * @param token
+		 *            token or an empty String
+		 */
+		void showToken(String label, String token);
+
+		/**
+		 * Shows the remaining validity of the token.
+		 *
+		 * @param maxValue
+		 * @param value
+		 */
+		void showValidity(int maxValue, int value);
+
+		/**
+		 * Shows the next token or hides it if the token is <code>null</code>.
+		 *
+		 * @param token
+		 */
+		void showNextToken(String token);
+	}
+}
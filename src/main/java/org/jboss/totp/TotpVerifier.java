@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.totp;
+
+/**
+ * TOTP (RFC 6238) code verifier. It checks a submitted code against tokens of
+ * counters in a configurable window around the current one. The closest
+ * counters are tried first (0, -1, +1, -2, +2, ...) and the codes are compared
+ * as integers, so a verification doesn't allocate any memory.
+ * <p>
+ * Instances are not thread-safe. Use one verifier per thread.
+ * </p>
+ *
+ * @author Josef Cacek
+ */
+public class TotpVerifier {
+
+	/**
+	 * Value returned by the verify methods if the code doesn't match any
+	 * counter in the window.
+	 */
+	public static final int NO_MATCH = Integer.MIN_VALUE;
+
+	private final TokenMac mac;
+	private final TokenGenerator generator = new TokenGenerator();
+	private final int digits;
+	private final int timeStep;
+	private final long delta;
+	private final int lookBack;
+	private final int lookAhead;
+
+	// Constructors ----------------------------------------------------------
+
+	/**
+	 * Creates verifier.
+	 *
+	 * @param secret
+	 *            secret key
+	 * @param algorithm
+	 *            HMAC algorithm index (see <code>KeyedMac.ALG_*</code>)
+	 * @param digits
+	 *            number of token digits
+	 * @param timeStep
+	 *            time step in seconds
+	 * @param delta
+	 *            time correction in seconds
+	 * @param lookBack
+	 *            number of past counters accepted
+	 * @param lookAhead
+	 *            number of future counters accepted
+	 * @throws IllegalArgumentException
+	 *             if a parameter is out of range
+	 */
+	public TotpVerifier(final byte[] secret, final int algorithm, final int digits, final int timeStep,
+			final long delta, final int lookBack, final int lookAhead) {
+		if (secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("Secret key is empty.");
+		}
+		if (digits <= 0 || timeStep <= 0 || lookBack < 0 || lookAhead < 0) {
+			throw new IllegalArgumentException(
+					"Digits and time step must be positive, window sizes must not be negative.");
+		}
+		this.mac = KeyedMac.create(algorithm, secret);
+		this.digits = digits;
+		this.timeStep = timeStep;
+		this.delta = delta;
+		this.lookBack = lookBack;
+		this.lookAhead = lookAhead;
+	}
+
+	// Public methods --------------------------------------------------------
+
+	/**
+	 * Verifies the code at the given time.
+	 *
+	 * @param code
+	 *            submitted code as an integer
+	 * @param timeInSec
+	 *            verification time (seconds since the epoch, without delta)
+	 * @return offset of the matching counter (negative for past counters) or
+	 *         {@link #NO_MATCH}
+	 */
+	public int verify(final int code, final long timeInSec) {
+		if (code < 0) {
+			return NO_MATCH;
+		}
+		final long counter = getCounter(timeInSec);
+		final int maxOffset = Math.max(lookBack, lookAhead);
+		for (int i = 0; i <= maxOffset; i++) {
+			if (i <= lookBack && matches(code, counter - i)) {
+				return -i;
+			}
+			if (i > 0 && i <= lookAhead && matches(code, counter + i)) {
+				return i;
+			}
+		}
+		return NO_MATCH;
+	}
+
+	/**
+	 * Verifies the code at the given time. The code has to have exactly the
+	 * configured number of digits.
+	 *
+	 * @param code
+	 *            submitted code
+	 * @param timeInSec
+	 *            verification time (seconds since the epoch, without delta)
+	 * @return offset of the matching counter (negative for past counters) or
+	 *         {@link #NO_MATCH}
+	 */
+	public int verify(final String code, final long timeInSec) {
+		final int value = parseCode(code, digits);
+		return value < 0 ? NO_MATCH : verify(value, timeInSec);
+	}
+
+	/**
+	 * Parses the code with exactly the given number of digits to an integer
+	 * comparable with {@link TokenGenerator#toCode(int, int)} results.
+	 *
+	 * @param code
+	 *            code
+	 * @param digits
+	 *            number of digits
+	 * @return code value or -1 if the code is not valid
+	 */
+	public static int parseCode(final String code, final int digits) {
+		if (code == null || code.length() != digits) {
+			return -1;
+		}
+		long value = 0L;
+		for (int i = 0; i < digits; i++) {
+			final char ch = code.charAt(i);
+			if (ch < '0' || ch > '9') {
+				return -1;
+			}
+			value = value * 10 + (ch - '0');
+			if (value > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Returns counter for the given time (delta is applied).
+	 *
+	 * @param timeInSec
+	 *            seconds since the epoch
+	 * @return counter
+	 */
+	public long getCounter(final long timeInSec) {
+		return (timeInSec + delta) / timeStep;
+	}
+
+	// Private methods -------------------------------------------------------
+
+	private boolean matches(final int code, final long counter) {
+		return TokenGenerator.toCode(generator.generate(counter, mac), digits) == code;
+	}
+}
@@ -0,0 +1,164 @@
+package org.jboss.totp;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link Base32} codec. The results are compared with the
+ * bit-by-bit implementation used by the TOTP ME 1.8 (copied below).
+ *
+ * @author Josef Cacek
+ */
+public class Base32Test extends TestCase {
+
+	private static final String BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+	private static final int[] BASE32_LOOKUP = { 0xFF, 0xFF, 0x1A, 0x1B, 0x1C, 0x1D, 0x1E, 0x1F, 0xFF, 0xFF, 0xFF,
+			0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B,
+			0x0C, 0x0D, 0x0E, 0x0F, 0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18, 0x19, 0xFF, 0xFF, 0xFF, 0xFF,
+			0xFF, 0xFF, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F,
+			0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18, 0x19, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF };
+
+	public void testRfc4648Vectors() {
+		assertEquals("", Base32.encode(new byte[0]));
+		assertEquals("MY", Base32.encode("f".getBytes()));
+		assertEquals("MZXQ ", Base32.encode("fo".getBytes()));
+		assertEquals("MZXW 6", Base32.encode("foo".getBytes()));
+		assertEquals("MZXW 6YQ", Base32.encode("foob".getBytes()));
+		assertEquals("MZXW 6YTB ", Base32.encode("fooba".getBytes()));
+		assertEquals("MZXW 6YTB OI", Base32.encode("foobar".getBytes()));
+		assertEquals("foobar", new String(Base32.decode("mzxw6ytboi")));
+		assertEquals("", Base32.encode(null));
+		assertNull(Base32.decode((String) null));
+		assertNull(Base32.decode(""));
+	}
+
+	public void testCompatibleWithLegacyCodec() {
+		final Random random = new Random(2013L);
+		for (int len = 0; len < 70; len++) {
+			final byte[] data = new byte[len];
+			for (int i = 0; i < len; i++) {
+				data[i] = (byte) random.nextInt();
+			}
+			final String encoded = legacyEncode(data);
+			assertEquals(encoded, Base32.encode(data));
+
+			final char[] chars = new char[Base32.encodedLength(len) + 3];
+			assertEquals(encoded.length(), Base32.encode(data, 0, len, chars, 3));
+			assertEquals(encoded, new String(chars, 3, encoded.length()));
+
+			// the legacy decoder doesn't ignore spaces when computing the output size
+			final String compact = removeSpaces(encoded);
+			final char[] compactChars = new char[Base32.encodedLength(len, false)];
+			assertEquals(compact.length(), compactChars.length);
+			assertEquals(compact.length(), Base32.encode(data, 0, len, compactChars, 0, false));
+			assertEquals(compact, new String(compactChars));
+			if (compact.length() > 0) {
+				assertEqualBytes(legacyDecode(compact), Base32.decode(compact));
+				assertEqualBytes(legacyDecode(compact.toLowerCase()), Base32.decode(encoded.toLowerCase()));
+			}
+			final byte[] decoded = new byte[len + 2];
+			assertEquals(len, Base32.decode(encoded, decoded, 2));
+			for (int i = 0; i < len; i++) {
+				assertEquals(data[i], decoded[i + 2]);
+			}
+			assertEquals(len, Base32.decode(chars, 3, encoded.length(), decoded, 1));
+			for (int i = 0; i < len; i++) {
+				assertEquals(data[i], decoded[i + 1]);
+			}
+		}
+	}
+
+	public void testDecodeSkipsInvalidCharacters() {
+		assertEquals("foobar", new String(Base32.decode("MZ-XW 6Y\nTB0O1I!")));
+		assertEquals(6, Base32.decodedLength("MZXW 6YTB OI"));
+		assertEquals(0, Base32.decode(" ").length);
+	}
+
+	private static String removeSpaces(String str) {
+		final StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < str.length(); i++) {
+			if (str.charAt(i) != ' ') {
+				sb.append(str.charAt(i));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void assertEqualBytes(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i]);
+		}
+	}
+
+	private static String legacyEncode(final byte[] bytes) {
+		int i = 0, index = 0, digit = 0, outchars = 0;
+		int currByte, nextByte;
+		StringBuffer base32 = new StringBuffer((bytes.length + 7) * 8 / 5);
+
+		while (i < bytes.length) {
+			currByte = (bytes[i] >= 0) ? bytes[i] : (bytes[i] + 256);
+			if (index > 3) {
+				if ((i + 1) < bytes.length) {
+					nextByte = (bytes[i + 1] >= 0) ? bytes[i + 1] : (bytes[i + 1] + 256);
+				} else {
+					nextByte = 0;
+				}
+				digit = currByte & (0xFF >> index);
+				index = (index + 5) % 8;
+				digit <<= index;
+				digit |= nextByte >> (8 - index);
+				i++;
+			} else {
+				digit = (currByte >> (8 - (index + 5))) & 0x1F;
+				index = (index + 5) % 8;
+				if (index == 0)
+					i++;
+			}
+			base32.append(BASE32_CHARS.charAt(digit));
+			outchars++;
+			if (outchars % 4 == 0)
+				base32.append(" ");
+		}
+		return base32.toString();
+	}
+
+	private static byte[] legacyDecode(final String aBase32) {
+		final String base32 = aBase32.toUpperCase();
+		int i, index, lookup, offset, digit;
+		byte[] bytes = new byte[base32.length() * 5 / 8];
+
+		for (i = 0, index = 0, offset = 0; i < base32.length(); i++) {
+			lookup = base32.charAt(i) - '0';
+			if (lookup < 0 || lookup >= BASE32_LOOKUP.length) {
+				continue;
+			}
+			digit = BASE32_LOOKUP[lookup];
+			if (digit == 0xFF) {
+				continue;
+			}
+			if (index <= 3) {
+				index = (index + 5) % 8;
+				if (index == 0) {
+					bytes[offset] |= digit;
+					offset++;
+					if (offset >= bytes.length)
+						break;
+				} else {
+					bytes[offset] |= digit << (8 - index);
+				}
+			} else {
+				index = (index + 5) % 8;
+				bytes[offset] |= (digit >>> index);
+				offset++;
+				if (offset >= bytes.length) {
+					break;
+				}
+				bytes[offset] |= digit << (8 - index);
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,53 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link ClockResync}.
+ *
+ * @author Josef Cacek
+ */
+public class ClockResyncTest extends TestCase {
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+
+	private static final int DAY_STEPS = 24 * 60 * 2;
+
+	public void testFindDelta() {
+		final KeyedMac mac = new KeyedMac(KeyedMac.ALG_SHA1, seed20);
+		// reference time 1111111111 (counter 37037037), device is ~5 hours behind
+		final long deviceTime = 1111111111L - 5 * 3600L - 7L;
+		final ClockResync resync = new ClockResync(mac, 8, 30, 7081804, 14050471, deviceTime, DAY_STEPS);
+		int calls = 0;
+		while (!resync.search(64)) {
+			calls++;
+		}
+		assertTrue(resync.isFound());
+		assertTrue(calls > 1);
+		final long delta = resync.getDelta();
+		assertEquals(37037037L, new Profile("test", mac, 30, 8, delta).getCounter(deviceTime));
+		// counter offset +601 is the 1203rd checked one
+		assertEquals(2 * 601 + 1, resync.getChecked());
+	}
+
+	public void testAheadAndNotFound() {
+		final KeyedMac mac = new KeyedMac(KeyedMac.ALG_SHA1, seed20);
+		final int previous = TotpVerifier.parseCode(TOTPMIDlet.genToken(99L, mac, 6), 6);
+		final int current = TotpVerifier.parseCode(TOTPMIDlet.genToken(100L, mac, 6), 6);
+		ClockResync resync = new ClockResync(mac, 6, 30, previous, current, 103 * 30L, 10);
+		assertTrue(resync.search(Integer.MAX_VALUE));
+		assertEquals(-90L, resync.getDelta());
+
+		// swapped codes
+		resync = new ClockResync(mac, 6, 30, current, previous, 103 * 30L, 10);
+		assertTrue(resync.search(Integer.MAX_VALUE));
+		assertFalse(resync.isFound());
+		assertEquals(21, resync.getChecked());
+		try {
+			resync.getDelta();
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException e) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link HotpCounter}.
+ *
+ * @author Josef Cacek
+ */
+public class HotpCounterTest extends TestCase {
+
+	public void testBlockReservation() {
+		final MemoryStorage storage = new MemoryStorage(5L);
+		final HotpCounter counter = new HotpCounter(storage.value, 10, storage);
+		for (long i = 5L; i < 25L; i++) {
+			assertEquals(i, counter.next());
+		}
+		// only the high-water marks of 2 blocks were written
+		assertEquals(2, storage.writes);
+		assertEquals(25L, storage.value);
+		assertEquals(25L, counter.getLimit());
+		assertEquals(25L, counter.next());
+		assertEquals(3, storage.writes);
+		assertEquals(35L, storage.value);
+	}
+
+	public void testCrashRecovery() {
+		final MemoryStorage storage = new MemoryStorage(0L);
+		HotpCounter counter = new HotpCounter(storage.value, 10, storage);
+		assertEquals(0L, counter.next());
+		assertEquals(1L, counter.next());
+		// no release - the restarted counter skips the rest of the block
+		counter = new HotpCounter(storage.value, 10, storage);
+		assertEquals(10L, counter.next());
+	}
+
+	public void testRelease() {
+		final MemoryStorage storage = new MemoryStorage(0L);
+		HotpCounter counter = new HotpCounter(storage.value, 10, storage);
+		assertEquals(0L, counter.next());
+		assertEquals(1L, counter.next());
+		counter.release();
+		assertEquals(2L, storage.value);
+		counter.release();
+		assertEquals(2, storage.writes);
+		counter = new HotpCounter(storage.value, 10, storage);
+		assertEquals(2L, counter.next());
+	}
+
+	public void testStorageFailure() {
+		final MemoryStorage storage = new MemoryStorage(7L);
+		final HotpCounter counter = new HotpCounter(storage.value, 10, storage);
+		storage.failing = true;
+		assertEquals(-1L, counter.next());
+		assertEquals(7L, counter.getNext());
+		storage.failing = false;
+		assertEquals(7L, counter.next());
+		assertEquals(17L, storage.value);
+	}
+
+	public void testInvalidParameters() {
+		try {
+			new HotpCounter(-1L, 10, new MemoryStorage(0L));
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new HotpCounter(0L, 0, new MemoryStorage(0L));
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	/**
+	 * Storage keeping the value in memory.
+	 */
+	private static class MemoryStorage implements HotpCounter.Storage {
+
+		long value;
+		int writes;
+		boolean failing;
+
+		MemoryStorage(long value) {
+			this.value = value;
+		}
+
+		public boolean store(long limit) {
+			if (failing) {
+				return false;
+			}
+			value = limit;
+			writes++;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * JUnit test for the {@link KeyedMac}. It compares the results with the Bouncy
+ * Castle {@link HMac}.
+ *
+ * @author Josef Cacek
+ */
+public class KeyedMacTest extends TestCase {
+
+	// shorter than, equal to and longer than digest block sizes (64 and 128)
+	private static final int[] KEY_LENGTHS = { 1, 20, 32, 64, 100, 128, 200 };
+	private static final long[] COUNTERS = { 0L, 1L, 37037036L, 0x7FFFFFFFFFFFFFFFL, -1L };
+
+	public void testSameAsHMac() {
+		final byte[] expected = new byte[64];
+		final byte[] actual = new byte[64];
+		final byte[] msg = new byte[8];
+		for (int alg = KeyedMac.ALG_SHA1; alg <= KeyedMac.ALG_SHA512; alg++) {
+			for (int k = 0; k < KEY_LENGTHS.length; k++) {
+				final byte[] key = new byte[KEY_LENGTHS[k]];
+				for (int i = 0; i < key.length; i++) {
+					key[i] = (byte) (i * 7 + alg);
+				}
+				final HMac hmac = new HMac(KeyedMac.createDigest(alg));
+				hmac.init(new KeyParameter(key));
+				final KeyedMac keyedMac = new KeyedMac(alg, key);
+				assertEquals(hmac.getMacSize(), keyedMac.getMacSize());
+				for (int c = 0; c < COUNTERS.length; c++) {
+					for (int i = 0; i < 8; i++) {
+						msg[7 - i] = (byte) (COUNTERS[c] >>> (i * 8));
+					}
+					hmac.update(msg, 0, msg.length);
+					hmac.doFinal(expected, 0);
+					assertEquals(hmac.getMacSize(), keyedMac.doFinal(COUNTERS[c], actual, 0));
+					for (int i = 0; i < hmac.getMacSize(); i++) {
+						assertEquals("alg=" + alg + ", keyLength=" + key.length + ", counter=" + COUNTERS[c],
+								expected[i], actual[i]);
+					}
+				}
+			}
+		}
+	}
+
+	public void testIsKeyedWith() {
+		final byte[] key = "12345678901234567890".getBytes();
+		final KeyedMac keyedMac = new KeyedMac(KeyedMac.ALG_SHA256, key);
+		assertTrue(keyedMac.isKeyedWith(KeyedMac.ALG_SHA256, "12345678901234567890".getBytes()));
+		assertFalse(keyedMac.isKeyedWith(KeyedMac.ALG_SHA1, key));
+		assertFalse(keyedMac.isKeyedWith(KeyedMac.ALG_SHA256, "12345678901234567891".getBytes()));
+		assertFalse(keyedMac.isKeyedWith(KeyedMac.ALG_SHA256, "1234567890".getBytes()));
+		assertFalse(keyedMac.isKeyedWith(KeyedMac.ALG_SHA256, null));
+		// the key is copied
+		key[0] = 0;
+		assertTrue(keyedMac.isKeyedWith(KeyedMac.ALG_SHA256, "12345678901234567890".getBytes()));
+	}
+
+	public void testUnsupportedAlgorithm() {
+		try {
+			new KeyedMac(3, new byte[20]);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link Metrics}.
+ *
+ * @author Josef Cacek
+ */
+public class MetricsTest extends TestCase {
+
+	private static final String[] NAMES = { "first", "second" };
+
+	public void testHistogram() {
+		final Metrics metrics = new Metrics(NAMES);
+		metrics.recordDuration(0, 0L);
+		metrics.recordDuration(0, 3L);
+		metrics.recordDuration(0, 5L);
+		metrics.recordDuration(0, 5000L);
+		assertEquals(4, metrics.getCount(0));
+		assertEquals(5008L, metrics.getTotalMillis(0));
+		assertEquals(5000L, metrics.getMaxMillis(0));
+		assertEquals(1, metrics.getBucketValue(0, 0));
+		// 3 and 5 are in the (2, 5] bucket
+		assertEquals(5L, Metrics.getBucketLimit(3));
+		assertEquals(2, metrics.getBucketValue(0, 3));
+		assertEquals(1, metrics.getBucketValue(0, Metrics.getBucketCount() - 1));
+		assertEquals(Long.MAX_VALUE, Metrics.getBucketLimit(Metrics.getBucketCount() - 1));
+		assertEquals(0, metrics.getCount(1));
+
+		final String report = metrics.getReport();
+		assertTrue(report, report.startsWith("first: 4x, avg 1252 ms, max 5000 ms"));
+		assertEquals(-1, report.indexOf("second"));
+
+		metrics.reset();
+		assertEquals(0, metrics.getCount(0));
+		assertEquals(0, metrics.getBucketValue(0, 3));
+		assertEquals("", metrics.getReport());
+	}
+
+	public void testDisabled() {
+		final Metrics metrics = new Metrics(NAMES);
+		metrics.setEnabled(false);
+		final long start = metrics.start();
+		assertEquals(0L, start);
+		metrics.record(1, start);
+		metrics.recordDuration(1, 10L);
+		metrics.sampleMemory();
+		assertEquals(0, metrics.getCount(1));
+		assertEquals(-1L, metrics.getFreeMemory());
+
+		metrics.setEnabled(true);
+		metrics.record(1, metrics.start());
+		metrics.sampleMemory();
+		assertEquals(1, metrics.getCount(1));
+		assertTrue(metrics.getMinFreeMemory() > 0L);
+		assertTrue(metrics.getTotalMemory() >= metrics.getFreeMemory());
+	}
+
+	public void testStartupMemory() {
+		final Metrics metrics = new Metrics(NAMES);
+		assertEquals(-1L, metrics.getStartupUsedMemory());
+		metrics.sampleStartupMemory();
+		assertTrue(metrics.getStartupUsedMemory() > 0L);
+		assertEquals(metrics.getTotalMemory() - metrics.getFreeMemory(), metrics.getStartupUsedMemory());
+		assertTrue(metrics.getReport().indexOf("startup heap: ") >= 0);
+		// later samples don't change the startup value
+		final long startupUsed = metrics.getStartupUsedMemory();
+		metrics.sampleMemory();
+		assertEquals(startupUsed, metrics.getStartupUsedMemory());
+		metrics.reset();
+		assertEquals(-1L, metrics.getStartupUsedMemory());
+	}
+}
@@ -0,0 +1,186 @@
+package org.jboss.totp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link OtpAuthParser}.
+ *
+ * @author Josef Cacek
+ */
+public class OtpAuthParserTest extends TestCase {
+
+	private static final String SECRET = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+	private static final byte[] KEY = "12345678901234567890".getBytes();
+
+	public void testDefaults() throws IOException {
+		final OtpAuthParser parser = parser("otpauth://totp/john@example.com?secret=" + SECRET);
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals("john@example.com", parser.getName());
+		assertKey(KEY, parser.getKey());
+		assertEquals(KeyedMac.ALG_SHA1, parser.getAlgorithm());
+		assertEquals(Profile.TYPE_TOTP, parser.getType());
+		assertEquals(TokenFormatter.FORMAT_DECIMAL, parser.getFormat());
+		assertEquals(6, parser.getDigits());
+		assertEquals(30, parser.getTimeStep());
+		assertFalse(parser.next());
+	}
+
+	public void testAllParameters() throws IOException {
+		final OtpAuthParser parser = parser("OTPAUTH://TOTP/ACME%20Co:john.doe%40example.com?image=http%3A%2F%2Fx&"
+				+ "secret=" + SECRET.toLowerCase() + "&issuer=ACME+Co&algorithm=sha256&digits=8&period=60");
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals("ACME Co:john.doe@example.com", parser.getName());
+		assertKey(KEY, parser.getKey());
+		assertEquals(KeyedMac.ALG_SHA256, parser.getAlgorithm());
+		assertEquals(8, parser.getDigits());
+		assertEquals(60, parser.getTimeStep());
+	}
+
+	public void testIssuerPrefix() throws IOException {
+		final OtpAuthParser parser = parser("otpauth://totp/john?issuer=ACME&secret=" + SECRET
+				+ "\notpauth://totp/?issuer=ACME&secret=" + SECRET);
+		assertTrue(parser.next());
+		assertEquals("ACME:john", parser.getName());
+		assertTrue(parser.next());
+		assertEquals("ACME", parser.getName());
+	}
+
+	public void testHotp() throws IOException {
+		final OtpAuthParser parser = parser("otpauth://hotp/ACME:john?secret=" + SECRET + "&counter=12345678901");
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals(Profile.TYPE_HOTP, parser.getType());
+		assertEquals(12345678901L, parser.getCounter());
+		assertEquals("ACME:john", parser.getName());
+	}
+
+	public void testSteam() throws IOException {
+		final OtpAuthParser parser = parser("otpauth://totp/Steam:john?secret=" + SECRET + "&encoder=steam\n"
+				+ "otpauth://totp/Steam:john?secret=" + SECRET + "&digits=6&encoder=steam\n"
+				+ "otpauth://totp/a?secret=" + SECRET + "&encoder=base64");
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals(TokenFormatter.FORMAT_STEAM, parser.getFormat());
+		assertEquals(SteamFormatter.LENGTH, parser.getDigits());
+		assertTrue(parser.next());
+		assertFalse(parser.isValid());
+		assertTrue(parser.next());
+		assertFalse(parser.isValid());
+	}
+
+	public void testUtf8Label() throws IOException {
+		final OtpAuthParser parser = parser("otpauth://totp/%C5%BElu%C5%A5ou%C4%8Dk%C3%BD%E2%82%AC?secret=" + SECRET);
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals("\u017elu\u0165ou\u010dk\u00fd\u20ac", parser.getName());
+	}
+
+	public void testReader() throws IOException {
+		final String input = "otpauth://totp/\u010cesk\u00fd?secret=" + SECRET + "%3D%3D";
+		final OtpAuthParser parser = new OtpAuthParser(new InputStreamReader(new ByteArrayInputStream(
+				input.getBytes("UTF-8")), "UTF-8"));
+		assertTrue(parser.next());
+		assertTrue(parser.getError(), parser.isValid());
+		assertEquals("\u010cesk\u00fd", parser.getName());
+		assertKey(KEY, parser.getKey());
+		assertFalse(parser.next());
+	}
+
+	public void testInvalidUris() throws IOException {
+		final OtpAuthParser parser = parser("  http://example.com\r\n" //
+				+ "otpauth://motp/a?secret=" + SECRET + "\n" //
+				+ "otpauth://hotp/a?secret=" + SECRET + "\n" //
+				+ "otpauth://totp/a?secret=ABC1\n" //
+				+ "otpauth://totp/a?issuer=b\n" //
+				+ "otpauth://totp/a?secret=" + SECRET + "&algorithm=MD5\n" //
+				+ "otpauth://totp/a?secret=" + SECRET + "&digits=0\n" //
+				+ "otpauth://totp/a?secret=" + SECRET + "&period=x\n" //
+				+ "otpauth://totp/a%2?secret=" + SECRET + "\n" //
+				+ "otpauth://totp/?secret=" + SECRET + "\n" //
+				+ "otpauth://totp/b?secret=" + SECRET + "\t\n");
+		for (int i = 1; i <= 10; i++) {
+			assertTrue(parser.next());
+			assertFalse("URI " + i, parser.isValid());
+			assertNotNull(parser.getError());
+			assertEquals(i, parser.getUriCount());
+		}
+		// parsing continues after invalid URIs
+		assertTrue(parser.next());
+		assertTrue(parser.isValid());
+		assertEquals("b", parser.getName());
+		assertFalse(parser.next());
+		assertEquals(11, parser.getUriCount());
+	}
+
+	public void testLongValues() throws IOException {
+		final StringBuffer label = new StringBuffer();
+		for (int i = 0; i < OtpAuthParser.MAX_NAME_LENGTH; i++) {
+			label.append('x');
+		}
+		final StringBuffer secret = new StringBuffer();
+		// 80 bytes
+		for (int i = 0; i < 4; i++) {
+			secret.append(SECRET);
+		}
+		final OtpAuthParser parser = parser("otpauth://totp/" + label + "?secret=" + SECRET + "\n" //
+				+ "otpauth://totp/" + label + "x?secret=" + SECRET + "\n" //
+				+ "otpauth://totp/" + label + "?issuer=x&secret=" + SECRET + "\n" //
+				+ "otpauth://totp/a?secret=" + secret);
+		assertTrue(parser.next());
+		assertTrue(parser.isValid());
+		assertEquals(label.toString(), parser.getName());
+		assertTrue(parser.next());
+		assertFalse(parser.isValid());
+		assertTrue(parser.next());
+		assertFalse(parser.isValid());
+		assertTrue(parser.next());
+		assertFalse(parser.isValid());
+	}
+
+	public void testRecord() throws IOException {
+		final OtpAuthParser parser = parser("otpauth://totp/a?secret=" + SECRET + "&algorithm=SHA512&digits=10");
+		assertTrue(parser.next());
+		final ProfileRecord record = new ProfileRecord(ProfileRecord.create(parser.getName(), parser.getKey(),
+				parser.getTimeStep(), parser.getAlgorithm(), parser.getDigits(), 0L));
+		assertEquals("a", record.getName());
+		assertKey(KEY, record.getKey());
+		assertEquals(KeyedMac.ALG_SHA512, record.getAlgorithm());
+		assertEquals(10, record.getDigits());
+		assertEquals(30, record.getTimeStep());
+	}
+
+	public void testSha512Key() throws IOException {
+		// 64-byte key from the RFC 6238 test vectors
+		final byte[] key64 = "1234567890123456789012345678901234567890123456789012345678901234".getBytes();
+		final char[] secret = new char[Base32.encodedLength(key64.length, false)];
+		Base32.encode(key64, 0, key64.length, secret, 0, false);
+		final OtpAuthParser parser = parser("otpauth://totp/a?secret=" + new String(secret)
+				+ "&algorithm=SHA512&digits=8");
+		assertTrue(parser.next());
+		assertTrue(parser.isValid());
+		assertEquals(OtpAuthParser.MAX_KEY_LENGTH, parser.getKey().length);
+		assertKey(key64, parser.getKey());
+		assertEquals(KeyedMac.ALG_SHA512, parser.getAlgorithm());
+		final Profile profile = new Profile("a", KeyedMac.create(parser.getAlgorithm(), parser.getKey()),
+				parser.getTimeStep(), parser.getDigits(), 0L);
+		assertEquals("90693936", TOTPMIDlet.genToken(profile.getCounter(59L), profile.getMac(), profile.getDigits()));
+	}
+
+	private static OtpAuthParser parser(String input) {
+		final char[] chars = input.toCharArray();
+		return new OtpAuthParser(chars, 0, chars.length);
+	}
+
+	private static void assertKey(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i]);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link ProfileCache}.
+ *
+ * @author Josef Cacek
+ */
+public class ProfileCacheTest extends TestCase {
+
+	private static final byte[] KEY = "12345678901234567890".getBytes();
+
+	public void testPutAndGet() {
+		final ProfileCache cache = new ProfileCache(2);
+		assertNull(cache.getRecord(1));
+		assertNull(cache.getProfile(1));
+		final ProfileRecord record = record("a");
+		final Profile profile = cache.put(1, record);
+		assertEquals("a", profile.getName());
+		assertNotNull(profile.getMac());
+		assertSame(record, cache.getRecord(1));
+		// the keyed MAC is reused
+		assertSame(profile, cache.getProfile(1));
+		assertEquals(1, cache.size());
+	}
+
+	public void testLeastRecentlyUsedReplaced() {
+		final ProfileCache cache = new ProfileCache(2);
+		cache.put(1, record("a"));
+		cache.put(2, record("b"));
+		// 2 becomes the least recently used
+		assertNotNull(cache.getProfile(1));
+		cache.put(3, record("c"));
+		assertEquals(2, cache.size());
+		assertNull(cache.getProfile(2));
+		assertEquals("a", cache.getProfile(1).getName());
+		assertEquals("c", cache.getProfile(3).getName());
+	}
+
+	public void testPutReplacesEntry() {
+		final ProfileCache cache = new ProfileCache(2);
+		cache.put(1, record("a"));
+		cache.put(1, record("b"));
+		assertEquals(1, cache.size());
+		assertEquals("b", cache.getRecord(1).getName());
+	}
+
+	public void testRemoveAndClear() {
+		final ProfileCache cache = new ProfileCache(3);
+		cache.put(1, record("a"));
+		cache.put(2, record("b"));
+		cache.put(3, record("c"));
+		cache.remove(1);
+		cache.remove(4);
+		assertEquals(2, cache.size());
+		assertNull(cache.getRecord(1));
+		assertEquals("b", cache.getRecord(2).getName());
+		assertEquals("c", cache.getRecord(3).getName());
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.getRecord(2));
+	}
+
+	private static ProfileRecord record(String name) {
+		return new ProfileRecord(ProfileRecord.create(name, KEY, 30, KeyedMac.ALG_SHA1, 6, 0L));
+	}
+}
@@ -0,0 +1,79 @@
+package org.jboss.totp;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link ProfileIndex}.
+ *
+ * @author Josef Cacek
+ */
+public class ProfileIndexTest extends TestCase {
+
+	public void testAddKeepsOrder() {
+		final ProfileIndex index = new ProfileIndex(1);
+		assertEquals(0, index.add("b", 1));
+		assertEquals(0, index.add("a", 2));
+		assertEquals(2, index.add("c", 3));
+		// equal names keep insertion order
+		assertEquals(2, index.add("b", 4));
+		assertNames(index, new String[] { "a", "b", "b", "c" });
+		assertEquals(1, index.getRecordId(1));
+		assertEquals(4, index.getRecordId(2));
+		assertEquals(2, index.indexOfRecord(4));
+		assertEquals(-1, index.indexOfRecord(5));
+	}
+
+	public void testNamesComparedAsOne() {
+		// "b".compareTo("a") == 1 - such names were never swapped by the old bubble sort
+		final ProfileIndex index = new ProfileIndex();
+		index.append("b", 1);
+		index.append("a", 2);
+		index.sort();
+		assertNames(index, new String[] { "a", "b" });
+	}
+
+	public void testRemoveAndRename() {
+		final ProfileIndex index = new ProfileIndex();
+		index.add("a", 1);
+		index.add("b", 2);
+		index.add("c", 3);
+		index.remove(0);
+		assertNames(index, new String[] { "b", "c" });
+		assertEquals(1, index.rename(0, "d"));
+		assertNames(index, new String[] { "c", "d" });
+		assertEquals(2, index.getRecordId(1));
+		try {
+			index.remove(2);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException e) {
+			// OK
+		}
+	}
+
+	public void testBulkSort() {
+		final Random random = new Random(42L);
+		final ProfileIndex index = new ProfileIndex();
+		for (int i = 0; i < 500; i++) {
+			index.append("profile" + (random.nextInt() & 0xFF), i);
+		}
+		index.sort();
+		assertEquals(500, index.size());
+		for (int i = 1; i < index.size(); i++) {
+			final int cmp = index.getName(i - 1).compareTo(index.getName(i));
+			assertTrue(cmp <= 0);
+			// stable
+			if (cmp == 0) {
+				assertTrue(index.getRecordId(i - 1) < index.getRecordId(i));
+			}
+		}
+	}
+
+	private static void assertNames(ProfileIndex index, String[] expected) {
+		assertEquals(expected.length, index.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], index.getName(i));
+		}
+	}
+}
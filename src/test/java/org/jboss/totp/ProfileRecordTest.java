@@ -0,0 +1,183 @@
+package org.jboss.totp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link ProfileRecord}.
+ *
+ * @author Josef Cacek
+ */
+public class ProfileRecordTest extends TestCase {
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+
+	public void testFields() {
+		final String name = "Prof\u00edle \u20ac 1";
+		final byte[] data = ProfileRecord.create(name, seed20, 60, KeyedMac.ALG_SHA256, 8, -536544000123L);
+		assertTrue(ProfileRecord.isCurrentVersion(data));
+		final ProfileRecord record = new ProfileRecord(data);
+		assertEquals(name, record.getName());
+		assertEquals(20, record.getKeyLength());
+		assertEquals(new String(seed20), new String(record.getKey()));
+		assertEquals(60, record.getTimeStep());
+		assertEquals(KeyedMac.ALG_SHA256, record.getAlgorithm());
+		assertEquals(8, record.getDigits());
+		assertEquals(-536544000123L, record.getDelta());
+
+		final Profile profile = record.toProfile();
+		assertEquals(name, profile.getName());
+		assertTrue(profile.getMac().isKeyedWith(KeyedMac.ALG_SHA256, seed20));
+		assertEquals(-536544000123L, profile.getDelta());
+	}
+
+	public void testCounterBased() {
+		final byte[] data = ProfileRecord.create("hotp", seed20, 30, KeyedMac.ALG_SHA1, 6, 0L, Profile.TYPE_HOTP,
+				1234567890123L, TokenFormatter.FORMAT_DECIMAL);
+		final ProfileRecord record = new ProfileRecord(data);
+		assertEquals(Profile.TYPE_HOTP, record.getType());
+		assertEquals(1234567890123L, record.getCounter());
+		assertTrue(record.toProfile().isCounterBased());
+		// the counter is written directly to the record value
+		record.setCounter(42L);
+		assertEquals(42L, new ProfileRecord(data).getCounter());
+		assertEquals("hotp", record.getName());
+		assertEquals(new String(seed20), new String(record.getKey()));
+
+		final ProfileRecord totpRecord = new ProfileRecord(ProfileRecord.create("totp", seed20, 30, 0, 6, 0L));
+		assertEquals(Profile.TYPE_TOTP, totpRecord.getType());
+		assertEquals(0L, totpRecord.getCounter());
+	}
+
+	public void testTokenFormat() {
+		final byte[] data = ProfileRecord.create("steam", seed20, 30, KeyedMac.ALG_SHA1, 5, 0L, Profile.TYPE_TOTP,
+				0L, TokenFormatter.FORMAT_STEAM);
+		final ProfileRecord record = new ProfileRecord(data);
+		assertEquals(TokenFormatter.FORMAT_STEAM, record.getFormat());
+		assertSame(SteamFormatter.INSTANCE, record.toProfile().getFormatter());
+		assertEquals(TokenFormatter.FORMAT_DECIMAL,
+				new ProfileRecord(ProfileRecord.create("totp", seed20, 30, 0, 6, 0L)).getFormat());
+	}
+
+	public void testEmptyKey() {
+		final ProfileRecord record = new ProfileRecord(ProfileRecord.create("", null, 30, 0, 6, 0L));
+		assertEquals("", record.getName());
+		assertEquals(0, record.getKey().length);
+		assertNull(record.toProfile().getMac());
+	}
+
+	public void testMigration() throws IOException {
+		final String name = "Old \u00e9 profile";
+		final byte[] oldData = createVersion1(name, seed20, 30, KeyedMac.ALG_SHA512, 10, 3600L);
+		assertFalse(ProfileRecord.isCurrentVersion(oldData));
+		final ProfileRecord record = new ProfileRecord(ProfileRecord.migrate(oldData));
+		assertEquals(name, record.getName());
+		assertEquals(new String(seed20), new String(record.getKey()));
+		assertEquals(30, record.getTimeStep());
+		assertEquals(KeyedMac.ALG_SHA512, record.getAlgorithm());
+		assertEquals(10, record.getDigits());
+		assertEquals(3600L, record.getDelta());
+
+		try {
+			ProfileRecord.migrate(new byte[] { 0, 5, 'a' });
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	public void testVersion2Migration() throws IOException {
+		final String name = "Version 2 profil\u00e9";
+		final byte[] oldData = createVersion2(name, seed20, 60, KeyedMac.ALG_SHA256, 8, -3600L);
+		assertFalse(ProfileRecord.isCurrentVersion(oldData));
+		final ProfileRecord record = new ProfileRecord(ProfileRecord.migrate(oldData));
+		assertEquals(name, record.getName());
+		assertEquals(new String(seed20), new String(record.getKey()));
+		assertEquals(60, record.getTimeStep());
+		assertEquals(KeyedMac.ALG_SHA256, record.getAlgorithm());
+		assertEquals(8, record.getDigits());
+		assertEquals(-3600L, record.getDelta());
+		assertEquals(Profile.TYPE_TOTP, record.getType());
+		assertEquals(0L, record.getCounter());
+		assertEquals(TokenFormatter.FORMAT_DECIMAL, record.getFormat());
+	}
+
+	public void testVersion3Migration() throws IOException {
+		final byte[] version2 = createVersion2("hotp", seed20, 30, KeyedMac.ALG_SHA1, 6, 0L);
+		// version 3 added the type and the counter
+		final byte[] oldData = new byte[version2.length + 9];
+		System.arraycopy(version2, 0, oldData, 0, 19);
+		System.arraycopy(version2, 19, oldData, 28, version2.length - 19);
+		oldData[1] = 3;
+		oldData[19] = (byte) Profile.TYPE_HOTP;
+		oldData[27] = 42;
+		assertFalse(ProfileRecord.isCurrentVersion(oldData));
+		final ProfileRecord record = new ProfileRecord(ProfileRecord.migrate(oldData));
+		assertEquals("hotp", record.getName());
+		assertEquals(new String(seed20), new String(record.getKey()));
+		assertEquals(Profile.TYPE_HOTP, record.getType());
+		assertEquals(42L, record.getCounter());
+		assertEquals(TokenFormatter.FORMAT_DECIMAL, record.getFormat());
+	}
+
+	public void testInvalidRecords() {
+		final byte[] data = ProfileRecord.create("name", seed20, 30, 0, 6, 0L);
+		final byte[] truncated = new byte[data.length - 1];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		final byte[] badAlgorithm = ProfileRecord.create("name", seed20, 30, 3, 6, 0L);
+		final byte[] badFormat = ProfileRecord.create("name", seed20, 30, 0, 6, 0L, Profile.TYPE_TOTP, 0L, 2);
+		final byte[][] invalid = { null, new byte[0], truncated, badAlgorithm, badFormat };
+		for (int i = 0; i < invalid.length; i++) {
+			try {
+				new ProfileRecord(invalid[i]);
+				fail("IllegalArgumentException expected");
+			} catch (IllegalArgumentException e) {
+				// OK
+			}
+		}
+	}
+
+	/**
+	 * Profile record as written by 1.9 development versions (fixed header of
+	 * 19 bytes without the type and the counter).
+	 */
+	private static byte[] createVersion2(String name, byte[] key, int timeStep, int hmacIdx, int digits, long delta)
+			throws IOException {
+		final byte[] nameBytes = name.getBytes("UTF-8");
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeByte(0xFF);
+		dos.writeByte(2);
+		dos.writeByte(hmacIdx);
+		dos.writeByte(digits);
+		dos.writeInt(timeStep);
+		dos.writeLong(delta);
+		dos.writeByte(key.length);
+		dos.writeShort(nameBytes.length);
+		dos.write(key);
+		dos.write(nameBytes);
+		dos.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Profile record as written by versions 1.4 - 1.8.
+	 */
+	private static byte[] createVersion1(String name, byte[] key, int timeStep, int hmacIdx, int digits, long delta)
+			throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeUTF(name);
+		dos.writeByte(key.length);
+		dos.write(key);
+		dos.writeInt(timeStep);
+		dos.writeInt(hmacIdx);
+		dos.writeByte(digits);
+		dos.writeLong(delta);
+		dos.close();
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,41 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link Profile} time computations.
+ *
+ * @author Josef Cacek
+ */
+public class ProfileTest extends TestCase {
+
+	public void testCounterAndRemainingSeconds() {
+		final Profile profile = new Profile("test", null, 30, 6, 0L);
+		assertEquals(0L, profile.getCounter(29L));
+		assertEquals(0, profile.getRemainingSeconds(29L));
+		assertEquals(1L, profile.getCounter(30L));
+		assertEquals(29, profile.getRemainingSeconds(30L));
+	}
+
+	public void testDelta() {
+		final Profile profile = new Profile("test", null, 30, 6, -40L);
+		assertEquals(2L, profile.getCounter(100L));
+		assertEquals(29, profile.getRemainingSeconds(100L));
+		// negative time after the correction
+		assertEquals(19, profile.getRemainingSeconds(20L));
+	}
+
+	public void testInvalidTimeStep() {
+		final Profile profile = new Profile("test", null, 0, 6, 0L);
+		assertEquals(-1L, profile.getCounter(100L));
+		assertEquals(0, profile.getRemainingSeconds(100L));
+	}
+
+	public void testCounterBased() {
+		final Profile profile = new Profile("test", null, 30, 6, 0L, Profile.TYPE_HOTP,
+				DecimalFormatter.INSTANCE);
+		assertTrue(profile.isCounterBased());
+		assertEquals(-1L, profile.getCounter(100L));
+		assertFalse(new Profile("test", null, 30, 6, 0L).isCounterBased());
+	}
+}
@@ -0,0 +1,72 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link SecretGenerator}.
+ *
+ * @author Josef Cacek
+ */
+public class SecretGeneratorTest extends TestCase {
+
+	private static final byte[] SEED = "0123456789abcdef0123456789abcdef".getBytes();
+
+	public void testDeterministicForSeed() {
+		final byte[] keys1 = new byte[100 * 20];
+		final byte[] keys2 = new byte[100 * 20];
+		new SecretGenerator(SEED).nextKeys(keys1, 0, 100, 20);
+		new SecretGenerator(SEED).nextKeys(keys2, 0, 100, 20);
+		assertEqualBytes(keys1, keys2);
+
+		final byte[] keys3 = new byte[100 * 20];
+		new SecretGenerator("another seed".getBytes()).nextKeys(keys3, 0, 100, 20);
+		assertFalse(keys1[0] == keys3[0] && keys1[1] == keys3[1] && keys1[2] == keys3[2] && keys1[3] == keys3[3]);
+	}
+
+	public void testBulkBuffer() {
+		final SecretGenerator generator = new SecretGenerator(SEED);
+		final byte[] buf = new byte[2 + 3 * 32 + 2];
+		for (int i = 0; i < buf.length; i++) {
+			buf[i] = 7;
+		}
+		generator.nextKeys(buf, 2, 3, 32);
+		assertEquals(7, buf[0]);
+		assertEquals(7, buf[1]);
+		assertEquals(7, buf[buf.length - 2]);
+		assertEquals(7, buf[buf.length - 1]);
+		// consecutive keys differ
+		boolean same = true;
+		for (int i = 0; i < 32; i++) {
+			same &= buf[2 + i] == buf[2 + 32 + i];
+		}
+		assertFalse(same);
+	}
+
+	public void testKeyLengths() {
+		final SecretGenerator generator = new SecretGenerator(SecretGenerator.collectSeed());
+		assertEquals(20, generator.nextKey(KeyedMac.ALG_SHA1).length);
+		assertEquals(32, generator.nextKey(KeyedMac.ALG_SHA256).length);
+		assertEquals(64, generator.nextKey(KeyedMac.ALG_SHA512).length);
+		// generated keys can be imported
+		assertTrue(SecretGenerator.getKeyLength(KeyedMac.ALG_SHA512) <= OtpAuthParser.MAX_KEY_LENGTH);
+		try {
+			SecretGenerator.getKeyLength(3);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new SecretGenerator(new byte[0]);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	private static void assertEqualBytes(byte[] expected, byte[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i]);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * JUnit test for the {@link Sha1TokenMac}. It compares the results with the
+ * Bouncy Castle {@link HMac}.
+ *
+ * @author Josef Cacek
+ */
+public class Sha1TokenMacTest extends TestCase {
+
+	// shorter than, equal to and longer than the SHA-1 block size
+	private static final int[] KEY_LENGTHS = { 1, 20, 55, 63, 64, 65, 100, 200 };
+	private static final long[] COUNTERS = { 0L, 1L, 37037036L, 0x80000000L, 0x7FFFFFFFFFFFFFFFL, -1L };
+
+	public void testSameAsHMac() {
+		final byte[] expected = new byte[Sha1TokenMac.MAC_SIZE];
+		final byte[] actual = new byte[Sha1TokenMac.MAC_SIZE + 3];
+		final byte[] msg = new byte[8];
+		for (int k = 0; k < KEY_LENGTHS.length; k++) {
+			final byte[] key = new byte[KEY_LENGTHS[k]];
+			for (int i = 0; i < key.length; i++) {
+				key[i] = (byte) (i * 13 + 0x80);
+			}
+			final HMac hmac = new HMac(new SHA1Digest());
+			hmac.init(new KeyParameter(key));
+			final Sha1TokenMac mac = new Sha1TokenMac(key);
+			for (int c = 0; c < COUNTERS.length; c++) {
+				for (int i = 0; i < 8; i++) {
+					msg[7 - i] = (byte) (COUNTERS[c] >>> (i * 8));
+				}
+				hmac.update(msg, 0, msg.length);
+				hmac.doFinal(expected, 0);
+				assertEquals(Sha1TokenMac.MAC_SIZE, mac.doFinal(COUNTERS[c], actual, 3));
+				for (int i = 0; i < expected.length; i++) {
+					assertEquals("keyLength=" + key.length + ", counter=" + COUNTERS[c], expected[i], actual[i + 3]);
+				}
+			}
+		}
+	}
+
+	public void testRfcVectors() {
+		// RFC 4226 appendix D
+		final TokenMac mac = KeyedMac.create(KeyedMac.ALG_SHA1, "12345678901234567890".getBytes());
+		assertTrue(mac instanceof Sha1TokenMac);
+		final TokenGenerator generator = new TokenGenerator();
+		assertEquals(1284755224, generator.generate(0L, mac));
+		assertEquals(1094287082, generator.generate(1L, mac));
+		assertEquals("520489", TOTPMIDlet.genToken(9L, mac, 6));
+		// RFC 6238 appendix B
+		assertEquals("94287082", TOTPMIDlet.genToken(TOTPMIDlet.getCounter(59L, 30), mac, 8));
+	}
+
+	public void testFactory() {
+		final byte[] key = "12345678901234567890".getBytes();
+		assertTrue(KeyedMac.create(KeyedMac.ALG_SHA256, key) instanceof KeyedMac);
+		assertTrue(KeyedMac.create(KeyedMac.ALG_SHA512, key) instanceof KeyedMac);
+		final TokenMac mac = KeyedMac.create(KeyedMac.ALG_SHA1, key);
+		assertEquals(KeyedMac.ALG_SHA1, mac.getAlgorithm());
+		assertTrue(mac.isKeyedWith(KeyedMac.ALG_SHA1, "12345678901234567890".getBytes()));
+		assertFalse(mac.isKeyedWith(KeyedMac.ALG_SHA256, key));
+		assertFalse(mac.isKeyedWith(KeyedMac.ALG_SHA1, "1234567890".getBytes()));
+		assertFalse(mac.isKeyedWith(KeyedMac.ALG_SHA1, null));
+		// the key is copied
+		key[0] = 0;
+		assertTrue(mac.isKeyedWith(KeyedMac.ALG_SHA1, "12345678901234567890".getBytes()));
+	}
+}
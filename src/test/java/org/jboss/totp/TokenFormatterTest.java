@@ -0,0 +1,80 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link TokenFormatter} implementations.
+ *
+ * @author Josef Cacek
+ */
+public class TokenFormatterTest extends TestCase {
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+	private static final int[] BINARIES = { 0, 7, 1284755224, 1094287082, Integer.MAX_VALUE, 99, 100, 1000000000 };
+
+	public void testDecimal() {
+		final TokenFormatter formatter = DecimalFormatter.INSTANCE;
+		final char[] chars = new char[14];
+		final byte[] bytes = new byte[14];
+		for (int i = 0; i < BINARIES.length; i++) {
+			for (int length = 1; length <= 12; length++) {
+				final String expected = legacyDigits(BINARIES[i], length);
+				assertEquals(length, formatter.format(BINARIES[i], length, chars, 2));
+				assertEquals(expected, new String(chars, 2, length));
+				assertEquals(length, formatter.format(BINARIES[i], length, bytes, 1));
+				assertEquals(expected, new String(bytes, 1, length));
+				assertEquals(Integer.parseInt(expected.substring(Math.max(0, length - 10))),
+						DecimalFormatter.toCode(BINARIES[i], length));
+			}
+		}
+		assertFalse(formatter.isSupportedLength(0));
+		assertTrue(formatter.isSupportedLength(1));
+		assertTrue(formatter.isSupportedLength(DecimalFormatter.MAX_LENGTH));
+		assertFalse(formatter.isSupportedLength(DecimalFormatter.MAX_LENGTH + 1));
+	}
+
+	public void testSteam() {
+		final KeyedMac mac = new KeyedMac(KeyedMac.ALG_SHA1, seed20);
+		final TokenGenerator generator = new TokenGenerator();
+		final char[] chars = new char[SteamFormatter.LENGTH];
+		assertEquals(SteamFormatter.LENGTH,
+				generator.generate(1L, mac, SteamFormatter.INSTANCE, SteamFormatter.LENGTH, chars, 0));
+		assertEquals("PV9M4", new String(chars));
+		assertEquals("PY4YB", TOTPMIDlet.genToken(37037036L, mac, SteamFormatter.INSTANCE, SteamFormatter.LENGTH));
+
+		final byte[] bytes = new byte[SteamFormatter.LENGTH];
+		SteamFormatter.INSTANCE.format(generator.generate(1L, mac), SteamFormatter.LENGTH, bytes, 0);
+		assertEquals("PV9M4", new String(bytes));
+
+		assertTrue(SteamFormatter.INSTANCE.isSupportedLength(SteamFormatter.LENGTH));
+		assertFalse(SteamFormatter.INSTANCE.isSupportedLength(6));
+	}
+
+	public void testSteamProfile() {
+		final Profile profile = new Profile("steam", new KeyedMac(KeyedMac.ALG_SHA1, seed20), 30,
+				SteamFormatter.LENGTH, 0L, Profile.TYPE_TOTP, SteamFormatter.INSTANCE);
+		final char[] chars = new char[SteamFormatter.LENGTH];
+		// the dashboard and the main screen generate profile tokens the same way
+		assertEquals(SteamFormatter.LENGTH, new TokenGenerator().generate(1L, profile, chars, 0));
+		assertEquals("PV9M4", new String(chars));
+	}
+
+	public void testFormatterIndex() {
+		assertSame(DecimalFormatter.INSTANCE, TokenGenerator.getFormatter(TokenFormatter.FORMAT_DECIMAL));
+		assertSame(SteamFormatter.INSTANCE, TokenGenerator.getFormatter(TokenFormatter.FORMAT_STEAM));
+		assertSame(DecimalFormatter.INSTANCE, TokenGenerator.getFormatter(-1));
+		assertSame(DecimalFormatter.INSTANCE, TokenGenerator.getFormatter(100));
+	}
+
+	/**
+	 * The digit loop used before the formatters were introduced.
+	 */
+	private static String legacyDigits(int binary, int digits) {
+		final char[] chars = new char[digits];
+		for (int i = digits - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + binary % 10);
+			binary /= 10;
+		}
+		return new String(chars);
+	}
+}
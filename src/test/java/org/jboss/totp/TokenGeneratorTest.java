@@ -0,0 +1,129 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * JUnit test for the allocation-free {@link TokenGenerator}.
+ *
+ * @author Josef Cacek
+ */
+public class TokenGeneratorTest extends TestCase {
+
+	private static final int TIMESTEP = 30;
+	private static final int DIGITS = 8;
+	private static final int ITERATIONS = 10000;
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+	private static final byte[] seed32 = "12345678901234567890123456789012".getBytes();
+	private static final byte[] seed64 = "1234567890123456789012345678901234567890123456789012345678901234".getBytes();
+
+	private static final long[] TEST_TIME = { 59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L };
+
+	private Object sink;
+
+	public void testSameTokensAsGenToken() {
+		final HMac[] hmacs = { createHMac(new HMac(new SHA1Digest()), seed20),
+				createHMac(new HMac(new SHA256Digest()), seed32), createHMac(new HMac(new SHA512Digest()), seed64) };
+		final TokenGenerator generator = new TokenGenerator();
+		final char[] chars = new char[DIGITS + 2];
+		final byte[] bytes = new byte[DIGITS + 2];
+		for (int i = 0; i < TEST_TIME.length; i++) {
+			final long counter = TOTPMIDlet.getCounter(TEST_TIME[i], TIMESTEP);
+			for (int j = 0; j < hmacs.length; j++) {
+				final String expected = TOTPMIDlet.genToken(counter, hmacs[j], DIGITS);
+				assertEquals(DIGITS, generator.generate(counter, hmacs[j], DIGITS, chars, 1));
+				assertEquals(expected, new String(chars, 1, DIGITS));
+				assertEquals(DIGITS, generator.generate(counter, hmacs[j], DIGITS, bytes, 2));
+				assertEquals(expected, new String(bytes, 2, DIGITS));
+				final KeyedMac keyedMac = new KeyedMac(j, j == 0 ? seed20 : j == 1 ? seed32 : seed64);
+				assertEquals(expected, TOTPMIDlet.genToken(counter, keyedMac, DIGITS));
+				assertEquals(DIGITS, generator.generate(counter, keyedMac, DIGITS, chars, 0));
+				assertEquals(expected, new String(chars, 0, DIGITS));
+				assertEquals(DIGITS, generator.generate(counter, keyedMac, DIGITS, bytes, 0));
+				assertEquals(expected, new String(bytes, 0, DIGITS));
+			}
+		}
+	}
+
+	public void testInvalidInput() {
+		final TokenGenerator generator = new TokenGenerator();
+		final char[] chars = new char[DIGITS];
+		assertEquals(-1, generator.generate(1L, (HMac) null));
+		assertEquals(-1, generator.generate(1L, (KeyedMac) null));
+		assertEquals(0, generator.generate(1L, (KeyedMac) null, DIGITS, chars, 0));
+		assertEquals(0, generator.generate(1L, (HMac) null, DIGITS, chars, 0));
+		assertEquals(0, generator.generate(1L, createHMac(new HMac(new SHA1Digest()), seed20), 0, chars, 0));
+	}
+
+	public void testNoAllocation() {
+		final HMac hmac = createHMac(new HMac(new SHA512Digest()), seed64);
+		final TokenGenerator generator = new TokenGenerator();
+		final char[] token = new char[DIGITS];
+
+		// check the measurement itself is able to see allocations
+		final long legacyBytes = measureAllocatedBytes(new Runnable() {
+			private long counter;
+
+			public void run() {
+				sink = TOTPMIDlet.genToken(counter++, hmac, DIGITS);
+			}
+		});
+		assertTrue("Allocation measurement doesn't work", legacyBytes >= ITERATIONS);
+
+		final long bytes = measureAllocatedBytes(new Runnable() {
+			private long counter;
+
+			public void run() {
+				generator.generate(counter++, hmac, DIGITS, token, 0);
+			}
+		});
+		assertEquals("Allocated bytes per call", 0L, bytes / ITERATIONS);
+
+		final KeyedMac keyedMac = new KeyedMac(KeyedMac.ALG_SHA512, seed64);
+		final long keyedBytes = measureAllocatedBytes(new Runnable() {
+			private long counter;
+
+			public void run() {
+				generator.generate(counter++, keyedMac, DIGITS, token, 0);
+			}
+		});
+		assertEquals("Allocated bytes per call (KeyedMac)", 0L, keyedBytes / ITERATIONS);
+	}
+
+	/**
+	 * Returns the smallest heap usage growth seen while running the task
+	 * {@link #ITERATIONS} times. Attempts interrupted by a garbage collection
+	 * are ignored.
+	 */
+	private static long measureAllocatedBytes(Runnable task) {
+		final Runtime runtime = Runtime.getRuntime();
+		// warm-up
+		for (int i = 0; i < ITERATIONS; i++) {
+			task.run();
+		}
+		long result = Long.MAX_VALUE;
+		for (int attempt = 0; attempt < 10; attempt++) {
+			final long before = runtime.totalMemory() - runtime.freeMemory();
+			for (int i = 0; i < ITERATIONS; i++) {
+				task.run();
+			}
+			final long after = runtime.totalMemory() - runtime.freeMemory();
+			if (after >= before && after - before < result) {
+				result = after - before;
+			}
+		}
+		assertTrue("Every measurement was interrupted by GC", result < Long.MAX_VALUE);
+		return result;
+	}
+
+	private static HMac createHMac(HMac hmac, byte[] key) {
+		hmac.init(new KeyParameter(key));
+		return hmac;
+	}
+}
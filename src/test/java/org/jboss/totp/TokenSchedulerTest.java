@@ -0,0 +1,99 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link TokenScheduler}.
+ *
+ * @author Josef Cacek
+ */
+public class TokenSchedulerTest extends TestCase {
+
+	private static final long PERIOD = 50L;
+
+	public void testTicksOnlyWhenActive() throws InterruptedException {
+		final CountingTask task = new CountingTask(PERIOD);
+		final TokenScheduler scheduler = new TokenScheduler(task);
+		scheduler.start();
+		try {
+			Thread.sleep(4 * PERIOD);
+			assertEquals("Inactive scheduler ticked", 0, task.getTicks());
+
+			scheduler.setActive(true);
+			Thread.sleep(10 * PERIOD);
+			final int activeTicks = task.getTicks();
+			assertTrue("Too few ticks: " + activeTicks, activeTicks >= 3);
+
+			scheduler.setActive(false);
+			Thread.sleep(2 * PERIOD);
+			final int suspendedTicks = task.getTicks();
+			Thread.sleep(4 * PERIOD);
+			assertEquals("Suspended scheduler ticked", suspendedTicks, task.getTicks());
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	public void testCatchUpTick() throws InterruptedException {
+		final CountingTask task = new CountingTask(TokenScheduler.NO_TICK);
+		final TokenScheduler scheduler = new TokenScheduler(task);
+		scheduler.start();
+		try {
+			scheduler.setActive(true);
+			Thread.sleep(2 * PERIOD);
+			assertEquals(1, task.getTicks());
+			scheduler.requestTick();
+			Thread.sleep(2 * PERIOD);
+			assertEquals(2, task.getTicks());
+			// tick requested while suspended runs after activation
+			scheduler.setActive(false);
+			scheduler.requestTick();
+			Thread.sleep(2 * PERIOD);
+			assertEquals(2, task.getTicks());
+			scheduler.setActive(true);
+			Thread.sleep(2 * PERIOD);
+			assertEquals(3, task.getTicks());
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	public void testClockSetBack() throws InterruptedException {
+		// the requested tick time an hour ahead is what the scheduler sees
+		// when the clock is set back by an hour after the tick
+		final CountingTask task = new CountingTask(60L * 60L * 1000L);
+		final TokenScheduler scheduler = new TokenScheduler(task);
+		scheduler.start();
+		try {
+			scheduler.setActive(true);
+			Thread.sleep(2 * PERIOD);
+			assertEquals(1, task.getTicks());
+			Thread.sleep(TokenScheduler.MAX_WAIT_MILLIS + 4 * PERIOD);
+			assertTrue("The scheduler waited for the old tick time", task.getTicks() >= 2);
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	/**
+	 * Task requesting the next tick after the given period.
+	 */
+	private static class CountingTask implements TokenScheduler.Task {
+
+		private final long period;
+		private int ticks;
+
+		CountingTask(long period) {
+			this.period = period;
+		}
+
+		public synchronized long tick(long currentTimeMillis) {
+			ticks++;
+			return period == TokenScheduler.NO_TICK ? TokenScheduler.NO_TICK : currentTimeMillis + period;
+		}
+
+		synchronized int getTicks() {
+			return ticks;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link TokenView}.
+ *
+ * @author Josef Cacek
+ */
+public class TokenViewTest extends TestCase {
+
+	// 59 seconds from the RFC 6238 test vectors, both time-based profiles are at counter 1
+	private static final long TIME = 59L;
+	private static final int SWITCHES = 20000;
+	// the displayed token is checked after each CHECK_PERIOD switches
+	private static final int CHECK_PERIOD = 20;
+
+	private final Profile profileA = new Profile("A", KeyedMac.create(KeyedMac.ALG_SHA1,
+			"12345678901234567890".getBytes()), 30, 8, 0L);
+	private final Profile profileB = new Profile("B", KeyedMac.create(KeyedMac.ALG_SHA1,
+			"abcdefghijabcdefghij".getBytes()), 59, 6, 0L);
+	private final Profile hotpProfile = new Profile("H", KeyedMac.create(KeyedMac.ALG_SHA1,
+			"12345678901234567890".getBytes()), 30, 6, 0L, Profile.TYPE_HOTP, DecimalFormatter.INSTANCE);
+
+	public void testRender() {
+		final RecordingOutput output = new RecordingOutput();
+		final TokenView view = new TokenView(output, new Metrics(new String[] { "token" }), 0);
+		assertFalse(view.render(TIME));
+		assertEquals("", output.getToken());
+		assertEquals(TokenView.NO_VALIDITY_MAX, output.getMaxValue());
+
+		view.setState(view.getState().withProfile(profileA));
+		assertTrue(view.render(TIME));
+		assertEquals("94287082", output.getToken());
+		assertEquals(TokenView.TOKEN_LABEL, output.getLabel());
+		assertEquals(29, output.getMaxValue());
+		assertEquals(0, output.getValue());
+		assertNull(output.getNextToken());
+
+		view.setState(view.getState().withNextTokenEnabled(true));
+		// the next token is computed in a tick within the step
+		view.render(TIME);
+		view.render(TIME);
+		assertEquals(expectedToken(profileA, 2L), output.getNextToken());
+
+		view.setState(view.getState().withProfile(hotpProfile));
+		assertFalse(view.render(TIME));
+		assertEquals("", output.getToken());
+		assertNull(output.getNextToken());
+		view.setState(view.getState().withHotpToken(1L, "287082"));
+		view.render(TIME);
+		assertEquals(TokenView.TOKEN_LABEL + " #1", output.getLabel());
+		assertEquals("287082", output.getToken());
+	}
+
+	/**
+	 * The state is swapped while the previous one is being rendered - the new
+	 * state has to be rendered in the next tick.
+	 */
+	public void testSwapDuringRender() {
+		final TokenView[] viewHolder = new TokenView[1];
+		final RecordingOutput output = new RecordingOutput() {
+			public synchronized void showToken(String label, String token) {
+				super.showToken(label, token);
+				final TokenView view = viewHolder[0];
+				if (view.getState().getProfile() == profileA) {
+					view.setState(view.getState().withProfile(profileB));
+				}
+			}
+		};
+		final TokenView view = new TokenView(output, new Metrics(new String[] { "token" }), 0);
+		viewHolder[0] = view;
+		view.setState(view.getState().withProfile(profileA));
+		view.render(TIME);
+		assertEquals(expectedToken(profileA, 1L), output.getToken());
+		view.render(TIME);
+		assertEquals(expectedToken(profileB, 1L), output.getToken());
+		assertEquals(58, output.getMaxValue());
+	}
+
+	/**
+	 * Profile switches published by one thread while another thread renders
+	 * the view. The time doesn't change, so a lost switch would leave a stale
+	 * token displayed.
+	 */
+	public void testConcurrentSwitches() throws InterruptedException {
+		final String tokenA = expectedToken(profileA, TIME / profileA.getTimeStep());
+		final String tokenB = expectedToken(profileB, TIME / profileB.getTimeStep());
+		final RecordingOutput output = new RecordingOutput() {
+			public synchronized void showToken(String label, String token) {
+				super.showToken(label, token);
+				if (label.equals(TokenView.TOKEN_LABEL)) {
+					if (token.length() > 0 && !token.equals(tokenA) && !token.equals(tokenB)) {
+						fail("Unexpected token " + token);
+					}
+				} else if (!label.equals(TokenView.TOKEN_LABEL + " #" + token)) {
+					fail("Label " + label + " doesn't match token " + token);
+				}
+			}
+		};
+		final TokenView view = new TokenView(output, new Metrics(new String[] { "token" }), 0);
+		final RenderingThread renderer = new RenderingThread(view);
+		renderer.start();
+		try {
+			for (int i = 0; i < SWITCHES; i++) {
+				switch (i % 5) {
+				case 0:
+					view.setState(view.getState().withProfile(profileA));
+					break;
+				case 1:
+					view.setState(view.getState().withNextTokenEnabled(i % 2 == 0));
+					break;
+				case 2:
+					view.setState(view.getState().withProfile(hotpProfile).withHotpToken(i, String.valueOf(i)));
+					break;
+				case 3:
+					view.setState(view.getState().withProfile(null));
+					break;
+				default:
+					view.setState(view.getState().withProfile(profileB));
+					break;
+				}
+				if (i % CHECK_PERIOD == 0) {
+					// a render started after the switch has to show the last published state
+					final boolean useA = i % (2 * CHECK_PERIOD) == 0;
+					view.setState(view.getState().withProfile(useA ? profileA : profileB));
+					renderer.awaitRenders(2);
+					assertEquals("Stale token after switch " + i, useA ? tokenA : tokenB, output.getToken());
+					assertEquals(useA ? 29 : 58, output.getMaxValue());
+				}
+			}
+		} finally {
+			renderer.finish();
+		}
+		assertNull("Rendering failed: " + renderer.getError(), renderer.getError());
+		assertTrue("Too few renders: " + renderer.getRenders(), renderer.getRenders() > 2);
+	}
+
+	private static String expectedToken(Profile profile, long counter) {
+		return TOTPMIDlet.genToken(counter, profile.getMac(), profile.getFormatter(), profile.getDigits());
+	}
+
+	/**
+	 * Output remembering the displayed values.
+	 */
+	private static class RecordingOutput implements TokenView.Output {
+
+		private String label;
+		private String token;
+		private int maxValue;
+		private int value;
+		private String nextToken;
+
+		public synchronized void showToken(String label, String token) {
+			this.label = label;
+			this.token = token;
+		}
+
+		public synchronized void showValidity(int maxValue, int value) {
+			this.maxValue = maxValue;
+			this.value = value;
+		}
+
+		public synchronized void showNextToken(String token) {
+			nextToken = token;
+		}
+
+		synchronized String getLabel() {
+			return label;
+		}
+
+		synchronized String getToken() {
+			return token;
+		}
+
+		synchronized int getMaxValue() {
+			return maxValue;
+		}
+
+		synchronized int getValue() {
+			return value;
+		}
+
+		synchronized String getNextToken() {
+			return nextToken;
+		}
+	}
+
+	/**
+	 * Thread rendering the view in a loop (as the refreshing task does).
+	 */
+	private static class RenderingThread extends Thread {
+
+		private final TokenView view;
+		private boolean finished;
+		private long renders;
+		private Throwable error;
+
+		RenderingThread(TokenView view) {
+			this.view = view;
+		}
+
+		public void run() {
+			try {
+				while (!isFinished()) {
+					view.render(TIME);
+					rendered();
+				}
+			} catch (Throwable e) {
+				setError(e);
+			}
+		}
+
+		synchronized void awaitRenders(int count) throws InterruptedException {
+			final long target = renders + count;
+			final long deadline = System.currentTimeMillis() + 5000L;
+			while (renders < target && error == null && System.currentTimeMillis() < deadline) {
+				wait(100L);
+			}
+			assertNull("Rendering failed: " + error, error);
+		}
+
+		void finish() throws InterruptedException {
+			synchronized (this) {
+				finished = true;
+			}
+			join();
+		}
+
+		synchronized long getRenders() {
+			return renders;
+		}
+
+		synchronized Throwable getError() {
+			return error;
+		}
+
+		private synchronized boolean isFinished() {
+			return finished;
+		}
+
+		private synchronized void rendered() {
+			renders++;
+			notifyAll();
+		}
+
+		private synchronized void setError(Throwable e) {
+			error = e;
+			notifyAll();
+		}
+	}
+}
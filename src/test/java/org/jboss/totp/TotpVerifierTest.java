@@ -0,0 +1,66 @@
+package org.jboss.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test for the {@link TotpVerifier}. Based on <a
+ * href="http://tools.ietf.org/html/rfc6238#appendix-B">test vectors from the
+ * RFC 6238</a>.
+ *
+ * @author Josef Cacek
+ */
+public class TotpVerifierTest extends TestCase {
+
+	private static final byte[] seed20 = "12345678901234567890".getBytes();
+
+	public void testWindow() {
+		final TotpVerifier verifier = new TotpVerifier(seed20, KeyedMac.ALG_SHA1, 8, 30, 0L, 1, 2);
+		// 07081804 is valid for time 1111111109 (counter 37037036)
+		assertEquals(0, verifier.verify("07081804", 1111111109L));
+		assertEquals(0, verifier.verify(7081804, 1111111109L));
+		assertEquals(-1, verifier.verify("07081804", 1111111109L + 30));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("07081804", 1111111109L + 60));
+		assertEquals(1, verifier.verify("07081804", 1111111109L - 30));
+		assertEquals(2, verifier.verify("07081804", 1111111109L - 60));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("07081804", 1111111109L - 90));
+	}
+
+	public void testDelta() {
+		final TotpVerifier verifier = new TotpVerifier(seed20, KeyedMac.ALG_SHA1, 8, 30, -1000L, 0, 0);
+		assertEquals(0, verifier.verify("14050471", 1111111111L + 1000L));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("14050471", 1111111111L));
+	}
+
+	public void testInvalidCodes() {
+		final TotpVerifier verifier = new TotpVerifier(seed20, KeyedMac.ALG_SHA1, 8, 30, 0L, 1, 1);
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("7081804", 1111111109L));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("007081804", 1111111109L));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("0708180a", 1111111109L));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify(null, 1111111109L));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify(-7081804, 1111111109L));
+	}
+
+	public void testLongCodes() {
+		final KeyedMac mac = new KeyedMac(KeyedMac.ALG_SHA1, seed20);
+		final long counter = TOTPMIDlet.getCounter(1234567890L, 30);
+		final String token = TOTPMIDlet.genToken(counter, mac, 10);
+		final TotpVerifier verifier = new TotpVerifier(seed20, KeyedMac.ALG_SHA1, 10, 30, 0L, 0, 0);
+		assertEquals(0, verifier.verify(token, 1234567890L));
+		assertEquals(TotpVerifier.NO_MATCH, verifier.verify("9999999999", 1234567890L));
+	}
+
+	public void testInvalidParameters() {
+		try {
+			new TotpVerifier(new byte[0], KeyedMac.ALG_SHA1, 6, 30, 0L, 1, 1);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new TotpVerifier(seed20, KeyedMac.ALG_SHA1, 6, 0, 0L, 1, 1);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+}